@@ -0,0 +1,298 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import org.archive.modules.deciderules.DecideResult;
+import org.archive.net.UURI;
+
+/**
+ * Writes the decisions logged by {@link DecideRuleSequence} on a background thread, so that ToeThreads never wait
+ * on the log.
+ * <p>
+ * Records are placed in a bounded, lock free ring buffer (after Dmitry Vyukov's bounded MPMC queue, with a single
+ * consumer). Each slot holds a reusable entry, so logging a decision does not allocate or format anything on the
+ * calling thread. A single writer thread drains the buffer in batches, formats the lines and writes them either
+ * to the sequence's file logger or to its own files. Own files can be rotated by size and gzip compressed.
+ * <p>
+ * If the buffer is full the record is dropped and counted, see {@link #getDropped()}.
+ */
+public class AsyncRejectLog {
+    private static final Logger logger = Logger.getLogger(AsyncRejectLog.class.getName());
+
+    /** Most records written between flushes */
+    static final int BATCH_SIZE = 1024;
+
+    private static final class Entry {
+        long time;
+        int ruleNumber;
+        String ruleName;
+        DecideResult result;
+        String uri;
+        UURI via;
+    }
+
+    private final Entry[] entries;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // Only touched by the writer thread
+    private long head = 0;
+
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong written = new AtomicLong();
+
+    private final Logger fileLogger;
+    private final File directory;
+    private final String name;
+    private final long rotateBytes;
+    private final boolean compress;
+
+    private Writer out = null;
+    private long outBytes = 0;
+    private int fileCount = 0;
+
+    private volatile boolean running = false;
+    private Thread writerThread = null;
+
+    /**
+     * Write to a file logger.
+     *
+     * @param capacity Size of the ring buffer, rounded up to a power of two
+     */
+    public AsyncRejectLog(int capacity, Logger fileLogger) {
+        this(capacity, fileLogger, null, null, 0, false);
+    }
+
+    /**
+     * Write to own files, named <code>{name}.{n}.log</code> (or <code>.log.gz</code>).
+     *
+     * @param capacity Size of the ring buffer, rounded up to a power of two
+     * @param rotateBytes Start a new file after this many (uncompressed) bytes. Zero or less for a single file.
+     * @param compress Gzip compress the files
+     */
+    public AsyncRejectLog(int capacity, File directory, String name, long rotateBytes, boolean compress) {
+        this(capacity, null, directory, name, rotateBytes, compress);
+    }
+
+    private AsyncRejectLog(int capacity, Logger fileLogger, File directory, String name, long rotateBytes,
+            boolean compress) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.entries = new Entry[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry();
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.fileLogger = fileLogger;
+        this.directory = directory;
+        this.name = name;
+        this.rotateBytes = rotateBytes;
+        this.compress = compress;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        writerThread = new Thread(this::drainLoop, "AsyncRejectLog-" + (name == null ? "logger" : name));
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Stop the writer thread after it has written all records already in the buffer.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writerThread = null;
+    }
+
+    /**
+     * Queue a record for writing. Never blocks.
+     *
+     * @return false if the buffer was full and the record dropped
+     */
+    public boolean log(int ruleNumber, String ruleName, DecideResult result, String uri, UURI via) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long dif = sequences.get(index) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    Entry entry = entries[index];
+                    entry.time = System.currentTimeMillis();
+                    entry.ruleNumber = ruleNumber;
+                    entry.ruleName = ruleName;
+                    entry.result = result;
+                    entry.uri = uri;
+                    entry.via = via;
+                    // Publish the entry to the writer
+                    sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                // The writer has not consumed this slot yet, the buffer is full
+                dropped.increment();
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    private void drainLoop() {
+        StringBuilder line = new StringBuilder(256);
+        long lastDropped = 0;
+        try {
+            while (true) {
+                boolean stopping = !running;
+                int count = drainBatch(line);
+                long droppedNow = dropped.sum();
+                if (droppedNow != lastDropped && count == 0) {
+                    write(line, "Dropped " + (droppedNow - lastDropped) + " records, log buffer full");
+                    lastDropped = droppedNow;
+                    flush();
+                }
+                if (count == 0) {
+                    if (stopping) {
+                        break;
+                    }
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                }
+            }
+        } catch (Throwable t) {
+            logger.log(Level.SEVERE, "Reject log writer failed, further records will be dropped", t);
+        } finally {
+            closeFile();
+        }
+    }
+
+    /**
+     * @return Number of records written
+     */
+    private int drainBatch(StringBuilder line) throws IOException {
+        int count = 0;
+        while (count < BATCH_SIZE) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            Entry entry = entries[index];
+            line.setLength(0);
+            line.append(entry.ruleNumber).append(' ').append(entry.ruleName).append(' ').append(entry.result)
+                .append(' ').append(entry.uri).append(' ');
+            if (entry.via != null) {
+                line.append(entry.via.toCustomString());
+            }
+            long time = entry.time;
+            entry.ruleName = null;
+            entry.uri = null;
+            entry.via = null;
+            // Return the slot to the producers
+            sequences.lazySet(index, head + entries.length);
+            head++;
+            count++;
+
+            if (fileLogger != null) {
+                fileLogger.info(line.toString());
+            } else {
+                write(time, line);
+            }
+        }
+        if (count > 0) {
+            written.addAndGet(count);
+            flush();
+        }
+        return count;
+    }
+
+    private void write(StringBuilder line, String message) throws IOException {
+        if (fileLogger != null) {
+            fileLogger.warning(message);
+        } else {
+            line.setLength(0);
+            line.append(message);
+            write(System.currentTimeMillis(), line);
+        }
+    }
+
+    private void write(long time, CharSequence line) throws IOException {
+        if (out == null || (rotateBytes > 0 && outBytes >= rotateBytes)) {
+            openFile();
+        }
+        String timestamp = Instant.ofEpochMilli(time).toString();
+        out.write(timestamp);
+        out.write(' ');
+        out.append(line);
+        out.write('\n');
+        outBytes += timestamp.length() + line.length() + 2;
+    }
+
+    private void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    private void openFile() throws IOException {
+        closeFile();
+        File file;
+        do {
+            file = new File(directory, name + "." + (fileCount++) + (compress ? ".log.gz" : ".log"));
+        } while (file.exists());
+        directory.mkdirs();
+        OutputStream stream = new FileOutputStream(file);
+        if (compress) {
+            stream = new GZIPOutputStream(stream, 64 * 1024, true);
+        }
+        out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 64 * 1024);
+        outBytes = 0;
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error closing reject log", e);
+            }
+            out = null;
+        }
+    }
+}
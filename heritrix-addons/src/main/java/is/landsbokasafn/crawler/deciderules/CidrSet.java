@@ -0,0 +1,236 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.logging.Logger;
+
+/**
+ * Immutable set of IPv4 and IPv6 address ranges in CIDR notation, compiled for fast lookup.
+ * <p>
+ * IPv4 ranges are merged into sorted, non-overlapping intervals that are searched with a binary search. IPv6 ranges
+ * are stored in a binary radix trie over the address bits. Lookup cost therefore grows with the logarithm of the
+ * number of ranges (IPv4) or is bounded by the address length (IPv6), rather than linearly.
+ * <p>
+ * A range is given as <code>address/prefix-length</code>. An address without a prefix length is treated as a
+ * single address (/32 or /128). Ranges include both the network and broadcast addresses.
+ */
+public class CidrSet {
+    private static final Logger logger = Logger.getLogger(CidrSet.class.getName());
+
+    private final long[] starts;
+    private final long[] ends;
+
+    // IPv6 trie. Node 0 is the root. -1 means no child.
+    private final int[] zero;
+    private final int[] one;
+    private final boolean[] terminal;
+
+    private final int ipv6Count;
+
+    /**
+     * @param cidrs The ranges. Invalid entries are logged and ignored.
+     */
+    public CidrSet(Collection<String> cidrs) {
+        long[] rawStarts = new long[cidrs.size()];
+        long[] rawEnds = new long[cidrs.size()];
+        int ipv4Count = 0;
+
+        TrieBuilder trie = new TrieBuilder();
+        int v6 = 0;
+        long[] address = new long[2];
+        for (String cidr : cidrs) {
+            String c = cidr.trim();
+            int slash = c.indexOf('/');
+            String host = slash < 0 ? c : c.substring(0, slash);
+            int prefix;
+            try {
+                prefix = slash < 0 ? -1 : Integer.parseInt(c.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                logger.severe("Invalid CIDR address specified: " + cidr);
+                continue;
+            }
+            if (slash >= 0 && prefix < 0) {
+                logger.severe("Invalid CIDR address specified: " + cidr);
+                continue;
+            }
+
+            long v4 = IpAddresses.parseIPv4(host);
+            if (v4 != IpAddresses.INVALID) {
+                if (prefix < 0) {
+                    prefix = 32;
+                }
+                if (prefix > 32) {
+                    logger.severe("Invalid CIDR address specified: " + cidr);
+                    continue;
+                }
+                long size = 1L << (32 - prefix);
+                long start = v4 & ~(size - 1) & 0xffffffffL;
+                rawStarts[ipv4Count] = start;
+                rawEnds[ipv4Count] = start + size - 1;
+                ipv4Count++;
+            } else if (IpAddresses.parseIPv6(host, address)) {
+                if (prefix < 0) {
+                    prefix = 128;
+                }
+                if (prefix > 128) {
+                    logger.severe("Invalid CIDR address specified: " + cidr);
+                    continue;
+                }
+                trie.add(address[0], address[1], prefix);
+                v6++;
+            } else {
+                logger.severe("Invalid CIDR address specified: " + cidr);
+            }
+        }
+
+        // Sort by start and merge overlapping or adjacent intervals
+        long[][] intervals = new long[ipv4Count][];
+        for (int i = 0; i < ipv4Count; i++) {
+            intervals[i] = new long[] { rawStarts[i], rawEnds[i] };
+        }
+        Arrays.sort(intervals, (a, b) -> Long.compare(a[0], b[0]));
+        long[] s = new long[ipv4Count];
+        long[] e = new long[ipv4Count];
+        int merged = 0;
+        for (long[] interval : intervals) {
+            if (merged > 0 && interval[0] <= e[merged - 1] + 1) {
+                e[merged - 1] = Math.max(e[merged - 1], interval[1]);
+            } else {
+                s[merged] = interval[0];
+                e[merged] = interval[1];
+                merged++;
+            }
+        }
+        this.starts = Arrays.copyOf(s, merged);
+        this.ends = Arrays.copyOf(e, merged);
+
+        this.zero = Arrays.copyOf(trie.zero, trie.size);
+        this.one = Arrays.copyOf(trie.one, trie.size);
+        this.terminal = Arrays.copyOf(trie.terminal, trie.size);
+        this.ipv6Count = v6;
+    }
+
+    /**
+     * @return Number of distinct IPv4 intervals after merging
+     */
+    public int getIPv4IntervalCount() {
+        return starts.length;
+    }
+
+    public int getIPv6RangeCount() {
+        return ipv6Count;
+    }
+
+    public boolean isEmpty() {
+        return starts.length == 0 && ipv6Count == 0;
+    }
+
+    /**
+     * @param address Numeric IPv4 address, see {@link IpAddresses}
+     */
+    public boolean containsIPv4(long address) {
+        int lo = 0;
+        int hi = starts.length - 1;
+        // Find the last interval starting at or before the address
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= address) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return hi >= 0 && address <= ends[hi];
+    }
+
+    /**
+     * @param high High 64 bits of the IPv6 address
+     * @param low Low 64 bits of the IPv6 address
+     */
+    public boolean containsIPv6(long high, long low) {
+        long mapped = IpAddresses.mappedIPv4(high, low);
+        if (mapped != IpAddresses.INVALID && containsIPv4(mapped)) {
+            return true;
+        }
+        int node = 0;
+        for (int bit = 0; bit < 128; bit++) {
+            if (terminal[node]) {
+                return true;
+            }
+            long word = bit < 64 ? high : low;
+            boolean set = ((word >>> (63 - (bit & 63))) & 1L) != 0;
+            node = set ? one[node] : zero[node];
+            if (node < 0) {
+                return false;
+            }
+        }
+        return terminal[node];
+    }
+
+    /**
+     * @param address IPv4 or IPv6 address in textual form
+     * @return True if it is in the set. False if not or if the address can not be parsed.
+     */
+    public boolean contains(CharSequence address, long[] scratch) {
+        long v4 = IpAddresses.parseIPv4(address);
+        if (v4 != IpAddresses.INVALID) {
+            return containsIPv4(v4);
+        }
+        return IpAddresses.parseIPv6(address, scratch) && containsIPv6(scratch[0], scratch[1]);
+    }
+
+    public boolean contains(InetAddress address, long[] scratch) {
+        long v4 = IpAddresses.toIPv4(address);
+        if (v4 != IpAddresses.INVALID) {
+            return containsIPv4(v4);
+        }
+        return IpAddresses.toIPv6(address, scratch) && containsIPv6(scratch[0], scratch[1]);
+    }
+
+    private static final class TrieBuilder {
+        int[] zero = new int[64];
+        int[] one = new int[64];
+        boolean[] terminal = new boolean[64];
+        int size = 0;
+
+        TrieBuilder() {
+            newNode();
+        }
+
+        private int newNode() {
+            if (size == zero.length) {
+                zero = Arrays.copyOf(zero, size * 2);
+                one = Arrays.copyOf(one, size * 2);
+                terminal = Arrays.copyOf(terminal, size * 2);
+            }
+            zero[size] = -1;
+            one[size] = -1;
+            terminal[size] = false;
+            return size++;
+        }
+
+        void add(long high, long low, int prefix) {
+            int node = 0;
+            for (int bit = 0; bit < prefix; bit++) {
+                if (terminal[node]) {
+                    // Already covered by a shorter prefix
+                    return;
+                }
+                long word = bit < 64 ? high : low;
+                boolean set = ((word >>> (63 - (bit & 63))) & 1L) != 0;
+                int next = set ? one[node] : zero[node];
+                if (next < 0) {
+                    next = newNode();
+                    if (set) {
+                        one[node] = next;
+                    } else {
+                        zero[node] = next;
+                    }
+                }
+                node = next;
+            }
+            terminal[node] = true;
+        }
+    }
+}
@@ -19,14 +19,25 @@
 package is.landsbokasafn.crawler.deciderules;
 
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.httpclient.URIException;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.SimpleFileLoggerProvider;
 import org.archive.modules.deciderules.DecideResult;
 import org.archive.modules.deciderules.DecideRule;
+import org.archive.spring.ConfigPath;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.Lifecycle;
@@ -63,6 +74,180 @@ public class DecideRuleSequence extends DecideRule implements BeanNameAware, Lif
         kp.put("logToFile",enabled);
     }
 
+    /**
+     * If enabled (and logToFile is enabled), log lines are queued in a bounded buffer and written by a background
+     * thread, see {@link AsyncRejectLog}. Lines are dropped, and counted, rather than delay scoping if the buffer
+     * fills up.
+     */
+    {
+        setAsyncLogging(false);
+    }
+    public boolean getAsyncLogging() {
+        return (Boolean) kp.get("asyncLogging");
+    }
+    public void setAsyncLogging(boolean asyncLogging) {
+        kp.put("asyncLogging",asyncLogging);
+    }
+
+    /**
+     * Number of log lines that can be waiting to be written when using asyncLogging.
+     */
+    {
+        setAsyncLogBufferSize(65536);
+    }
+    public int getAsyncLogBufferSize() {
+        return (Integer) kp.get("asyncLogBufferSize");
+    }
+    public void setAsyncLogBufferSize(int asyncLogBufferSize) {
+        kp.put("asyncLogBufferSize",asyncLogBufferSize);
+    }
+
+    /**
+     * If set, asyncLogging writes to its own files in this directory, named {spring-bean-id}.{n}.log, instead of
+     * to logs/{spring-bean-id}.log. Own files can be rotated and compressed.
+     */
+    protected ConfigPath asyncLogDirectory = null;
+    public ConfigPath getAsyncLogDirectory() {
+        return asyncLogDirectory;
+    }
+    public void setAsyncLogDirectory(ConfigPath asyncLogDirectory) {
+        this.asyncLogDirectory = asyncLogDirectory;
+    }
+
+    /**
+     * Start a new file after this many bytes when writing to an asyncLogDirectory. Zero or less disables rotation.
+     */
+    {
+        setAsyncLogRotateBytes(1024L * 1024 * 1024);
+    }
+    public long getAsyncLogRotateBytes() {
+        return (Long) kp.get("asyncLogRotateBytes");
+    }
+    public void setAsyncLogRotateBytes(long asyncLogRotateBytes) {
+        kp.put("asyncLogRotateBytes",asyncLogRotateBytes);
+    }
+
+    /**
+     * Gzip compress files written to an asyncLogDirectory.
+     */
+    {
+        setAsyncLogCompress(true);
+    }
+    public boolean getAsyncLogCompress() {
+        return (Boolean) kp.get("asyncLogCompress");
+    }
+    public void setAsyncLogCompress(boolean asyncLogCompress) {
+        kp.put("asyncLogCompress",asyncLogCompress);
+    }
+
+    protected transient volatile AsyncRejectLog asyncLog = null;
+
+    /**
+     * If enabled, rejections are summarized in memory: for each decisive rule, the hosts it rejects the most URIs 
+     * from, with a few sample URIs each. See {@link RejectionSketch}. Memory use is fixed. As with the file log,
+     * rejections by the first rule (usually a reject all rule) are not counted.
+     */
+    {
+        setRejectionAnalytics(false);
+    }
+    public boolean getRejectionAnalytics() {
+        return (Boolean) kp.get("rejectionAnalytics");
+    }
+    public void setRejectionAnalytics(boolean rejectionAnalytics) {
+        kp.put("rejectionAnalytics",rejectionAnalytics);
+    }
+
+    /**
+     * Number of hosts to track per rule for rejectionAnalytics.
+     */
+    {
+        setRejectionTopHosts(25);
+    }
+    public int getRejectionTopHosts() {
+        return (Integer) kp.get("rejectionTopHosts");
+    }
+    public void setRejectionTopHosts(int rejectionTopHosts) {
+        kp.put("rejectionTopHosts",rejectionTopHosts);
+    }
+
+    /**
+     * Number of recently rejected URIs to keep per tracked host for rejectionAnalytics.
+     */
+    {
+        setRejectionSampleUris(3);
+    }
+    public int getRejectionSampleUris() {
+        return (Integer) kp.get("rejectionSampleUris");
+    }
+    public void setRejectionSampleUris(int rejectionSampleUris) {
+        kp.put("rejectionSampleUris",rejectionSampleUris);
+    }
+
+    protected transient Map<DecideRule, RejectionSketch> rejectionSketches = new ConcurrentHashMap<>();
+
+    protected void recordRejection(DecideRule rule, int ruleNumber, CrawlURI uri) {
+        RejectionSketch sketch = rejectionSketches.get(rule);
+        if (sketch == null) {
+            sketch = rejectionSketches.computeIfAbsent(rule, r -> new RejectionSketch(
+                    ruleNumber + " " + r.getClass().getSimpleName(), getRejectionTopHosts(), 
+                    getRejectionSampleUris()));
+        }
+        String host;
+        try {
+            host = uri.getUURI().getReferencedHost();
+        } catch (URIException e) {
+            host = null;
+        }
+        sketch.add(host == null ? "-" : host, uri.toString());
+    }
+
+    /**
+     * @return Rejection summaries for rules that have rejected something, in rule order
+     */
+    public List<RejectionSketch> getRejectionSketches() {
+        List<RejectionSketch> result = new ArrayList<>();
+        Map<RejectionSketch, Boolean> listed = new IdentityHashMap<>();
+        for (DecideRule rule : getRules()) {
+            RejectionSketch sketch = rejectionSketches.get(rule);
+            if (sketch != null) {
+                listed.put(sketch, Boolean.TRUE);
+                result.add(sketch);
+            }
+        }
+        for (RejectionSketch sketch : rejectionSketches.values()) {
+            if (!listed.containsKey(sketch)) {
+                result.add(sketch);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return For each rule, a line with [#] [rule] [rejections], followed by a line for each of the top hosts: 
+     *         [estimated-rejections] [host] [sample-uris...]
+     */
+    public String getRejectionReport() {
+        StringBuilder report = new StringBuilder();
+        for (RejectionSketch sketch : getRejectionSketches()) {
+            report.append(sketch.getName() + "\t" + sketch.getTotal() + "\n");
+            for (RejectionSketch.HostRejections host : sketch.getHeavyHosts()) {
+                report.append("\t" + host.getCount() + "\t" + host.getHost());
+                for (String sample : host.getSampleUris()) {
+                    report.append("\t" + sample);
+                }
+                report.append("\n");
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * @return Number of log lines dropped because the asyncLogging buffer was full
+     */
+    public long getDroppedLogLines() {
+        return asyncLog == null ? 0 : asyncLog.getDropped();
+    }
+
     // provided by CrawlerLoggerModule which is in heritrix-engine, inaccessible
     // from here, thus the need for the SimpleFileLoggerProvider interface
     protected SimpleFileLoggerProvider loggerModule;
@@ -74,6 +259,172 @@ public class DecideRuleSequence extends DecideRule implements BeanNameAware, Lif
         this.loggerModule = loggerModule;
     }
     
+    /**
+     * If enabled, rules are evaluated from the last to the first and evaluation stops at the first rule that
+     * returns a decision. As the last decision always wins this gives the same result as evaluating the rules in
+     * order, but rules at the front of the sequence are usually not evaluated at all. Rules must not rely on being
+     * evaluated for every URI (i.e. should not have side effects) for this to be safe.
+     * <p>
+     * When logging to file or collecting rejectionAnalytics, rules before the deciding rule may still be evaluated
+     * to determine which rule would have been decisive in the normal order, so the log is the same in either mode.
+     * The decisive count in the rule metrics is not corrected in this way, to avoid evaluating rules just for
+     * metrics: in reverse mode it counts the last rule to return the final decision, which may be a later rule than
+     * the one logged if that rule can only return the decision already reached.
+     */
+    {
+        setReverseEvaluation(false);
+    }
+    public boolean getReverseEvaluation() {
+        return (Boolean) kp.get("reverseEvaluation");
+    }
+    public void setReverseEvaluation(boolean reverseEvaluation) {
+        kp.put("reverseEvaluation",reverseEvaluation);
+    }
+
+    /**
+     * Time the evaluation of each rule for one in this many URIs. Decision counts are always kept. Zero disables
+     * timing.
+     */
+    {
+        setLatencySampleRate(64);
+    }
+    public int getLatencySampleRate() {
+        return (Integer) kp.get("latencySampleRate");
+    }
+    public void setLatencySampleRate(int latencySampleRate) {
+        kp.put("latencySampleRate",latencySampleRate);
+    }
+
+    /**
+     * If enabled, the rule metrics are published over JMX as
+     * <code>is.landsbokasafn.crawler:type=DecideRuleSequence,name={spring-bean-id}</code> while the bean is
+     * running. Like logToFile this relies on Spring Lifecycle.
+     */
+    {
+        setRegisterMBean(true);
+    }
+    public boolean getRegisterMBean() {
+        return (Boolean) kp.get("registerMBean");
+    }
+    public void setRegisterMBean(boolean registerMBean) {
+        kp.put("registerMBean",registerMBean);
+    }
+
+    /**
+     * Metrics for every rule seen, keyed on identity as sheet overlays may supply different rule lists.
+     */
+    protected transient Map<DecideRule, RuleMetrics> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * A rule list as a map key. Lists are compared on identity, as comparing them with equals walks the list.
+     */
+    private static final class RuleListKey {
+        final List<DecideRule> rules;
+        RuleListKey(List<DecideRule> rules) {
+            this.rules = rules;
+        }
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(rules);
+        }
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof RuleListKey && ((RuleListKey) o).rules == rules;
+        }
+    }
+
+    /** Plans are dropped if there are more rule lists than this, as there should only be one per overlay */
+    private static final int MAX_METRICS_PLANS = 256;
+
+    /**
+     * Metrics by position for each rule list evaluated, the sequence's own and those supplied by overlays. Saves a 
+     * map lookup per rule.
+     */
+    private transient Map<RuleListKey, RuleMetrics[]> metricsPlans = new ConcurrentHashMap<>();
+
+    protected RuleMetrics[] getMetrics(List<DecideRule> rules) {
+        RuleListKey key = new RuleListKey(rules);
+        RuleMetrics[] plan = metricsPlans.get(key);
+        if (plan == null || plan.length != rules.size()) {
+            plan = new RuleMetrics[rules.size()];
+            for (int i = 0; i < plan.length; i++) {
+                plan[i] = metrics.computeIfAbsent(rules.get(i), r -> new RuleMetrics(r.getClass().getSimpleName()));
+            }
+            if (metricsPlans.size() >= MAX_METRICS_PLANS) {
+                metricsPlans.clear();
+            }
+            metricsPlans.put(key, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * @return Metrics for each rule in the sequence, in order, followed by those of any rules that only appear in
+     *         overlays
+     */
+    public List<RuleMetrics> getRuleMetrics() {
+        return getRuleMetrics(getRules());
+    }
+
+    private List<RuleMetrics> getRuleMetrics(List<DecideRule> rules) {
+        Map<RuleMetrics, Boolean> listed = new IdentityHashMap<>();
+        List<RuleMetrics> result = new ArrayList<>();
+        for (RuleMetrics m : getMetrics(rules)) {
+            listed.put(m, Boolean.TRUE);
+            result.add(m);
+        }
+        for (RuleMetrics m : metrics.values()) {
+            if (!listed.containsKey(m)) {
+                result.add(m);
+            }
+        }
+        return result;
+    }
+
+    public void resetRuleMetrics() {
+        for (RuleMetrics m : metrics.values()) {
+            m.reset();
+        }
+    }
+
+    public static final String OVERLAY_LABEL = "overlay";
+
+    private static String ruleLabel(int i, List<DecideRule> rules) {
+        return i < rules.size() ? Integer.toString(i) : OVERLAY_LABEL;
+    }
+
+    /**
+     * @return For each entry of {@link #getRuleMetrics()}, the rule's number in the sequence and its name. Rules 
+     *         that only appear in overlays have no fixed number and are labeled {@value #OVERLAY_LABEL} instead.
+     */
+    public List<String> getRuleNames() {
+        List<DecideRule> rules = getRules();
+        List<String> names = new ArrayList<>();
+        int i = 0;
+        for (RuleMetrics m : getRuleMetrics(rules)) {
+            names.add(ruleLabel(i++, rules) + " " + m.getName());
+        }
+        return names;
+    }
+
+    /**
+     * @return One line per rule: [#] [rule] [evaluations] [skipped] [accepts] [rejects] [nones] [decisive] 
+     *         [sampled] [mean-nanos] [p50-nanos] [p99-nanos]. [#] is {@value #OVERLAY_LABEL} for rules that only
+     *         appear in overlays.
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        List<DecideRule> rules = getRules();
+        int i = 0;
+        for (RuleMetrics m : getRuleMetrics(rules)) {
+            report.append(ruleLabel(i++, rules) + "\t" + m.getName() + "\t" + m.getEvaluations() + "\t" + m.getSkipped() 
+                    + "\t" + m.getAccepts() + "\t" + m.getRejects() + "\t" + m.getNones() 
+                    + "\t" + m.getDecisive() + "\t" + m.getSampledEvaluations() + "\t" + m.getMeanNanos()
+                    + "\t" + m.getLatencyNanos(0.5) + "\t" + m.getLatencyNanos(0.99) + "\n");
+        }
+        return report.toString();
+    }
+
     @SuppressWarnings("unchecked")
     public List<DecideRule> getRules() {
         return (List<DecideRule>) kp.get("rules");
@@ -88,24 +439,65 @@ public class DecideRuleSequence extends DecideRule implements BeanNameAware, Lif
         DecideResult result = DecideResult.NONE;
         List<DecideRule> rules = getRules();
         int max = rules.size();
+        RuleMetrics[] ruleMetrics = getMetrics(rules);
+        int sampleRate = getLatencySampleRate();
+        boolean timed = sampleRate > 0 && ThreadLocalRandom.current().nextInt(sampleRate) == 0;
         
-        for (int i = 0; i < max; i++) {
-            DecideRule rule = rules.get(i);
-            if (rule.onlyDecision(uri) != result) {
-                DecideResult r = rule.decisionFor(uri);
-                if (LOGGER.isLoggable(Level.FINEST)) {
-                    LOGGER.finest("DecideRule #" + i + " " + 
-                            rule.getClass().getName() + " returned " + r + " for url: " + uri);
+        if (getReverseEvaluation()) {
+            for (int i = max - 1; i >= 0; i--) {
+                DecideRule rule = rules.get(i);
+                if (rule.onlyDecision(uri) == DecideResult.NONE) {
+                    ruleMetrics[i].skipped();
+                } else {
+                    DecideResult r = evaluateRule(rule, i, uri, ruleMetrics[i], timed);
+                    if (r != DecideResult.NONE) {
+                        result = r;
+                        decisiveRule = rule;
+                        decisiveRuleNumber = i;
+                        break;
+                    }
                 }
-                if (r != DecideResult.NONE) {
-                    result = r;
-                    decisiveRule = rule;
-                    decisiveRuleNumber = i;
+            }
+            if (decisiveRuleNumber >= 0) {
+                // Counted the same whether or not the decisive rule is corrected below, see reverseEvaluation
+                ruleMetrics[decisiveRuleNumber].decisive();
+            }
+            if ((fileLogger != null || asyncLog != null || getRejectionAnalytics()) 
+                    && result == DecideResult.REJECT) {
+                decisiveRuleNumber = forwardDecisiveRuleNumber(rules, ruleMetrics, decisiveRuleNumber, result, uri);
+                decisiveRule = rules.get(decisiveRuleNumber);
+            }
+        } else {
+            for (int i = 0; i < max; i++) {
+                DecideRule rule = rules.get(i);
+                if (rule.onlyDecision(uri) == result) {
+                    ruleMetrics[i].skipped();
+                } else {
+                    DecideResult r = evaluateRule(rule, i, uri, ruleMetrics[i], timed);
+                    if (r != DecideResult.NONE) {
+                        result = r;
+                        decisiveRule = rule;
+                        decisiveRuleNumber = i;
+                    }
                 }
             }
+            if (decisiveRuleNumber >= 0) {
+                ruleMetrics[decisiveRuleNumber].decisive();
+            }
         }
 
-        if (fileLogger != null) {
+        if (result == DecideResult.REJECT && decisiveRuleNumber > 0 && getRejectionAnalytics()) {
+            recordRejection(decisiveRule, decisiveRuleNumber, uri);
+        }
+
+        AsyncRejectLog async = asyncLog;
+        if (async != null) {
+            if (result==DecideResult.REJECT && decisiveRuleNumber!=0 ) {
+                // Formatted and written on the log's own thread
+                async.log(decisiveRuleNumber, decisiveRule.getClass().getSimpleName(), result, 
+                        uri.toString(), uri.getVia());
+            }
+        } else if (fileLogger != null) {
             if (result==DecideResult.REJECT && decisiveRuleNumber!=0 ) {
             	String via = "";
             	if (uri.getVia()!=null) {
@@ -119,6 +511,58 @@ public class DecideRuleSequence extends DecideRule implements BeanNameAware, Lif
 
         return result;
     }
+
+    protected DecideResult evaluateRule(DecideRule rule, int i, CrawlURI uri, RuleMetrics metrics, 
+            boolean timed) {
+        DecideResult r;
+        if (timed) {
+            long start = System.nanoTime();
+            r = rule.decisionFor(uri);
+            metrics.sampled(System.nanoTime() - start);
+        } else {
+            r = rule.decisionFor(uri);
+        }
+        metrics.evaluated(r);
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.finest("DecideRule #" + i + " " + 
+                    rule.getClass().getName() + " returned " + r + " for url: " + uri);
+        }
+        return r;
+    }
+
+    /**
+     * In the normal order a rule is skipped if it can only return the decision already reached, so the decisive
+     * rule is not always the last one to return the final result. Given the last rule to return a decision, find
+     * the rule that would have been decisive when evaluating in order.
+     * 
+     * @param decisive Number of the last rule that returns a decision
+     * @param result The decision it returned
+     * @return Number of the rule that is decisive when evaluating in order
+     */
+    protected int forwardDecisiveRuleNumber(List<DecideRule> rules, RuleMetrics[] ruleMetrics, int decisive, 
+            DecideResult result, CrawlURI uri) {
+        // The candidate is only skipped if it can return nothing but the result and an earlier rule already
+        // reached that result.
+        while (rules.get(decisive).onlyDecision(uri) == result) {
+            int previous = -1;
+            DecideResult r = DecideResult.NONE;
+            for (int i = decisive - 1; i >= 0; i--) {
+                DecideRule rule = rules.get(i);
+                if (rule.onlyDecision(uri) != DecideResult.NONE) {
+                    r = evaluateRule(rule, i, uri, ruleMetrics[i], false);
+                    if (r != DecideResult.NONE) {
+                        previous = i;
+                        break;
+                    }
+                }
+            }
+            if (r != result) {
+                break;
+            }
+            decisive = previous;
+        }
+        return decisive;
+    }
     
     protected String beanName;
     public String getBeanName() {
@@ -136,13 +580,67 @@ public class DecideRuleSequence extends DecideRule implements BeanNameAware, Lif
     }
     @Override
     public void start() {
-        if (getLogToFile() && fileLogger == null) {
+        if (getLogToFile() && getAsyncLogging() && asyncLog == null) {
+            if (getAsyncLogDirectory() != null) {
+                asyncLog = new AsyncRejectLog(getAsyncLogBufferSize(), getAsyncLogDirectory().getFile(), 
+                        getBeanName(), getAsyncLogRotateBytes(), getAsyncLogCompress());
+            } else {
+                fileLogger = loggerModule.setupSimpleLog(getBeanName());
+                asyncLog = new AsyncRejectLog(getAsyncLogBufferSize(), fileLogger);
+            }
+            asyncLog.start();
+        }
+        if (getLogToFile() && fileLogger == null && asyncLog == null) {
             fileLogger = loggerModule.setupSimpleLog(getBeanName());
         }
+        if (getRegisterMBean() && mbeanName == null) {
+            registerMBean();
+        }
         isRunning = true;
     }
     @Override
     public void stop() {
+        unregisterMBean();
+        if (asyncLog != null) {
+            asyncLog.stop();
+            if (asyncLog.getDropped() > 0) {
+                LOGGER.warning(getBeanName() + " dropped " + asyncLog.getDropped() + " log lines");
+            }
+            asyncLog = null;
+            // Set up for the async log, not to be used on its own if restarted without one
+            fileLogger = null;
+        }
         isRunning = false;
     }
+
+    protected transient ObjectName mbeanName = null;
+
+    protected void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("is.landsbokasafn.crawler:type=DecideRuleSequence,name=" 
+                    + ObjectName.quote(getBeanName() == null ? "unnamed" : getBeanName()));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                // E.g. another job running in the same JVM with a bean of the same name
+                LOGGER.warning("MBean " + name + " already registered, metrics will not be published over JMX");
+                return;
+            }
+            server.registerMBean(new DecideRuleSequenceMetrics(this), name);
+            mbeanName = name;
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Unable to register MBean for " + getBeanName(), e);
+        }
+    }
+
+    protected void unregisterMBean() {
+        if (mbeanName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Unable to unregister MBean " + mbeanName, e);
+        }
+        mbeanName = null;
+    }
 }
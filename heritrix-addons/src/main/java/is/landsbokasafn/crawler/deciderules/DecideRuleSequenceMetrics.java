@@ -0,0 +1,90 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Standard MBean exposing the rule metrics of a {@link DecideRuleSequence}.
+ */
+public class DecideRuleSequenceMetrics implements DecideRuleSequenceMetricsMBean {
+    private final DecideRuleSequence sequence;
+
+    public DecideRuleSequenceMetrics(DecideRuleSequence sequence) {
+        this.sequence = sequence;
+    }
+
+    private long[] collect(ToLongFunction<RuleMetrics> value) {
+        List<RuleMetrics> metrics = sequence.getRuleMetrics();
+        long[] result = new long[metrics.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = value.applyAsLong(metrics.get(i));
+        }
+        return result;
+    }
+
+    @Override
+    public String[] getRuleNames() {
+        List<String> names = sequence.getRuleNames();
+        return names.toArray(new String[names.size()]);
+    }
+
+    @Override
+    public long[] getEvaluations() {
+        return collect(RuleMetrics::getEvaluations);
+    }
+
+    @Override
+    public long[] getSkipped() {
+        return collect(RuleMetrics::getSkipped);
+    }
+
+    @Override
+    public long[] getAccepts() {
+        return collect(RuleMetrics::getAccepts);
+    }
+
+    @Override
+    public long[] getRejects() {
+        return collect(RuleMetrics::getRejects);
+    }
+
+    @Override
+    public long[] getNones() {
+        return collect(RuleMetrics::getNones);
+    }
+
+    @Override
+    public long[] getDecisive() {
+        return collect(RuleMetrics::getDecisive);
+    }
+
+    @Override
+    public long[] getMeanNanos() {
+        return collect(RuleMetrics::getMeanNanos);
+    }
+
+    @Override
+    public long[] getP99Nanos() {
+        return collect(m -> m.getLatencyNanos(0.99));
+    }
+
+    @Override
+    public int getLatencySampleRate() {
+        return sequence.getLatencySampleRate();
+    }
+
+    @Override
+    public void setLatencySampleRate(int latencySampleRate) {
+        sequence.setLatencySampleRate(latencySampleRate);
+    }
+
+    @Override
+    public String getReport() {
+        return sequence.getReport();
+    }
+
+    @Override
+    public void reset() {
+        sequence.resetRuleMetrics();
+    }
+}
@@ -0,0 +1,37 @@
+package is.landsbokasafn.crawler.deciderules;
+
+/**
+ * JMX view of the rule metrics of a {@link DecideRuleSequence}. Array attributes have one element per rule, in the
+ * same order as {@link #getRuleNames()}.
+ */
+public interface DecideRuleSequenceMetricsMBean {
+
+    String[] getRuleNames();
+
+    long[] getEvaluations();
+
+    long[] getSkipped();
+
+    long[] getAccepts();
+
+    long[] getRejects();
+
+    long[] getNones();
+
+    long[] getDecisive();
+
+    long[] getMeanNanos();
+
+    long[] getP99Nanos();
+
+    int getLatencySampleRate();
+
+    void setLatencySampleRate(int latencySampleRate);
+
+    /**
+     * @return As {@link DecideRuleSequence#getReport()}
+     */
+    String getReport();
+
+    void reset();
+}
@@ -0,0 +1,97 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.archive.modules.net.CrawlHost;
+
+/**
+ * Remembers the outcome of an IP based decision for each host, so that it is only computed once per DNS
+ * resolution rather than once per URI.
+ * <p>
+ * A cached verdict is only used while the host still has the same IP address, fetch time and TTL as when it was
+ * computed, and while the rule is still matching against the same set of addresses. Any change to the host's DNS
+ * record or to the rule's configuration therefore causes the verdict to be recomputed.
+ * <p>
+ * The cache is bounded. When it is full it is simply cleared, on the assumption that verdicts are cheap to
+ * recompute and that hosts being actively crawled will quickly be cached again.
+ */
+public class HostVerdictCache {
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    private final ConcurrentHashMap<String, Verdict> verdicts = new ConcurrentHashMap<>();
+    private final int maxSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public HostVerdictCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public HostVerdictCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    private static final class Verdict {
+        final Object addresses;
+        final InetAddress ip;
+        final long ipFetched;
+        final long ipTTL;
+        final boolean result;
+
+        Verdict(Object addresses, CrawlHost host, boolean result) {
+            this.addresses = addresses;
+            this.ip = host.getIP();
+            this.ipFetched = host.getIpFetched();
+            this.ipTTL = host.getIpTTL();
+            this.result = result;
+        }
+
+        boolean isValidFor(Object addresses, CrawlHost host) {
+            return this.addresses == addresses
+                    && ipFetched == host.getIpFetched()
+                    && ipTTL == host.getIpTTL()
+                    && ip.equals(host.getIP());
+        }
+    }
+
+    /**
+     * @param host The host, must have an IP address
+     * @param addresses The compiled addresses the verdict was reached against
+     * @return The cached verdict or null if there is none that is still valid
+     */
+    public Boolean get(CrawlHost host, Object addresses) {
+        Verdict verdict = verdicts.get(host.getHostName());
+        if (verdict != null && verdict.isValidFor(addresses, host)) {
+            hits.increment();
+            return verdict.result;
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(CrawlHost host, Object addresses, boolean result) {
+        if (verdicts.size() >= maxSize) {
+            verdicts.clear();
+        }
+        verdicts.put(host.getHostName(), new Verdict(addresses, host, result));
+    }
+
+    public void clear() {
+        verdicts.clear();
+    }
+
+    public int size() {
+        return verdicts.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
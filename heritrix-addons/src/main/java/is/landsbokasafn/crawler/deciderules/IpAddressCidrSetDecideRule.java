@@ -2,14 +2,10 @@ package is.landsbokasafn.crawler.deciderules;
 
 import java.net.InetAddress;
 import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.net.util.SubnetUtils;
-import org.apache.commons.net.util.SubnetUtils.SubnetInfo;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.deciderules.PredicatedDecideRule;
 import org.archive.modules.net.CrawlHost;
@@ -27,6 +23,18 @@ import org.springframework.beans.factory.annotation.Autowired;
  * </p>
  * 
  * <p>
+ * The ranges are compiled into a {@link CidrSet} (sorted, merged intervals for
+ * IPv4 and a radix trie for IPv6) so lookup time grows only logarithmically
+ * with the number of ranges. Both IPv4 and IPv6 ranges are supported.
+ * </p>
+ * 
+ * <p>
+ * When the address must be looked up in the server cache the verdict is
+ * remembered per host (see {@link HostVerdictCache}) until the host's DNS
+ * record changes.
+ * </p>
+ * 
+ * <p>
  * IpAddressCidrSetDecideRule must be used with
  * org.archive.crawler.prefetch.Preselector#setRecheckScope(boolean) set to true
  * because it relies on Heritrix' dns lookup to establish the ip address for a
@@ -56,7 +64,11 @@ public class IpAddressCidrSetDecideRule extends PredicatedDecideRule {
 	private static final long serialVersionUID = -3670434739183271441L;
 	private Set<String> ipAddressCidr;
 
-	List<SubnetInfo> subnetInfos = null;
+	private transient volatile CidrSet cidrSet = null;
+	
+	private transient HostVerdictCache hostVerdicts = new HostVerdictCache();
+	
+	private static final ThreadLocal<long[]> scratch = ThreadLocal.withInitial(() -> new long[2]);
 
 	/**
 	 * @return the addresses being matched
@@ -68,36 +80,53 @@ public class IpAddressCidrSetDecideRule extends PredicatedDecideRule {
 	/**
 	 * @param ipAddresses the addresses to match
 	 */
-	public void setIpAddressCidrs(Set<String> ipAddressCidr) {
-		subnetInfos = null;
+	public synchronized void setIpAddressCidrs(Set<String> ipAddressCidr) {
 		this.ipAddressCidr = ipAddressCidr;
+		cidrSet = null;
+		hostVerdicts.clear();
 	}
 
-	private List<SubnetInfo> getSubnetInfos() {
-		if (subnetInfos == null) {
-			subnetInfos = new LinkedList<>();
-			for (String cidr : getIpAddressCidrs()) {
-				subnetInfos.add((new SubnetUtils(cidr)).getInfo());
+	/**
+	 * @return The compiled ranges. Compiled on first use after the ranges are set.
+	 */
+	protected CidrSet getCidrSet() {
+		CidrSet set = cidrSet;
+		if (set == null) {
+			synchronized (this) {
+				set = cidrSet;
+				if (set == null) {
+					set = new CidrSet(getIpAddressCidrs());
+					cidrSet = set;
+				}
 			}
 		}
-		return subnetInfos;
+		return set;
 	}
 
 	@Override
 	protected boolean evaluate(CrawlURI curi) {
-		String hostAddress = getHostAddress(curi);
-
-		if (hostAddress == null) {
+		CidrSet set = getCidrSet();
+		
+		// if possible use the exact IP the fetcher stashed in curi
+		String serverIp = curi.getServerIP();
+		if (serverIp != null) {
+			return set.contains(serverIp, scratch.get());
+		}
+		
+		CrawlHost host = getResolvedHost(curi);
+		if (host == null) {
 			return true;
 		}
-
-		for (SubnetInfo si : getSubnetInfos()) {
-			if (si.isInRange(hostAddress)) {
-				return true;
-			}
+		Boolean verdict = hostVerdicts.get(host, set);
+		if (verdict == null) {
+			verdict = set.contains(host.getIP(), scratch.get());
+			hostVerdicts.put(host, set, verdict);
 		}
+		return verdict;
+	}
 
-		return false;
+	public HostVerdictCache getHostVerdictCache() {
+		return hostVerdicts;
 	}
 
 	transient protected ServerCache serverCache;
@@ -111,6 +140,25 @@ public class IpAddressCidrSetDecideRule extends PredicatedDecideRule {
 		this.serverCache = serverCache;
 	}
 
+	/**
+	 * @param curi CrawlURI
+	 * @return The host of the URI, or null if it can not be found or has no 
+	 *         IP address (yet)
+	 */
+	protected CrawlHost getResolvedHost(CrawlURI curi) {
+		try {
+			CrawlHost crlh = getServerCache().getHostFor(curi.getUURI());
+			if (crlh == null || crlh.getIP() == null) {
+				return null;
+			}
+			return crlh;
+		} catch (Exception e) {
+			// Log error and continue (return null)
+			logger.log(Level.WARNING, "Error looking up IP for URI " + curi.getURI(), e);
+		}
+		return null;
+	}
+
 	/**
 	 * from WriterPoolProcessor
 	 * 
@@ -0,0 +1,273 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+/**
+ * Compact set of individual IPv4 and IPv6 addresses, stored as primitives.
+ * <p>
+ * IPv4 addresses are split on their upper 16 bits into containers, in the manner of a Roaring bitmap. A container
+ * holds a sorted array of the lower 16 bits while it has few members and switches to a 65536 bit (8 KiB) bitmap
+ * when that becomes smaller. A full /16 therefore costs 8 KiB, rather than tens of thousands of String objects.
+ * <p>
+ * IPv6 addresses are kept in an open addressing hash set of 128 bit keys.
+ * <p>
+ * Lookups do not allocate. The set is not safe for concurrent modification, but any number of threads may read
+ * it once it has been safely published.
+ */
+public class IpAddressSet {
+    /** A container switches from array to bitmap beyond this many members */
+    static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 65536 / 64;
+
+    // IPv4 containers, sorted on key. Each container has either an array or a bitmap.
+    private int[] keys = new int[0];
+    private char[][] arrays = new char[0][];
+    private int[] arraySizes = new int[0];
+    private long[][] bitmaps = new long[0][];
+    private int containerCount = 0;
+    private long ipv4Count = 0;
+
+    // IPv6 open addressing table. (0, 0) marks an empty slot, the unspecified address is tracked separately.
+    private long[] highs = new long[16];
+    private long[] lows = new long[16];
+    private int ipv6Count = 0;
+    private boolean containsUnspecified = false;
+
+    /**
+     * @return A copy that can be modified without affecting this set
+     */
+    public IpAddressSet copy() {
+        IpAddressSet copy = new IpAddressSet();
+        copy.keys = Arrays.copyOf(keys, keys.length);
+        copy.arrays = new char[arrays.length][];
+        copy.bitmaps = new long[bitmaps.length][];
+        for (int i = 0; i < containerCount; i++) {
+            copy.arrays[i] = arrays[i] == null ? null : arrays[i].clone();
+            copy.bitmaps[i] = bitmaps[i] == null ? null : bitmaps[i].clone();
+        }
+        copy.arraySizes = Arrays.copyOf(arraySizes, arraySizes.length);
+        copy.containerCount = containerCount;
+        copy.ipv4Count = ipv4Count;
+        copy.highs = highs.clone();
+        copy.lows = lows.clone();
+        copy.ipv6Count = ipv6Count;
+        copy.containsUnspecified = containsUnspecified;
+        return copy;
+    }
+
+    public long getIPv4Count() {
+        return ipv4Count;
+    }
+
+    public int getIPv6Count() {
+        return ipv6Count + (containsUnspecified ? 1 : 0);
+    }
+
+    /**
+     * @return Approximate heap used by the set, in bytes
+     */
+    public long getMemoryUsage() {
+        long bytes = 16L * (highs.length) + 16L * keys.length;
+        for (int i = 0; i < containerCount; i++) {
+            bytes += bitmaps[i] != null ? 8L * BITMAP_WORDS : 2L * arrays[i].length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Add all addresses from <code>start</code> to <code>end</code>, inclusive.
+     */
+    public void addIPv4Range(long start, long end) {
+        long address = start;
+        while (address <= end) {
+            int key = (int) (address >>> 16);
+            long containerEnd = Math.min(end, ((long) key << 16) | 0xffff);
+            int c = container(key, true);
+            if (containerEnd - address + 1 > ARRAY_MAX) {
+                toBitmap(c);
+            }
+            for (long a = address; a <= containerEnd; a++) {
+                addToContainer(c, (char) (a & 0xffff));
+            }
+            address = containerEnd + 1;
+        }
+    }
+
+    public void addIPv4(long address) {
+        addToContainer(container((int) (address >>> 16), true), (char) (address & 0xffff));
+    }
+
+    public boolean containsIPv4(long address) {
+        int c = container((int) (address >>> 16), false);
+        if (c < 0) {
+            return false;
+        }
+        char low = (char) (address & 0xffff);
+        if (bitmaps[c] != null) {
+            return (bitmaps[c][low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch(arrays[c], 0, arraySizes[c], low) >= 0;
+    }
+
+    /**
+     * @return Index of the container for the key, or -1 if there is none and <code>create</code> is false
+     */
+    private int container(int key, boolean create) {
+        int i = Arrays.binarySearch(keys, 0, containerCount, key);
+        if (i >= 0 || !create) {
+            return i >= 0 ? i : -1;
+        }
+        i = -i - 1;
+        if (containerCount == keys.length) {
+            int capacity = Math.max(4, containerCount * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            arrays = Arrays.copyOf(arrays, capacity);
+            arraySizes = Arrays.copyOf(arraySizes, capacity);
+            bitmaps = Arrays.copyOf(bitmaps, capacity);
+        }
+        int move = containerCount - i;
+        System.arraycopy(keys, i, keys, i + 1, move);
+        System.arraycopy(arrays, i, arrays, i + 1, move);
+        System.arraycopy(arraySizes, i, arraySizes, i + 1, move);
+        System.arraycopy(bitmaps, i, bitmaps, i + 1, move);
+        keys[i] = key;
+        arrays[i] = new char[4];
+        arraySizes[i] = 0;
+        bitmaps[i] = null;
+        containerCount++;
+        return i;
+    }
+
+    private void addToContainer(int c, char low) {
+        if (bitmaps[c] != null) {
+            long bit = 1L << low;
+            if ((bitmaps[c][low >>> 6] & bit) == 0) {
+                bitmaps[c][low >>> 6] |= bit;
+                ipv4Count++;
+            }
+            return;
+        }
+        int size = arraySizes[c];
+        int i = Arrays.binarySearch(arrays[c], 0, size, low);
+        if (i >= 0) {
+            return;
+        }
+        if (size == ARRAY_MAX) {
+            toBitmap(c);
+            addToContainer(c, low);
+            return;
+        }
+        i = -i - 1;
+        if (size == arrays[c].length) {
+            arrays[c] = Arrays.copyOf(arrays[c], Math.min(ARRAY_MAX, size * 2));
+        }
+        System.arraycopy(arrays[c], i, arrays[c], i + 1, size - i);
+        arrays[c][i] = low;
+        arraySizes[c] = size + 1;
+        ipv4Count++;
+    }
+
+    private void toBitmap(int c) {
+        if (bitmaps[c] != null) {
+            return;
+        }
+        long[] bitmap = new long[BITMAP_WORDS];
+        for (int i = 0; i < arraySizes[c]; i++) {
+            char low = arrays[c][i];
+            bitmap[low >>> 6] |= 1L << low;
+        }
+        bitmaps[c] = bitmap;
+        arrays[c] = null;
+        arraySizes[c] = 0;
+    }
+
+    public void addIPv6(long high, long low) {
+        long mapped = IpAddresses.mappedIPv4(high, low);
+        if (mapped != IpAddresses.INVALID) {
+            addIPv4(mapped);
+            return;
+        }
+        if (high == 0 && low == 0) {
+            containsUnspecified = true;
+            return;
+        }
+        if ((ipv6Count + 1) * 2 > highs.length) {
+            resizeIPv6(highs.length * 2);
+        }
+        int slot = slot(high, low, highs.length);
+        while (highs[slot] != 0 || lows[slot] != 0) {
+            if (highs[slot] == high && lows[slot] == low) {
+                return;
+            }
+            slot = (slot + 1) & (highs.length - 1);
+        }
+        highs[slot] = high;
+        lows[slot] = low;
+        ipv6Count++;
+    }
+
+    public boolean containsIPv6(long high, long low) {
+        long mapped = IpAddresses.mappedIPv4(high, low);
+        if (mapped != IpAddresses.INVALID) {
+            return containsIPv4(mapped);
+        }
+        if (high == 0 && low == 0) {
+            return containsUnspecified;
+        }
+        int slot = slot(high, low, highs.length);
+        while (highs[slot] != 0 || lows[slot] != 0) {
+            if (highs[slot] == high && lows[slot] == low) {
+                return true;
+            }
+            slot = (slot + 1) & (highs.length - 1);
+        }
+        return false;
+    }
+
+    private void resizeIPv6(int capacity) {
+        long[] oldHighs = highs;
+        long[] oldLows = lows;
+        highs = new long[capacity];
+        lows = new long[capacity];
+        for (int i = 0; i < oldHighs.length; i++) {
+            if (oldHighs[i] != 0 || oldLows[i] != 0) {
+                int slot = slot(oldHighs[i], oldLows[i], capacity);
+                while (highs[slot] != 0 || lows[slot] != 0) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                highs[slot] = oldHighs[i];
+                lows[slot] = oldLows[i];
+            }
+        }
+    }
+
+    private static int slot(long high, long low, int capacity) {
+        long h = high * 0x9E3779B97F4A7C15L ^ low;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h & (capacity - 1);
+    }
+
+    /**
+     * @param address IPv4 or IPv6 address in textual form
+     * @param scratch Array of length two, used for parsing IPv6 addresses
+     * @return True if it is in the set. False if not or if the address can not be parsed.
+     */
+    public boolean contains(CharSequence address, long[] scratch) {
+        long v4 = IpAddresses.parseIPv4(address);
+        if (v4 != IpAddresses.INVALID) {
+            return containsIPv4(v4);
+        }
+        return IpAddresses.parseIPv6(address, scratch) && containsIPv6(scratch[0], scratch[1]);
+    }
+
+    public boolean contains(InetAddress address, long[] scratch) {
+        long v4 = IpAddresses.toIPv4(address);
+        if (v4 != IpAddresses.INVALID) {
+            return containsIPv4(v4);
+        }
+        return IpAddresses.toIPv6(address, scratch) && containsIPv6(scratch[0], scratch[1]);
+    }
+}
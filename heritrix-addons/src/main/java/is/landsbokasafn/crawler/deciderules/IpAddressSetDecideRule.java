@@ -2,12 +2,11 @@ package is.landsbokasafn.crawler.deciderules;
 
 import java.net.InetAddress;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.net.util.SubnetUtils;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.deciderules.PredicatedDecideRule;
 import org.archive.modules.net.CrawlHost;
@@ -24,6 +23,19 @@ import org.springframework.beans.factory.annotation.Autowired;
  * </p>
  * 
  * <p>
+ * Addresses are held as primitives in an {@link IpAddressSet}, so a /16 costs
+ * about 8 KiB. IPv6 addresses are supported, but IPv6 ranges are limited to
+ * prefix lengths of {@value #MIN_IPV6_PREFIX} or more (at most 65536
+ * addresses).
+ * </p>
+ * 
+ * <p>
+ * When the address must be looked up in the server cache the verdict is
+ * remembered per host (see {@link HostVerdictCache}) until the host's DNS
+ * record changes.
+ * </p>
+ * 
+ * <p>
  * IpAddressSetDecideRule must be used with
  * org.archive.crawler.prefetch.Preselector#setRecheckScope(boolean) set to true
  * because it relies on Heritrix' dns lookup to establish the ip address for a
@@ -51,7 +63,17 @@ public class IpAddressSetDecideRule extends PredicatedDecideRule {
 	private static final Logger logger = Logger.getLogger(IpAddressSetDecideRule.class.getName());
 
 	private static final long serialVersionUID = -3670434739183271441L;
-	private Set<String> ipAddresses;
+	
+	/** Shortest IPv6 prefix that will be expanded */
+	public static final int MIN_IPV6_PREFIX = 112;
+	
+	private volatile Set<String> ipAddresses;
+	
+	private transient volatile IpAddressSet addresses = new IpAddressSet();
+	
+	private transient HostVerdictCache hostVerdicts = new HostVerdictCache();
+
+	private static final ThreadLocal<long[]> scratch = ThreadLocal.withInitial(() -> new long[2]);
 
 	/**
 	 * @return the addresses being matched
@@ -63,32 +85,128 @@ public class IpAddressSetDecideRule extends PredicatedDecideRule {
 	/**
 	 * @param ipAddresses the addresses to match
 	 */
-	public void setIpAddresses(Set<String> ipAddresses) {
-		this.ipAddresses = new HashSet<>();
+	public synchronized void setIpAddresses(Set<String> ipAddresses) {
+		Set<String> names = new LinkedHashSet<>();
+		IpAddressSet set = new IpAddressSet();
 		for (String address : ipAddresses) {
-			addIpAddress(address);
+			if (add(set, address)) {
+				names.add(address);
+			}
 		}
+		this.ipAddresses = names;
+		this.addresses = set;
 	}
 
-	public void addIpAddress(String address) {
-		if (address.matches("[0-9]{1,3}\\.[0-9]{1,3}\\.[0-9]{1,3}\\.[0-9]{1,3}/[0-9]{1,2}")) {
-			// Address in CIDR notation
-			try {
-				for (String cidrAdd : (new SubnetUtils(address)).getInfo().getAllAddresses()) {
-					this.ipAddresses.add(cidrAdd);
-				}
-			} catch (Exception e) {
+	/**
+	 * Add an address or CIDR range. The address is added to a copy of the set,
+	 * which then replaces it, so it is safe to call while the rule is being
+	 * evaluated. Verdicts cached for the old set are not used for the new one.
+	 */
+	public synchronized void addIpAddress(String address) {
+		IpAddressSet set = addresses.copy();
+		if (add(set, address)) {
+			Set<String> names = ipAddresses == null ? new LinkedHashSet<>() : new LinkedHashSet<>(ipAddresses);
+			names.add(address);
+			this.ipAddresses = names;
+			this.addresses = set;
+		}
+	}
+
+	/**
+	 * @return False if the address is not valid, in which case nothing was added
+	 */
+	private boolean add(IpAddressSet set, String address) {
+		String a = address.trim();
+		int slash = a.indexOf('/');
+		String host = slash < 0 ? a : a.substring(0, slash);
+		int prefix;
+		try {
+			prefix = slash < 0 ? -1 : Integer.parseInt(a.substring(slash + 1));
+		} catch (NumberFormatException e) {
+			logger.severe("Invalid CIDR address specified: " + address);
+			return false;
+		}
+		if (slash >= 0 && prefix < 0) {
+			logger.severe("Invalid CIDR address specified: " + address);
+			return false;
+		}
+
+		long v4 = IpAddresses.parseIPv4(host);
+		long[] v6 = new long[2];
+		if (v4 != IpAddresses.INVALID) {
+			if (prefix < 0) {
+				set.addIPv4(v4);
+			} else if (prefix <= 32) {
+				long size = 1L << (32 - prefix);
+				long start = v4 & ~(size - 1) & 0xffffffffL;
+				set.addIPv4Range(start, start + size - 1);
+			} else {
 				logger.severe("Invalid CIDR address specified: " + address);
+				return false;
+			}
+		} else if (IpAddresses.parseIPv6(host, v6)) {
+			if (prefix < 0) {
+				set.addIPv6(v6[0], v6[1]);
+			} else if (prefix >= MIN_IPV6_PREFIX && prefix <= 128) {
+				long size = 1L << (128 - prefix);
+				long start = v6[1] & ~(size - 1);
+				for (long i = 0; i < size; i++) {
+					set.addIPv6(v6[0], start + i);
+				}
+			} else {
+				logger.severe("IPv6 range too large or invalid, use IpAddressCidrSetDecideRule: " + address);
+				return false;
 			}
 		} else {
-			this.ipAddresses.add(address);
+			logger.severe("Invalid IP address specified: " + address);
+			return false;
 		}
+		return true;
 	}
 
 	@Override
 	protected boolean evaluate(CrawlURI curi) {
-		String hostAddress = getHostAddress(curi);
-		return hostAddress != null && ipAddresses.contains(hostAddress.intern());
+		IpAddressSet set = addresses;
+		
+		// if possible use the exact IP the fetcher stashed in curi
+		String serverIp = curi.getServerIP();
+		if (serverIp != null) {
+			return set.contains(serverIp, scratch.get());
+		}
+		
+		CrawlHost host = getResolvedHost(curi);
+		if (host == null) {
+			return false;
+		}
+		Boolean verdict = hostVerdicts.get(host, set);
+		if (verdict == null) {
+			verdict = set.contains(host.getIP(), scratch.get());
+			hostVerdicts.put(host, set, verdict);
+		}
+		return verdict;
+	}
+
+	public HostVerdictCache getHostVerdictCache() {
+		return hostVerdicts;
+	}
+
+	/**
+	 * @param curi CrawlURI
+	 * @return The host of the URI, or null if it can not be found or has no 
+	 *         IP address (yet)
+	 */
+	protected CrawlHost getResolvedHost(CrawlURI curi) {
+		try {
+			CrawlHost crlh = getServerCache().getHostFor(curi.getUURI());
+			if (crlh == null || crlh.getIP() == null) {
+				return null;
+			}
+			return crlh;
+		} catch (Exception e) {
+			// Log error and continue (return null)
+			logger.log(Level.WARNING, "Error looking up IP for URI " + curi.getURI(), e);
+		}
+		return null;
 	}
 
 	transient protected ServerCache serverCache;
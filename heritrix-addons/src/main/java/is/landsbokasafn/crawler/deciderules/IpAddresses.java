@@ -0,0 +1,214 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+
+/**
+ * Allocation free parsing of textual IP addresses into their numeric form. Used by the IP based decide rules so
+ * that an address only needs to be parsed once per evaluation, rather than once per configured range.
+ * <p>
+ * IPv4 addresses are represented as a <code>long</code> in the range 0 to 2<sup>32</sup>-1. IPv6 addresses are
+ * represented as two <code>long</code>s, the high and low 64 bits. IPv4-mapped IPv6 addresses
+ * (<code>::ffff:a.b.c.d</code>) are treated as the IPv4 address they contain.
+ */
+public final class IpAddresses {
+    /** Returned when a string is not a valid address */
+    public static final long INVALID = -1;
+
+    private IpAddresses() {
+    }
+
+    /**
+     * @param s Dotted quad, e.g. <code>192.0.2.1</code>
+     * @return The address or {@link #INVALID}
+     */
+    public static long parseIPv4(CharSequence s) {
+        return parseIPv4(s, 0, s.length());
+    }
+
+    static long parseIPv4(CharSequence s, int start, int end) {
+        long address = 0;
+        int octets = 0;
+        int i = start;
+        while (i < end) {
+            int value = 0;
+            int digits = 0;
+            while (i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                value = value * 10 + (s.charAt(i) - '0');
+                digits++;
+                i++;
+                if (digits > 3) {
+                    return INVALID;
+                }
+            }
+            if (digits == 0 || value > 255) {
+                return INVALID;
+            }
+            address = (address << 8) | value;
+            octets++;
+            if (i < end) {
+                if (s.charAt(i) != '.' || octets == 4) {
+                    return INVALID;
+                }
+                i++;
+                if (i == end) {
+                    return INVALID;
+                }
+            }
+        }
+        return octets == 4 ? address : INVALID;
+    }
+
+    /**
+     * Parse an IPv6 address, e.g. <code>2001:db8::1</code>. An embedded IPv4 suffix and a zone id
+     * (<code>%eth0</code>) are allowed.
+     *
+     * @param s The address
+     * @param out Receives the high (index 0) and low (index 1) 64 bits
+     * @return True if the address was valid
+     */
+    public static boolean parseIPv6(CharSequence s, long[] out) {
+        int end = s.length();
+        for (int i = 0; i < end; i++) {
+            if (s.charAt(i) == '%') {
+                end = i;
+                break;
+            }
+        }
+        int start = 0;
+        if (end - start >= 2 && s.charAt(start) == '[' && s.charAt(end - 1) == ']') {
+            start++;
+            end--;
+        }
+
+        // Up to 8 groups of 16 bits, accumulated into 128 bits. Groups after a :: are accumulated separately and
+        // the groups before it shifted into place at the end.
+        long headHigh = 0;
+        long headLow = 0;
+        long high = 0;
+        long low = 0;
+        int count = 0;
+        int compressAt = -1;
+        int i = start;
+        if (end - i >= 2 && s.charAt(i) == ':' && s.charAt(i + 1) == ':') {
+            compressAt = 0;
+            i += 2;
+        } else if (i < end && s.charAt(i) == ':') {
+            return false;
+        }
+        while (i < end) {
+            if (count == 8) {
+                return false;
+            }
+            int groupStart = i;
+            int value = 0;
+            int digits = 0;
+            while (i < end && digits <= 4) {
+                int d = Character.digit(s.charAt(i), 16);
+                if (d < 0) {
+                    break;
+                }
+                value = (value << 4) | d;
+                digits++;
+                i++;
+            }
+            if (i < end && s.charAt(i) == '.') {
+                // Embedded IPv4 address, must be last
+                long v4 = parseIPv4(s, groupStart, end);
+                if (v4 == INVALID || count > 6) {
+                    return false;
+                }
+                high = (high << 32) | (low >>> 32);
+                low = (low << 32) | v4;
+                count += 2;
+                i = end;
+                break;
+            }
+            if (digits == 0 || digits > 4) {
+                return false;
+            }
+            high = (high << 16) | (low >>> 48);
+            low = (low << 16) | value;
+            count++;
+            if (i < end) {
+                if (s.charAt(i) != ':') {
+                    return false;
+                }
+                i++;
+                if (i < end && s.charAt(i) == ':') {
+                    if (compressAt >= 0) {
+                        return false;
+                    }
+                    compressAt = count;
+                    headHigh = high;
+                    headLow = low;
+                    high = 0;
+                    low = 0;
+                    i++;
+                } else if (i == end) {
+                    return false;
+                }
+            }
+        }
+        if (compressAt >= 0) {
+            if (count == 8) {
+                return false;
+            }
+            // Move the groups before the :: to the top, the zero groups and those after it fill the rest
+            for (int g = compressAt; g < 8; g++) {
+                headHigh = (headHigh << 16) | (headLow >>> 48);
+                headLow <<= 16;
+            }
+            high |= headHigh;
+            low |= headLow;
+        } else if (count != 8) {
+            return false;
+        }
+        out[0] = high;
+        out[1] = low;
+        return true;
+    }
+
+    /**
+     * @return The IPv4 address contained in an IPv4-mapped IPv6 address, or {@link #INVALID} if it is not one
+     */
+    public static long mappedIPv4(long high, long low) {
+        if (high == 0 && (low >>> 32) == 0xffffL) {
+            return low & 0xffffffffL;
+        }
+        return INVALID;
+    }
+
+    /**
+     * @return The address or {@link #INVALID} if it is not an IPv4 address
+     */
+    public static long toIPv4(InetAddress address) {
+        if (!(address instanceof Inet4Address)) {
+            return INVALID;
+        }
+        byte[] b = address.getAddress();
+        return ((b[0] & 0xffL) << 24) | ((b[1] & 0xffL) << 16) | ((b[2] & 0xffL) << 8) | (b[3] & 0xffL);
+    }
+
+    /**
+     * @param address An IPv6 address
+     * @param out Receives the high (index 0) and low (index 1) 64 bits
+     * @return False if the address is not an IPv6 address
+     */
+    public static boolean toIPv6(InetAddress address, long[] out) {
+        if (!(address instanceof Inet6Address)) {
+            return false;
+        }
+        byte[] b = address.getAddress();
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | (b[i] & 0xffL);
+            low = (low << 8) | (b[i + 8] & 0xffL);
+        }
+        out[0] = high;
+        out[1] = low;
+        return true;
+    }
+}
@@ -1,11 +1,23 @@
 package is.landsbokasafn.crawler.deciderules;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -17,6 +29,7 @@ import org.archive.io.ReadSource;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.deciderules.MatchesRegexDecideRule;
 import org.archive.modules.deciderules.PredicatedDecideRule;
+import org.archive.spring.ConfigFile;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
 
@@ -25,6 +38,20 @@ import org.springframework.context.ApplicationListener;
  * matches the regexs supplied via a ReadSource or added explicitly.
  * <p>
  * The list of regular expressions can be considered logically AND or OR.
+ * <p>
+ * For long lists, enable <code>compiledMatching</code>. The list is then compiled into a
+ * {@link RegexListMatcher} which uses literal prefix and substring filtering to avoid evaluating
+ * most of the expressions for any given URI. The outcome is the same either way.
+ * <p>
+ * The number of times each expression decided the outcome is always tracked. Set
+ * <code>profileSampleRate</code> to also time a sample of evaluations per expression, to find
+ * expressions that are unreasonably expensive.
+ * <p>
+ * The regexSource is read when the crawl is prepared. If it is a file and
+ * <code>regexSourceCheckInterval</code> is set, the file is also re-read whenever it changes
+ * during the crawl. Changes are compiled on a background thread and then swapped in atomically, so
+ * evaluation never waits on a reload. Expressions added or removed via the API are compiled lazily,
+ * on the first evaluation after the change.
  *
  * @author Kristinn Sigurdsson
  * 
@@ -35,8 +62,7 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule
     private static final long serialVersionUID = 3L;
     private static final Logger logger = Logger.getLogger(MatchesListRegexDecideRule.class.getName());
 
-    ConcurrentHashMap<Pattern, AtomicInteger> triggeredPatterns = new ConcurrentHashMap<>();  
-    
+
     protected ReadSource regexSource = null;
     public ReadSource getRegexSource() {
         return regexSource;
@@ -46,17 +72,26 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule
     }
     
     /**
-     * The list of regular expressions to evaluate against the URI.
+     * The list of regular expressions to evaluate against the URI, in order, keyed on the expression. Those read
+     * from the regexSource are also listed in <code>sourcedRegexes</code> so that a reload can drop those that
+     * have been removed from the source. Only accessed while holding the monitor of this rule, evaluation uses the
+     * published {@link CompiledList}.
+     */
+    private final LinkedHashMap<String, Pattern> regexes = new LinkedHashMap<>();
+    private final Set<String> sourcedRegexes = new HashSet<>();
+
+    /**
+     * If greater than zero, and the regexSource is a file, the file is checked for modifications every this many
+     * seconds while the crawl is running. If it has changed it is reloaded. Zero (the default) disables this.
      */
     {
-        setRegexList(new CopyOnWriteArrayList<>());
+        setRegexSourceCheckInterval(0);
     }
-    @SuppressWarnings("unchecked")
-    private List<Pattern> getRegexList() {
-        return (List<Pattern>) kp.get("regexList");
+    public int getRegexSourceCheckInterval() {
+        return (Integer) kp.get("regexSourceCheckInterval");
     }
-    private void setRegexList(List<Pattern> patterns) {
-        kp.put("regexList", patterns);
+    public void setRegexSourceCheckInterval(int regexSourceCheckInterval) {
+        kp.put("regexSourceCheckInterval",regexSourceCheckInterval);
     }
 
     /**
@@ -74,6 +109,102 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule
         kp.put("listLogicalOr",listLogicalOr);
     }
 
+    /**
+     * If true, the list of regular expressions is compiled into a {@link RegexListMatcher} that only evaluates
+     * those expressions whose required literal text is present in the URI. Recommended for lists with more than a
+     * handful of expressions.
+     */
+    {
+        setCompiledMatching(false);
+    }
+    public boolean getCompiledMatching() {
+        return (Boolean) kp.get("compiledMatching");
+    }
+    public void setCompiledMatching(boolean compiledMatching) {
+        kp.put("compiledMatching",compiledMatching);
+    }
+
+    /**
+     * If greater than zero, roughly one in every <code>profileSampleRate</code> evaluations is timed, per
+     * expression tried. Results are included in {@link #getReport()}. Zero (the default) disables sampling.
+     */
+    {
+        setProfileSampleRate(0);
+    }
+    public int getProfileSampleRate() {
+        return (Integer) kp.get("profileSampleRate");
+    }
+    public void setProfileSampleRate(int profileSampleRate) {
+        kp.put("profileSampleRate",profileSampleRate);
+    }
+
+    /**
+     * Immutable snapshot of the compiled regular expressions and their statistics, indexed by position in the
+     * list. Replaced as a whole whenever the list changes. The {@link RegexListMatcher} is only built the first
+     * time it is needed, so it is never built if <code>compiledMatching</code> is off, and only once for a
+     * number of changes made between evaluations.
+     */
+    static final class CompiledList {
+        final Pattern[] patterns;
+        final PatternStatistics[] statistics;
+        final Map<String, Integer> indexByRegex;
+        final TimingProbe timingProbe;
+        private volatile RegexListMatcher matcher = null;
+
+        CompiledList(List<Pattern> patterns, CompiledList previous) {
+            this.patterns = patterns.toArray(new Pattern[0]);
+            this.statistics = new PatternStatistics[patterns.size()];
+            this.indexByRegex = new HashMap<>();
+            for (int i = 0; i < patterns.size(); i++) {
+                String regex = patterns.get(i).pattern();
+                indexByRegex.put(regex, i);
+                // Carry over counters for expressions that were already in the list
+                PatternStatistics stats = previous == null ? null : previous.getStatistics(regex);
+                statistics[i] = stats == null ? new PatternStatistics() : stats;
+            }
+            this.timingProbe = new TimingProbe(statistics);
+        }
+
+        PatternStatistics getStatistics(String regex) {
+            Integer index = indexByRegex.get(regex);
+            return index == null ? null : statistics[index];
+        }
+
+        Pattern getPattern(String regex) {
+            Integer index = indexByRegex.get(regex);
+            return index == null ? null : patterns[index];
+        }
+
+        int size() {
+            return patterns.length;
+        }
+
+        RegexListMatcher getMatcher() {
+            RegexListMatcher m = matcher;
+            if (m == null) {
+                synchronized (this) {
+                    if (matcher == null) {
+                        matcher = new RegexListMatcher(Arrays.asList(patterns));
+                        logger.fine("Compiled " + matcher.size() + " regular expressions, " 
+                                + matcher.getUnfilteredCount() + " without literal prefilter");
+                    }
+                    m = matcher;
+                }
+            }
+            return m;
+        }
+
+        boolean hasMatcher() {
+            return matcher != null;
+        }
+    }
+
+    private transient volatile CompiledList compiledList = null;
+
+    private transient ScheduledExecutorService sourceWatcher = null;
+    private transient long sourceLastModified = 0;
+    private transient long sourceLength = 0;
+
     /**
      * Usual constructor. 
      */
@@ -86,32 +217,83 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule
 			CrawlStateEvent cse = (CrawlStateEvent)event;
 			if (cse.getState().equals(State.PREPARING)) {
 				importRegexes();
+				startWatchingSource();
+			} else if (cse.getState().equals(State.FINISHED)) {
+				stopWatchingSource();
 			}
 		}
 	}
     
 	public void add(String regex) {
-		for (Pattern p : getRegexList()) {
-			if (p.toString().equals(regex)) {
-				// Already added
-				return;
+		addAll(Collections.singletonList(regex));
+	}
+	
+	/**
+	 * Add a number of regular expressions at once. Much cheaper than adding them one by one, as the list is only
+	 * republished once. Expressions already in the list are ignored. If any of them is invalid, none are added.
+	 * 
+	 * @throws PatternSyntaxException If an expression is invalid
+	 */
+	public synchronized void addAll(Collection<String> regexList) {
+		LinkedHashMap<String, Pattern> added = new LinkedHashMap<>();
+		for (String regex : regexList) {
+			if (!regexes.containsKey(regex) && !added.containsKey(regex)) {
+				added.put(regex, Pattern.compile(regex));
 			}
 		}
-		
-		getRegexList().add(Pattern.compile(regex));
+		if (added.isEmpty()) {
+			return;
+		}
+		regexes.putAll(added);
+		publish();
+	}
+	
+	public synchronized void remove(String regex) {
+		if (regexes.remove(regex) != null) {
+			sourcedRegexes.remove(regex);
+			publish();
+		}
+	}
+	
+	/**
+	 * Compile the current list and make it visible to evaluating threads. Must hold the monitor of this rule.
+	 * The matcher is built on first use.
+	 */
+	private void publish() {
+		publish(false);
+	}
+	
+	/**
+	 * @param buildMatcher Build the matcher before the list becomes visible, so that evaluating threads do not
+	 *        have to wait for it. Only done when <code>compiledMatching</code> is enabled.
+	 */
+	private void publish(boolean buildMatcher) {
+		CompiledList compiled = new CompiledList(new ArrayList<>(regexes.values()), compiledList);
+		if (buildMatcher && getCompiledMatching()) {
+			compiled.getMatcher();
+		}
+		compiledList = compiled;
 	}
 	
-	public void remove(String regex) {
-		for (Pattern p : getRegexList()) {
-			if (p.toString().equals(regex)) {
-				getRegexList().remove(p);
+	/**
+	 * @return The compiled form of the current list of regular expressions
+	 */
+	protected CompiledList getCompiledList() {
+		CompiledList compiled = compiledList;
+		if (compiled == null) {
+			synchronized (this) {
+				if (compiledList == null) {
+					publish();
+				}
+				compiled = compiledList;
 			}
 		}
+		return compiled;
 	}
 	
 	public String getList() {
 		StringBuilder list = new StringBuilder();
-		for (Pattern p : getRegexList()) {
+		for (Pattern p : getCompiledList().patterns) {
 			list.append(p.toString());
 			list.append("\n");
 		}
@@ -122,14 +304,40 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule
     	if (getRegexSource()==null) {
     		throw new IllegalStateException("Missing source for regular expressions");
     	}
-		BufferedReader br = new BufferedReader(getRegexSource().obtainReader());
+    	File file = getRegexSourceFile();
+    	if (file != null) {
+    		sourceLastModified = file.lastModified();
+    		sourceLength = file.length();
+    	}
+    	replaceSourcedRegexes(readRegexSource());
+	}
+    
+    /**
+     * Re-read the regexSource. Regular expressions that are no longer in the source are dropped, new ones are
+     * added. Counters are kept for those that remain. Expressions added via {@link #add(String)} and not present
+     * in the source are unaffected.
+     */
+    public void reloadRegexes() {
+    	LinkedHashMap<String, Pattern> fromSource = readRegexSource();
+    	replaceSourcedRegexes(fromSource);
+    	logger.info("Reloaded " + fromSource.size() + " regular expressions from " + getRegexSource());
+    }
+    
+    /**
+     * Reads and compiles the regexSource. Does not require the monitor, so the expensive part of a reload does
+     * not block other changes. Already compiled expressions are reused.
+     */
+    private LinkedHashMap<String, Pattern> readRegexSource() {
+    	CompiledList current = compiledList;
+    	LinkedHashMap<String, Pattern> fromSource = new LinkedHashMap<>();
 		String line;
-		try {
+		try (BufferedReader br = new BufferedReader(getRegexSource().obtainReader())) {
 			while ((line = br.readLine()) != null) {
 				try {
-					if (!line.startsWith("#") && !line.isBlank()) {
+					if (!line.startsWith("#") && !line.isBlank() && !fromSource.containsKey(line)) {
 						// Lines starting with # are comments and are ignored. Empty lines are also ignored
-						add(line);
+						Pattern p = current == null ? null : current.getPattern(line);
+						fromSource.put(line, p != null ? p : Pattern.compile(line));
 					}
 				} catch (PatternSyntaxException pse) {
 					logger.log(Level.WARNING, "Failed to compile regular expression: " + line,  pse);
@@ -137,8 +345,80 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule
 			}
 		} catch (IOException e) {
 			throw new IllegalStateException(e);
-		}		
-	}
+		}
+		return fromSource;
+    }
+    
+    private synchronized void replaceSourcedRegexes(LinkedHashMap<String, Pattern> fromSource) {
+    	LinkedHashMap<String, Pattern> merged = new LinkedHashMap<>(fromSource);
+    	for (Map.Entry<String, Pattern> e : regexes.entrySet()) {
+    		if (!sourcedRegexes.contains(e.getKey())) {
+    			merged.putIfAbsent(e.getKey(), e.getValue());
+    		}
+    	}
+    	regexes.clear();
+    	regexes.putAll(merged);
+    	sourcedRegexes.clear();
+    	sourcedRegexes.addAll(fromSource.keySet());
+    	publish(true);
+    }
+    
+    /**
+     * @return The file behind the regexSource or null if it is not a file
+     */
+    protected File getRegexSourceFile() {
+    	if (getRegexSource() instanceof ConfigFile) {
+    		return ((ConfigFile) getRegexSource()).getFile();
+    	}
+    	return null;
+    }
+    
+    protected synchronized void startWatchingSource() {
+    	int interval = getRegexSourceCheckInterval();
+    	if (interval <= 0 || sourceWatcher != null) {
+    		return;
+    	}
+    	if (getRegexSourceFile() == null) {
+    		logger.warning("regexSourceCheckInterval is set but regexSource is not a file. Changes will not be picked up.");
+    		return;
+    	}
+    	sourceWatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+    		Thread t = new Thread(r, "MatchesListRegexDecideRule-watcher");
+    		t.setDaemon(true);
+    		return t;
+    	});
+    	sourceWatcher.scheduleWithFixedDelay(this::checkRegexSource, interval, interval, TimeUnit.SECONDS);
+    }
+    
+    protected synchronized void stopWatchingSource() {
+    	if (sourceWatcher != null) {
+    		sourceWatcher.shutdownNow();
+    		sourceWatcher = null;
+    	}
+    }
+    
+    /**
+     * Reload the regexSource if the file has been modified since it was last read. 
+     */
+    private void checkRegexSource() {
+    	try {
+    		File file = getRegexSourceFile();
+    		long lastModified = file.lastModified();
+    		long length = file.length();
+    		if (lastModified == 0) {
+    			// Missing, possibly being replaced. Try again next time.
+    			return;
+    		}
+    		if (lastModified != sourceLastModified || length != sourceLength) {
+    			sourceLastModified = lastModified;
+    			sourceLength = length;
+    			reloadRegexes();
+    		}
+    	} catch (Exception e) {
+    		// Must not propagate, that would cancel further checks
+    		logger.log(Level.WARNING, "Failed to reload regular expressions from " + getRegexSource(), e);
+    	}
+    }
     
 	/**
      * Evaluate whether given object's string version
@@ -146,16 +426,23 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule
      */
     @Override
     protected boolean evaluate(CrawlURI uri) {
-        List<Pattern> regexes = getRegexList();
-        if(regexes.isEmpty()){
+        CompiledList compiled = getCompiledList();
+        Pattern[] regexes = compiled.patterns;
+        if(regexes.length == 0){
             return false;
         }
 
         String str = uri.toString();
         boolean listLogicOR = getListLogicalOr();
+        RegexListMatcher.Probe probe = sample() ? compiled.timingProbe : null;
+
+        if (getCompiledMatching()) {
+            return evaluateCompiled(compiled, str, listLogicOR, probe);
+        }
 
-        for (Pattern p: regexes) {
-            boolean matches = p.matcher(str).matches();
+        for (int i = 0; i < regexes.length; i++) {
+            Pattern p = regexes[i];
+            boolean matches = probe == null ? p.matcher(str).matches() : probe.matches(i, p, str);
 
             if (logger.isLoggable(Level.FINER)) {
                 logger.finer("Tested '" + str + "' match with regex '" +
@@ -165,13 +452,13 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule
 			if (matches) {
 				if (listLogicOR) {
                     // OR based and we just got a match, done!
-                    count(p);
+                    compiled.statistics[i].hit();
                     return true;
                 }
             } else {
 				if (!listLogicOR) {
                     // AND based and we just found a non-match, done!
-                    count(p);
+                    compiled.statistics[i].hit();
                     return false;
                 }
             }
@@ -184,25 +471,103 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule
         }
     }
     
-    private void count(Pattern p) {
-    	if (triggeredPatterns.containsKey(p)) {
-    		triggeredPatterns.get(p).incrementAndGet();
-    	} else {
-    		triggeredPatterns.put(p, new AtomicInteger(1));
-    	}
+    /**
+     * Same outcome as evaluating the list in order, but only tries expressions whose literal text is in the URI.
+     */
+    private boolean evaluateCompiled(CompiledList compiled, String str, boolean listLogicOR, 
+            RegexListMatcher.Probe probe) {
+        RegexListMatcher matcher = compiled.getMatcher();
+        int decisive = listLogicOR ? matcher.firstMatch(str, probe) : matcher.firstMismatch(str, probe);
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer("Tested '" + str + "' against " + matcher.size() + " regexes, decisive regex was " +
+                (decisive == RegexListMatcher.NONE ? "none" : "'" + matcher.get(decisive).pattern() + "'"));
+        }
+
+        if (decisive == RegexListMatcher.NONE) {
+            // OR: nothing matched. AND: everything matched.
+            return !listLogicOR;
+        }
+        compiled.statistics[decisive].hit();
+        return listLogicOR;
+    }
+
+    private boolean sample() {
+        int rate = getProfileSampleRate();
+        return rate > 0 && (rate == 1 || ThreadLocalRandom.current().nextInt(rate) == 0);
+    }
+    
+    /**
+     * Times each expression evaluated for sampled URIs.
+     */
+    private static final class TimingProbe implements RegexListMatcher.Probe {
+        private final PatternStatistics[] statistics;
+
+        TimingProbe(PatternStatistics[] statistics) {
+            this.statistics = statistics;
+        }
+
+        @Override
+        public boolean matches(int index, Pattern pattern, CharSequence input) {
+            long start = System.nanoTime();
+            boolean matches = pattern.matcher(input).matches();
+            statistics[index].sample(matches, System.nanoTime() - start);
+            return matches;
+        }
     }
     
+    /**
+     * @param regex A regular expression in the list
+     * @return Its statistics or null if it is not in the list
+     */
+    public PatternStatistics getStatistics(String regex) {
+        return getCompiledList().getStatistics(regex);
+    }
+    
+    /**
+     * One line per regular expression, in list order, with the number of times it decided the outcome. If
+     * profiling is enabled, the number of sampled evaluations, sampled matches, total sampled time and mean time
+     * (in nanoseconds) follow.
+     */
     public String getReport() {
+    	boolean profiling = getProfileSampleRate() > 0;
+    	CompiledList compiled = getCompiledList();
     	StringBuilder report = new StringBuilder();
-    	for (Pattern p : getRegexList()) {
-    		int hits = 0;
-    		if (triggeredPatterns.containsKey(p)) {
-    			hits = triggeredPatterns.get(p).get();
+    	for (int i = 0; i < compiled.size(); i++) {
+    		PatternStatistics stats = compiled.statistics[i];
+			report.append(compiled.patterns[i].toString() + "\t" + stats.getHits());
+			if (profiling) {
+				report.append("\t" + stats.getSampledEvaluations() + "\t" + stats.getSampledMatches() 
+						+ "\t" + stats.getSampledNanos() + "\t" + stats.getAverageNanos());
+			}
+			report.append("\n");
+    	}
+    	
+    	return report.toString();
+    }
+    
+    /**
+     * @param max Maximum number of expressions to list
+     * @return The expressions with the highest total sampled evaluation time, most expensive first. Format is as
+     *         for {@link #getReport()} with profiling enabled.
+     */
+    public String getCostReport(int max) {
+    	CompiledList compiled = getCompiledList();
+    	List<Integer> indexes = new ArrayList<>();
+    	for (int i = 0; i < compiled.size(); i++) {
+    		if (compiled.statistics[i].getSampledEvaluations() > 0) {
+    			indexes.add(i);
     		}
-			report.append(p.toString() + "\t" + hits + "\n");
-    		
     	}
+    	indexes.sort(Comparator.comparingLong((Integer i) -> compiled.statistics[i].getSampledNanos()).reversed());
     	
+    	StringBuilder report = new StringBuilder();
+    	for (int i : indexes.subList(0, Math.min(max, indexes.size()))) {
+    		PatternStatistics stats = compiled.statistics[i];
+    		report.append(compiled.patterns[i].toString() + "\t" + stats.getHits() 
+    				+ "\t" + stats.getSampledEvaluations() + "\t" + stats.getSampledMatches() 
+    				+ "\t" + stats.getSampledNanos() + "\t" + stats.getAverageNanos() + "\n");
+    	}
     	return report.toString();
     }
     
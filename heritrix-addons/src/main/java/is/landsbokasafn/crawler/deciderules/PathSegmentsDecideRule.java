@@ -1,5 +1,6 @@
 package is.landsbokasafn.crawler.deciderules;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
@@ -54,9 +55,7 @@ public class PathSegmentsDecideRule extends DecideRule {
                 return DecideResult.NONE;
             }
             
-            String[] segments = getSegments(uri.getURI());
-            
-            return evaluate(maxSeg, maxConSeg, segments);
+            return evaluate(maxSeg, maxConSeg, uri.getURI());
         } catch (Exception e) {
             // An exception occurred. Log it and return the default verdict
             logger.log(Level.WARNING, "Error on: " + uri.getURI(), e);
@@ -64,6 +63,175 @@ public class PathSegmentsDecideRule extends DecideRule {
         return DecideResult.NONE;
     }
     
+    /**
+     * Equivalent to <code>evaluate(maxSeg, maxConSeg, getSegments(uri))</code> but scans the URI once, without
+     * creating any objects. Segments are counted in a per thread {@link SegmentCounter}.
+     */
+    protected DecideResult evaluate(int maxSeg, int maxConSeg, String uri) {
+        return counter.get().evaluate(maxSeg, maxConSeg, uri);
+    }
+
+    private static final ThreadLocal<SegmentCounter> counter = ThreadLocal.withInitial(SegmentCounter::new);
+
+    /**
+     * Open addressing table of path segments, keyed on the segment's hash and compared as regions of the URI.
+     * Slots are cleared by bumping a generation number, so the table is reused without clearing or allocating.
+     */
+    static final class SegmentCounter {
+        private int[] hashes = new int[64];
+        private int[] starts = new int[64];
+        private int[] lengths = new int[64];
+        private int[] counts = new int[64];
+        private int[] generations = new int[64];
+        private int generation = 0;
+        private int size = 0;
+
+        private String uri;
+        private int maxSeg;
+        private int maxConSeg;
+        private int lastStart;
+        private int lastLength;
+        private int consecutive;
+
+        DecideResult evaluate(int maxSeg, int maxConSeg, String uri) {
+            this.uri = uri;
+            this.maxSeg = maxSeg;
+            this.maxConSeg = maxConSeg;
+            lastStart = 0;
+            lastLength = 0;
+            consecutive = 0;
+            size = 0;
+            if (++generation == 0) {
+                Arrays.fill(generations, 0);
+                generation = 1;
+            }
+            try {
+                return scan() ? DecideResult.REJECT : DecideResult.NONE;
+            } finally {
+                this.uri = null;
+            }
+        }
+
+        /**
+         * Splits the URI as {@link PathSegmentsDecideRule#getSegments(String)} does.
+         * @return true if a threshold was exceeded
+         */
+        private boolean scan() {
+            int length = uri.length();
+            // The third occurrence of a forward slash marks the beginning of the path segments
+            int begin = 0;
+            for (int i = 0; i < 3; i++) {
+                int index = uri.indexOf('/', begin);
+                if (index < 0) {
+                    break;
+                }
+                begin = index + 1;
+            }
+            // Empty segments (leading, repeated or trailing slashes) are skipped. The segment containing the first
+            // ? runs to the end of the URI.
+            int start = begin;
+            int hash = 0;
+            boolean any = false;
+            for (int i = begin; i < length; i++) {
+                char c = uri.charAt(i);
+                if (c == '/') {
+                    if (i > start) {
+                        any = true;
+                        if (add(start, i - start, hash)) {
+                            return true;
+                        }
+                    }
+                    start = i + 1;
+                    hash = 0;
+                } else if (c == '?') {
+                    for (int j = i; j < length; j++) {
+                        hash = 31 * hash + uri.charAt(j);
+                    }
+                    return add(start, length - start, hash);
+                } else {
+                    hash = 31 * hash + c;
+                }
+            }
+            if (length > start) {
+                return add(start, length - start, hash);
+            }
+            // A URI without any path has a single empty segment
+            return !any && add(start, 0, 0);
+        }
+
+        private boolean add(int start, int length, int hash) {
+            if (consecutive > 0 && length == lastLength && uri.regionMatches(start, uri, lastStart, length)) {
+                consecutive++;
+            } else {
+                consecutive = 1;
+            }
+            if (consecutive > maxConSeg && maxConSeg > 0) {
+                // Threshold for maximum identical consecutive segments exceeded.
+                return true;
+            }
+            lastStart = start;
+            lastLength = length;
+
+            if (size * 2 >= hashes.length) {
+                grow();
+            }
+            int mask = hashes.length - 1;
+            int slot = mix(hash) & mask;
+            while (generations[slot] == generation) {
+                if (hashes[slot] == hash && lengths[slot] == length
+                        && uri.regionMatches(starts[slot], uri, start, length)) {
+                    counts[slot]++;
+                    // Threshold for maximum identical segments exceeded?
+                    return counts[slot] > maxSeg && maxSeg > 0;
+                }
+                slot = (slot + 1) & mask;
+            }
+            generations[slot] = generation;
+            hashes[slot] = hash;
+            starts[slot] = start;
+            lengths[slot] = length;
+            counts[slot] = 1;
+            size++;
+            return false;
+        }
+
+        private void grow() {
+            int[] oldHashes = hashes;
+            int[] oldStarts = starts;
+            int[] oldLengths = lengths;
+            int[] oldCounts = counts;
+            int[] oldGenerations = generations;
+            int capacity = oldHashes.length * 2;
+            hashes = new int[capacity];
+            starts = new int[capacity];
+            lengths = new int[capacity];
+            counts = new int[capacity];
+            generations = new int[capacity];
+            for (int i = 0; i < oldHashes.length; i++) {
+                if (oldGenerations[i] == generation) {
+                    int slot = mix(oldHashes[i]) & (capacity - 1);
+                    while (generations[slot] == generation) {
+                        slot = (slot + 1) & (capacity - 1);
+                    }
+                    generations[slot] = generation;
+                    hashes[slot] = oldHashes[i];
+                    starts[slot] = oldStarts[i];
+                    lengths[slot] = oldLengths[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+
+        private static int mix(int hash) {
+            int h = hash * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Evaluates a URI that has already been split into segments. {@link #evaluate(int, int, String)} gives the
+     * same result without splitting the URI.
+     */
     protected DecideResult evaluate(int maxSeg, int maxConSeg, String[] segments) {
         int consecutive = 0;
         String lastSeg = "";
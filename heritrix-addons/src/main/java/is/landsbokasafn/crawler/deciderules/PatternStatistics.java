@@ -0,0 +1,61 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for one regular expression in a {@link MatchesListRegexDecideRule}.
+ * <p>
+ * Hits are counted for every decision. The remaining counters are only updated for sampled evaluations (see
+ * {@link MatchesListRegexDecideRule#setProfileSampleRate(int)}) and are meant to identify expressions that are
+ * expensive to evaluate, e.g. due to catastrophic backtracking.
+ * <p>
+ * All counters are striped ({@link LongAdder}) so many threads can update them without contention.
+ */
+public class PatternStatistics {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder sampledEvaluations = new LongAdder();
+    private final LongAdder sampledMatches = new LongAdder();
+    private final LongAdder sampledNanos = new LongAdder();
+
+    void hit() {
+        hits.increment();
+    }
+
+    void sample(boolean matched, long nanos) {
+        sampledEvaluations.increment();
+        if (matched) {
+            sampledMatches.increment();
+        }
+        sampledNanos.add(nanos);
+    }
+
+    /**
+     * @return Number of times this expression decided the outcome of the rule
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getSampledEvaluations() {
+        return sampledEvaluations.sum();
+    }
+
+    public long getSampledMatches() {
+        return sampledMatches.sum();
+    }
+
+    /**
+     * @return Total time spent in sampled evaluations of this expression
+     */
+    public long getSampledNanos() {
+        return sampledNanos.sum();
+    }
+
+    /**
+     * @return Mean time per sampled evaluation of this expression, 0 if never sampled
+     */
+    public long getAverageNanos() {
+        long evaluations = getSampledEvaluations();
+        return evaluations == 0 ? 0 : getSampledNanos() / evaluations;
+    }
+}
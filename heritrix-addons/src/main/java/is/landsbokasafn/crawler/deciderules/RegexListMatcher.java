@@ -0,0 +1,650 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable, pre-compiled form of a list of regular expressions that are all evaluated (with
+ * {@link java.util.regex.Matcher#matches()}) against the same string.
+ * <p>
+ * Java regular expressions can not be merged into a single automaton without losing the ability to tell which
+ * expression matched, so instead each expression is analysed for a literal string that any matching input must
+ * contain. Expressions with a literal prefix are put in a prefix trie that is walked from the start of the input,
+ * expressions with only an inner literal are put in an Aho-Corasick automaton that finds all of them in one scan of
+ * the input. Only expressions whose literal was found (plus those where no literal could be determined) are then
+ * actually run. For typical URI filter lists, where most expressions contain a host name or path fragment, this
+ * means very few of them are ever tried.
+ * <p>
+ * The results are identical to evaluating the expressions one by one, in list order.
+ *
+ * @author Kristinn Sigurdsson
+ */
+public class RegexListMatcher {
+
+    /** Returned by {@link #firstMatch(CharSequence)} and {@link #firstMismatch(CharSequence)} if there is none */
+    public static final int NONE = -1;
+
+    /** Inner literals shorter than this are too common to be a useful filter */
+    static final int MIN_INFIX_LENGTH = 3;
+
+    private final Pattern[] patterns;
+    private final boolean[] alwaysTry;
+    private final int[] alwaysTryIndexes;
+    private final LiteralAutomaton prefixes;
+    private final LiteralAutomaton infixes;
+
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Evaluates a single expression of the list. Allows callers to wrap evaluation, e.g. to time it.
+     */
+    public interface Probe {
+        boolean matches(int index, Pattern pattern, CharSequence input);
+    }
+
+    public RegexListMatcher(List<Pattern> patternList) {
+        this.patterns = patternList.toArray(new Pattern[0]);
+        this.alwaysTry = new boolean[patterns.length];
+
+        LiteralAutomaton.Builder prefixBuilder = new LiteralAutomaton.Builder();
+        LiteralAutomaton.Builder infixBuilder = new LiteralAutomaton.Builder();
+        List<Integer> always = new ArrayList<>();
+        for (int i = 0; i < patterns.length; i++) {
+            Literal literal = requiredLiteral(patterns[i]);
+            if (literal == null) {
+                alwaysTry[i] = true;
+                always.add(i);
+            } else if (literal.prefix) {
+                prefixBuilder.add(literal.text, i);
+            } else {
+                infixBuilder.add(literal.text, i);
+            }
+        }
+        this.alwaysTryIndexes = always.stream().mapToInt(Integer::intValue).toArray();
+        this.prefixes = prefixBuilder.build(false);
+        this.infixes = infixBuilder.build(true);
+
+        final int size = patterns.length;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(size));
+    }
+
+    public int size() {
+        return patterns.length;
+    }
+
+    public Pattern get(int index) {
+        return patterns[index];
+    }
+
+    /**
+     * @return The number of expressions for which no literal could be found and that will always be evaluated
+     */
+    public int getUnfilteredCount() {
+        return alwaysTryIndexes.length;
+    }
+
+    /**
+     * Logical OR evaluation.
+     * @param input The string to match against
+     * @return The index of the first expression (in list order) that matches the input or {@link #NONE}
+     */
+    public int firstMatch(CharSequence input) {
+        return firstMatch(input, null);
+    }
+
+    /**
+     * Logical OR evaluation.
+     * @param input The string to match against
+     * @param probe Used to evaluate each candidate expression, may be null
+     * @return The index of the first expression (in list order) that matches the input or {@link #NONE}
+     */
+    public int firstMatch(CharSequence input, Probe probe) {
+        Scratch s = scratch.get();
+        collectCandidates(input, s);
+        try {
+            Arrays.sort(s.hits, 0, s.hitCount);
+            // Merge the two sorted candidate lists so expressions are tried in list order
+            int h = 0;
+            int a = 0;
+            while (h < s.hitCount || a < alwaysTryIndexes.length) {
+                int index;
+                if (a >= alwaysTryIndexes.length
+                        || (h < s.hitCount && s.hits[h] < alwaysTryIndexes[a])) {
+                    index = s.hits[h++];
+                } else {
+                    index = alwaysTryIndexes[a++];
+                }
+                if (test(index, input, probe)) {
+                    return index;
+                }
+            }
+            return NONE;
+        } finally {
+            s.reset();
+        }
+    }
+
+    /**
+     * Logical AND evaluation.
+     * @param input The string to match against
+     * @return The index of the first expression (in list order) that does not match the input or {@link #NONE} if
+     *         they all match.
+     */
+    public int firstMismatch(CharSequence input) {
+        return firstMismatch(input, null);
+    }
+
+    /**
+     * Logical AND evaluation.
+     * @param input The string to match against
+     * @param probe Used to evaluate each candidate expression, may be null
+     * @return The index of the first expression (in list order) that does not match the input or {@link #NONE} if
+     *         they all match.
+     */
+    public int firstMismatch(CharSequence input, Probe probe) {
+        Scratch s = scratch.get();
+        collectCandidates(input, s);
+        try {
+            for (int i = 0; i < patterns.length; i++) {
+                if (!alwaysTry[i] && !s.isCandidate(i)) {
+                    // Required literal is missing, can not possibly match
+                    return i;
+                }
+                if (!test(i, input, probe)) {
+                    return i;
+                }
+            }
+            return NONE;
+        } finally {
+            s.reset();
+        }
+    }
+
+    private boolean test(int index, CharSequence input, Probe probe) {
+        if (probe != null) {
+            return probe.matches(index, patterns[index], input);
+        }
+        return patterns[index].matcher(input).matches();
+    }
+
+    private void collectCandidates(CharSequence input, Scratch s) {
+        prefixes.matchPrefixes(input, s);
+        infixes.matchAnywhere(input, s);
+    }
+
+    /**
+     * Per thread working memory, so that evaluation does not allocate.
+     */
+    static final class Scratch {
+        final long[] candidates;
+        int[] hits = new int[16];
+        int hitCount = 0;
+
+        Scratch(int size) {
+            candidates = new long[(size >>> 6) + 1];
+        }
+
+        void add(int index) {
+            long bit = 1L << index;
+            int word = index >>> 6;
+            if ((candidates[word] & bit) != 0) {
+                return;
+            }
+            candidates[word] |= bit;
+            if (hitCount == hits.length) {
+                hits = Arrays.copyOf(hits, hitCount * 2);
+            }
+            hits[hitCount++] = index;
+        }
+
+        boolean isCandidate(int index) {
+            return (candidates[index >>> 6] & (1L << index)) != 0;
+        }
+
+        void reset() {
+            for (int i = 0; i < hitCount; i++) {
+                candidates[hits[i] >>> 6] = 0;
+            }
+            hitCount = 0;
+        }
+    }
+
+    /**
+     * A literal that any string matching an expression must contain.
+     */
+    static final class Literal {
+        final String text;
+        final boolean prefix;
+
+        Literal(String text, boolean prefix) {
+            this.text = text;
+            this.prefix = prefix;
+        }
+    }
+
+    /**
+     * Find a literal that any string fully matching the pattern must start with (preferred) or contain. The analysis
+     * is conservative and gives up (returns null) on any construct it does not fully understand.
+     *
+     * @param p The pattern
+     * @return The best literal found or null if none
+     */
+    static Literal requiredLiteral(Pattern p) {
+        int unsupportedFlags = Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.LITERAL
+                | Pattern.CANON_EQ | Pattern.UNICODE_CASE;
+        if ((p.flags() & unsupportedFlags) != 0) {
+            return null;
+        }
+        String re = p.pattern();
+        if (re.contains("\\Q") || hasTopLevelAlternation(re) || hasInlineFlags(re)) {
+            return null;
+        }
+
+        final int n = re.length();
+        String prefix = null;
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        boolean atStart = true;
+        int i = re.startsWith("^") ? 1 : 0;
+
+        scan:
+        while (i < n) {
+            char c = re.charAt(i);
+            int literal = -1;
+            int next = i + 1;
+            switch (c) {
+            case '\\':
+                if (i + 1 >= n || Character.isLetterOrDigit(re.charAt(i + 1))) {
+                    // Character class, back reference or similar. Stop here.
+                    break scan;
+                }
+                literal = re.charAt(i + 1);
+                next = i + 2;
+                break;
+            case '[':
+            case '(':
+            case '.':
+                next = c == '[' ? skipClass(re, i) : (c == '(' ? skipGroup(re, i) : i + 1);
+                if (next < 0) {
+                    break scan;
+                }
+                if (run.length() > 0) {
+                    if (atStart) {
+                        prefix = run.toString();
+                    }
+                    if (run.length() > best.length()) {
+                        best = run.toString();
+                    }
+                    run.setLength(0);
+                }
+                atStart = false;
+                next = skipQuantifier(re, next);
+                break;
+            case '$':
+            case '^':
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+            case '}':
+            case ')':
+            case ']':
+            case '|':
+                break scan;
+            default:
+                literal = c;
+            }
+
+            if (literal >= 0) {
+                char q = next < n ? re.charAt(next) : 0;
+                boolean optional = q == '*' || q == '?' || q == '{';
+                if (!optional) {
+                    run.append((char) literal);
+                }
+                if (optional || q == '+') {
+                    // The literal run can not continue past a quantified character
+                    if (run.length() > 0) {
+                        if (atStart) {
+                            prefix = run.toString();
+                        }
+                        if (run.length() > best.length()) {
+                            best = run.toString();
+                        }
+                        run.setLength(0);
+                    }
+                    atStart = false;
+                    next = skipQuantifier(re, next);
+                    if (next < 0) {
+                        break scan;
+                    }
+                }
+            }
+            i = next;
+        }
+        if (run.length() > 0) {
+            if (atStart) {
+                prefix = run.toString();
+            }
+            if (run.length() > best.length()) {
+                best = run.toString();
+            }
+        }
+
+        if (prefix != null && prefix.length() >= best.length()) {
+            return new Literal(prefix, true);
+        }
+        if (best.length() >= MIN_INFIX_LENGTH) {
+            return new Literal(best, false);
+        }
+        if (prefix != null) {
+            return new Literal(prefix, true);
+        }
+        return null;
+    }
+
+    /**
+     * @return Index after the character class starting at <code>start</code> or -1 if it can not be handled
+     */
+    static int skipClass(String re, int start) {
+        int j = start + 1;
+        if (j < re.length() && re.charAt(j) == '^') {
+            j++;
+        }
+        if (j < re.length() && re.charAt(j) == ']') {
+            // A leading ] is a literal
+            j++;
+        }
+        while (j < re.length()) {
+            char c = re.charAt(j);
+            if (c == '\\') {
+                j += 2;
+                continue;
+            }
+            if (c == '[') {
+                // Nested classes (unions, intersections) are not worth the risk
+                return -1;
+            }
+            if (c == ']') {
+                return j + 1;
+            }
+            j++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return Index after the group starting at <code>start</code> or -1 if it can not be handled
+     */
+    static int skipGroup(String re, int start) {
+        int depth = 0;
+        int j = start;
+        while (j < re.length()) {
+            char c = re.charAt(j);
+            if (c == '\\') {
+                j += 2;
+                continue;
+            }
+            if (c == '[') {
+                j = skipClass(re, j);
+                if (j < 0) {
+                    return -1;
+                }
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return j + 1;
+                }
+            }
+            j++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return Index after any quantifier (including lazy/possessive modifier) at <code>start</code>, or
+     *         <code>start</code> if there is none. -1 if the quantifier is malformed.
+     */
+    static int skipQuantifier(String re, int start) {
+        if (start >= re.length()) {
+            return start;
+        }
+        char c = re.charAt(start);
+        int j;
+        if (c == '*' || c == '+' || c == '?') {
+            j = start + 1;
+        } else if (c == '{') {
+            j = re.indexOf('}', start);
+            if (j < 0) {
+                return -1;
+            }
+            j++;
+        } else {
+            return start;
+        }
+        if (j < re.length() && (re.charAt(j) == '?' || re.charAt(j) == '+')) {
+            j++;
+        }
+        return j;
+    }
+
+    static boolean hasTopLevelAlternation(String re) {
+        int depth = 0;
+        int j = 0;
+        while (j < re.length()) {
+            char c = re.charAt(j);
+            if (c == '\\') {
+                j += 2;
+                continue;
+            }
+            if (c == '[') {
+                int end = skipClass(re, j);
+                if (end < 0) {
+                    // Can not tell, assume the worst
+                    return true;
+                }
+                j = end;
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+            j++;
+        }
+        return false;
+    }
+
+    static boolean hasInlineFlags(String re) {
+        int j = re.indexOf("(?");
+        while (j >= 0) {
+            if (j + 2 < re.length() && "idmsuxU-".indexOf(re.charAt(j + 2)) >= 0) {
+                return true;
+            }
+            j = re.indexOf("(?", j + 2);
+        }
+        return false;
+    }
+
+    /**
+     * A trie of literals, with Aho-Corasick failure links when used to find literals anywhere in the input.
+     */
+    static final class LiteralAutomaton {
+        private static final int[] NO_OUTPUT = new int[0];
+        private static final int ASCII = 128;
+
+        private final int[] rootAscii;
+        private final char[][] keys;
+        private final int[][] next;
+        private final int[] fail;
+        private final int[][] output;
+
+        private LiteralAutomaton(int[] rootAscii, char[][] keys, int[][] next, int[] fail, int[][] output) {
+            this.rootAscii = rootAscii;
+            this.keys = keys;
+            this.next = next;
+            this.fail = fail;
+            this.output = output;
+        }
+
+        boolean isEmpty() {
+            return keys.length == 1 && keys[0].length == 0;
+        }
+
+        private int transition(int node, char c) {
+            if (node == 0 && c < ASCII) {
+                return rootAscii[c];
+            }
+            int k = Arrays.binarySearch(keys[node], c);
+            return k < 0 ? -1 : next[node][k];
+        }
+
+        /**
+         * Register every literal that the input starts with.
+         */
+        void matchPrefixes(CharSequence input, Scratch s) {
+            if (isEmpty()) {
+                return;
+            }
+            int node = 0;
+            for (int i = 0; i < input.length(); i++) {
+                node = transition(node, input.charAt(i));
+                if (node < 0) {
+                    return;
+                }
+                for (int index : output[node]) {
+                    s.add(index);
+                }
+            }
+        }
+
+        /**
+         * Register every literal that occurs anywhere in the input.
+         */
+        void matchAnywhere(CharSequence input, Scratch s) {
+            if (isEmpty()) {
+                return;
+            }
+            int node = 0;
+            for (int i = 0; i < input.length(); i++) {
+                char c = input.charAt(i);
+                int n = transition(node, c);
+                while (n < 0 && node != 0) {
+                    node = fail[node];
+                    n = transition(node, c);
+                }
+                node = n < 0 ? 0 : n;
+                for (int index : output[node]) {
+                    s.add(index);
+                }
+            }
+        }
+
+        static final class Builder {
+            private final List<TreeMap<Character, Integer>> children = new ArrayList<>();
+            private final List<List<Integer>> terminals = new ArrayList<>();
+
+            Builder() {
+                newNode();
+            }
+
+            private int newNode() {
+                children.add(new TreeMap<>());
+                terminals.add(new ArrayList<>());
+                return children.size() - 1;
+            }
+
+            void add(String literal, int patternIndex) {
+                int node = 0;
+                for (int i = 0; i < literal.length(); i++) {
+                    Integer child = children.get(node).get(literal.charAt(i));
+                    if (child == null) {
+                        child = newNode();
+                        children.get(node).put(literal.charAt(i), child);
+                    }
+                    node = child;
+                }
+                terminals.get(node).add(patternIndex);
+            }
+
+            /**
+             * @param failureLinks If true, outputs include those of all literals that are suffixes of the node's
+             *        string, as needed to find literals anywhere in the input.
+             */
+            LiteralAutomaton build(boolean failureLinks) {
+                int size = children.size();
+                char[][] keys = new char[size][];
+                int[][] next = new int[size][];
+                int[] fail = new int[size];
+                int[][] output = new int[size][];
+
+                for (int node = 0; node < size; node++) {
+                    TreeMap<Character, Integer> map = children.get(node);
+                    keys[node] = new char[map.size()];
+                    next[node] = new int[map.size()];
+                    int k = 0;
+                    for (Map.Entry<Character, Integer> e : map.entrySet()) {
+                        keys[node][k] = e.getKey();
+                        next[node][k] = e.getValue();
+                        k++;
+                    }
+                }
+
+                int[] rootAscii = new int[ASCII];
+                Arrays.fill(rootAscii, -1);
+                for (int k = 0; k < keys[0].length; k++) {
+                    if (keys[0][k] < ASCII) {
+                        rootAscii[keys[0][k]] = next[0][k];
+                    }
+                }
+
+                LiteralAutomaton automaton = new LiteralAutomaton(rootAscii, keys, next, fail, output);
+
+                // Breadth first, so that failure targets are always complete before they are used
+                List<List<Integer>> outputs = new ArrayList<>(terminals);
+                int[] queue = new int[size];
+                int head = 0;
+                int tail = 0;
+                queue[tail++] = 0;
+                while (head < tail) {
+                    int node = queue[head++];
+                    for (int k = 0; k < keys[node].length; k++) {
+                        int child = next[node][k];
+                        queue[tail++] = child;
+                        if (node == 0) {
+                            fail[child] = 0;
+                        } else {
+                            int f = fail[node];
+                            int t = automaton.transition(f, keys[node][k]);
+                            while (t < 0 && f != 0) {
+                                f = fail[f];
+                                t = automaton.transition(f, keys[node][k]);
+                            }
+                            fail[child] = t < 0 ? 0 : t;
+                        }
+                        if (failureLinks && !outputs.get(fail[child]).isEmpty()) {
+                            List<Integer> merged = new ArrayList<>(outputs.get(child));
+                            merged.addAll(outputs.get(fail[child]));
+                            outputs.set(child, merged);
+                        }
+                    }
+                }
+                for (int node = 0; node < size; node++) {
+                    List<Integer> out = outputs.get(node);
+                    output[node] = out.isEmpty() ? NO_OUTPUT : out.stream().mapToInt(Integer::intValue).toArray();
+                }
+                return automaton;
+            }
+        }
+    }
+}
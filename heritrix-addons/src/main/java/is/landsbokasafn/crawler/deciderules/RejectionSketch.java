@@ -0,0 +1,198 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed size summary of which hosts a rule rejects URIs from.
+ * <p>
+ * Rejections are counted per host in a count-min sketch, which never under counts and over counts by a small
+ * fraction of the total. Hosts whose estimated count is among the highest are tracked in a bounded table of heavy
+ * hitters, along with the most recent URIs rejected from them. Memory use is therefore fixed regardless of how
+ * many hosts or URIs are rejected.
+ * <p>
+ * Adding a rejection for a host that is already a heavy hitter, or that is not a candidate, does not lock.
+ */
+public class RejectionSketch {
+    static final int DEPTH = 4;
+    static final int WIDTH = 4096;
+
+    private final String name;
+    private final int maxHosts;
+    private final int samplesPerHost;
+
+    private final AtomicLongArray counts = new AtomicLongArray(DEPTH * WIDTH);
+    private final LongAdder total = new LongAdder();
+
+    private final Map<String, HeavyHost> heavy = new ConcurrentHashMap<>();
+    /** Estimate a host must exceed to enter the table when it is full */
+    private volatile long threshold = 0;
+
+    /**
+     * @param name Name of the rule
+     * @param maxHosts Number of heavy hitters to track
+     * @param samplesPerHost Number of recent URIs to keep for each heavy hitter
+     */
+    public RejectionSketch(String name, int maxHosts, int samplesPerHost) {
+        this.name = name;
+        this.maxHosts = Math.max(1, maxHosts);
+        this.samplesPerHost = Math.max(0, samplesPerHost);
+    }
+
+    /**
+     * A tracked host and the most recent URIs rejected from it.
+     */
+    private static final class HeavyHost {
+        final String host;
+        final AtomicReferenceArray<String> samples;
+        final AtomicInteger next = new AtomicInteger();
+
+        HeavyHost(String host, int samples) {
+            this.host = host;
+            this.samples = new AtomicReferenceArray<>(samples);
+        }
+
+        void sample(String uri) {
+            if (samples.length() > 0) {
+                samples.set(Math.floorMod(next.getAndIncrement(), samples.length()), uri);
+            }
+        }
+    }
+
+    /**
+     * Snapshot of a heavy hitter.
+     */
+    public static final class HostRejections {
+        private final String host;
+        private final long count;
+        private final List<String> sampleUris;
+
+        HostRejections(String host, long count, List<String> sampleUris) {
+            this.host = host;
+            this.count = count;
+            this.sampleUris = sampleUris;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * @return Estimated number of rejections
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return The most recently rejected URIs
+         */
+        public List<String> getSampleUris() {
+            return sampleUris;
+        }
+    }
+
+    public void add(String host, String uri) {
+        total.increment();
+        int h1 = mix(host.hashCode());
+        int h2 = mix(h1) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int d = 0; d < DEPTH; d++) {
+            int index = d * WIDTH + ((h1 + d * h2) & (WIDTH - 1));
+            estimate = Math.min(estimate, counts.incrementAndGet(index));
+        }
+
+        HeavyHost entry = heavy.get(host);
+        if (entry != null) {
+            entry.sample(uri);
+            return;
+        }
+        if (heavy.size() >= maxHosts && estimate <= threshold) {
+            return;
+        }
+        synchronized (this) {
+            entry = heavy.get(host);
+            if (entry == null) {
+                if (heavy.size() >= maxHosts) {
+                    HeavyHost smallest = smallest();
+                    if (estimate(smallest.host) >= estimate) {
+                        threshold = estimate(smallest.host);
+                        return;
+                    }
+                    heavy.remove(smallest.host);
+                }
+                entry = new HeavyHost(host, samplesPerHost);
+                heavy.put(host, entry);
+                if (heavy.size() >= maxHosts) {
+                    threshold = estimate(smallest().host);
+                }
+            }
+        }
+        entry.sample(uri);
+    }
+
+    private HeavyHost smallest() {
+        HeavyHost smallest = null;
+        long min = Long.MAX_VALUE;
+        for (HeavyHost candidate : heavy.values()) {
+            long estimate = estimate(candidate.host);
+            if (estimate < min) {
+                min = estimate;
+                smallest = candidate;
+            }
+        }
+        return smallest;
+    }
+
+    /**
+     * @return Estimated number of rejections for the host. Never less than the actual number.
+     */
+    public long estimate(String host) {
+        int h1 = mix(host.hashCode());
+        int h2 = mix(h1) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int d = 0; d < DEPTH; d++) {
+            estimate = Math.min(estimate, counts.get(d * WIDTH + ((h1 + d * h2) & (WIDTH - 1))));
+        }
+        return estimate;
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 15);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * @return The tracked hosts, highest estimated count first
+     */
+    public List<HostRejections> getHeavyHosts() {
+        List<HostRejections> hosts = new ArrayList<>();
+        for (HeavyHost entry : heavy.values()) {
+            List<String> uris = new ArrayList<>();
+            for (int i = 0; i < entry.samples.length(); i++) {
+                String uri = entry.samples.get(i);
+                if (uri != null) {
+                    uris.add(uri);
+                }
+            }
+            hosts.add(new HostRejections(entry.host, estimate(entry.host), uris));
+        }
+        hosts.sort(Comparator.comparingLong(HostRejections::getCount).reversed());
+        return hosts;
+    }
+}
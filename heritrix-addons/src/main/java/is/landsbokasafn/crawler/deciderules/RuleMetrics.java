@@ -0,0 +1,153 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.archive.modules.deciderules.DecideResult;
+
+/**
+ * Counters for one rule in a {@link DecideRuleSequence}.
+ * <p>
+ * Decisions are counted for every evaluation. Latency is only measured for sampled evaluations (see
+ * {@link DecideRuleSequence#setLatencySampleRate(int)}) and is kept in a histogram with power of two buckets, so
+ * percentiles are accurate to within a factor of two.
+ * <p>
+ * All counters are striped ({@link LongAdder}) so many threads can update them without contention.
+ */
+public class RuleMetrics {
+    /** Bucket <i>b</i> holds latencies from 2<sup>b</sup> up to 2<sup>b+1</sup> nanoseconds */
+    public static final int BUCKETS = 40;
+
+    private final String name;
+
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder accepts = new LongAdder();
+    private final LongAdder rejects = new LongAdder();
+    private final LongAdder nones = new LongAdder();
+    private final LongAdder decisive = new LongAdder();
+    private final LongAdder sampledNanos = new LongAdder();
+    private final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+    public RuleMetrics(String name) {
+        this.name = name;
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = new LongAdder();
+        }
+    }
+
+    void evaluated(DecideResult result) {
+        evaluations.increment();
+        if (result == DecideResult.ACCEPT) {
+            accepts.increment();
+        } else if (result == DecideResult.REJECT) {
+            rejects.increment();
+        } else {
+            nones.increment();
+        }
+    }
+
+    void sampled(long nanos) {
+        sampledNanos.add(nanos);
+        int bucket = nanos <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+        histogram[Math.min(bucket, BUCKETS - 1)].increment();
+    }
+
+    void skipped() {
+        skipped.increment();
+    }
+
+    void decisive() {
+        decisive.increment();
+    }
+
+    public void reset() {
+        evaluations.reset();
+        skipped.reset();
+        accepts.reset();
+        rejects.reset();
+        nones.reset();
+        decisive.reset();
+        sampledNanos.reset();
+        for (LongAdder bucket : histogram) {
+            bucket.reset();
+        }
+    }
+
+    /**
+     * @return Rule class name, as the rules themselves usually have no name
+     */
+    public String getName() {
+        return name;
+    }
+
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    /**
+     * @return Number of times the rule was not evaluated because it could not change the outcome
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    public long getAccepts() {
+        return accepts.sum();
+    }
+
+    public long getRejects() {
+        return rejects.sum();
+    }
+
+    public long getNones() {
+        return nones.sum();
+    }
+
+    /**
+     * @return Number of times the rule decided the outcome of the sequence
+     */
+    public long getDecisive() {
+        return decisive.sum();
+    }
+
+    public long getSampledEvaluations() {
+        long total = 0;
+        for (LongAdder bucket : histogram) {
+            total += bucket.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @return Mean time per sampled evaluation, 0 if never sampled
+     */
+    public long getMeanNanos() {
+        long samples = getSampledEvaluations();
+        return samples == 0 ? 0 : sampledNanos.sum() / samples;
+    }
+
+    /**
+     * @param quantile Between 0 and 1, e.g. 0.99
+     * @return Upper bound of the histogram bucket holding the quantile, 0 if never sampled
+     */
+    public long getLatencyNanos(double quantile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = histogram[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target && counts[i] > 0) {
+                return 1L << (i + 1);
+            }
+        }
+        return 1L << BUCKETS;
+    }
+}
@@ -0,0 +1,137 @@
+package is.landsbokasafn.crawler.extractors;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the candidate links found in content, keyed by the content's digest, so that content fetched many
+ * times (shared JavaScript libraries, analytics snippets and the like) only has to be parsed once.
+ * <p>
+ * Candidates are stored as found in the content, before they are unescaped, fixed up or resolved against a base,
+ * so a cached list is valid for any URI the same content is fetched from.
+ * <p>
+ * The cache is least recently used and bounded by an estimate of the memory held by its entries.
+ */
+public class CandidateCache {
+    /** Estimated overhead of an entry, map node and array included */
+    static final int ENTRY_OVERHEAD = 128;
+    /** Estimated overhead of each candidate string */
+    static final int CANDIDATE_OVERHEAD = 56;
+
+    private final long maxBytes;
+    private long bytes = 0;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder savedBytes = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private static final class Entry {
+        final String[] candidates;
+        final long size;
+
+        Entry(String[] candidates, long size) {
+            this.candidates = candidates;
+            this.size = size;
+        }
+    }
+
+    public CandidateCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param digest Content digest, including the scheme, e.g. <code>sha1:...</code>
+     * @param contentLength Length of the content, counted as saved on a hit
+     * @return The cached candidates or null
+     */
+    public String[] get(String digest, long contentLength) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(digest);
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        savedBytes.add(contentLength);
+        return entry.candidates;
+    }
+
+    public void put(String digest, String[] candidates) {
+        long size = ENTRY_OVERHEAD + 2L * digest.length();
+        for (String candidate : candidates) {
+            size += CANDIDATE_OVERHEAD + 2L * candidate.length();
+        }
+        if (size > maxBytes / 16) {
+            // Not worth pushing out many other entries for
+            return;
+        }
+        synchronized (this) {
+            Entry old = entries.put(digest, new Entry(candidates, size));
+            if (old != null) {
+                bytes -= old.size;
+            }
+            bytes += size;
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().getValue().size;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return Estimated memory held by the cached entries
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Fraction of lookups that were hits, 0 if none
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long lookups = hits + getMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * @return Total length of content that did not have to be parsed because of cache hits
+     */
+    public long getSavedBytes() {
+        return savedBytes.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
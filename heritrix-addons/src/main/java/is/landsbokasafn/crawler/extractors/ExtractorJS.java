@@ -21,26 +21,44 @@ package is.landsbokasafn.crawler.extractors;
 import static org.archive.modules.extractor.Hop.SPECULATIVE;
 import static org.archive.modules.extractor.LinkContext.JS_MISC;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.apache.commons.httpclient.URIException;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.exception.NestableRuntimeException;
+import org.archive.io.ReplayCharSequence;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.extractor.ConfigurableExtractorJS;
 import org.archive.modules.extractor.Extractor;
+import org.archive.util.ArchiveUtils;
+import org.archive.util.Recorder;
 import org.archive.util.UriUtils;
 
 /**
  * Subclasses the standard ExtractorJS to add configurable blacklist -- both as literal and 
  * regex -- for extracted relative URLs in JS and enable strict mode. 
+ * <p>
+ * Optionally uses a single pass {@link JavaScriptStringScanner} to find candidates in JS files 
+ * instead of the regular expression used by the standard extractor, and a {@link CandidateCache} 
+ * so that JS files fetched many times, such as shared libraries, are only parsed once. In 
+ * streaming mode the content is decoded and scanned a window at a time, so very large JS files 
+ * do not have to be held in memory as characters.
  * 
  * @deprecated in favor of {@link ConfigurableExtractorJS}
  */
@@ -49,8 +67,6 @@ public class ExtractorJS extends org.archive.modules.extractor.ExtractorJS {
     private static Logger LOGGER = 
             Logger.getLogger(ExtractorJS.class.getName());
 	
-    long foundFalsePositives = 0;
-
     /** If true, then only extract absolute paths */
     protected boolean strict = false; 
     public boolean getStrict() {
@@ -60,6 +76,95 @@ public class ExtractorJS extends org.archive.modules.extractor.ExtractorJS {
         this.strict = strict;
     }
 
+    /**
+     * If true, then JS files are scanned for string literals with a {@link JavaScriptStringScanner}, 
+     * which skips comments and regular expressions and is much faster on large, minified files.
+     */
+    protected boolean useStringScanner = false;
+    public boolean getUseStringScanner() {
+        return useStringScanner;
+    }
+    public void setUseStringScanner(boolean useStringScanner) {
+        this.useStringScanner = useStringScanner;
+        // The two find somewhat different candidates
+        CandidateCache cache = candidateCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Memory, in bytes, to use for caching the candidates found in JS files by content digest. 
+     * Zero disables the cache.
+     */
+    protected long candidateCacheBytes = 0;
+    public long getCandidateCacheBytes() {
+        return candidateCacheBytes;
+    }
+    public void setCandidateCacheBytes(long candidateCacheBytes) {
+        this.candidateCacheBytes = candidateCacheBytes;
+        this.candidateCache = candidateCacheBytes > 0 ? new CandidateCache(candidateCacheBytes) : null;
+    }
+
+    /**
+     * Smallest JS files, in bytes, to cache the candidates of. Parsing small files is cheaper 
+     * than the cache entry.
+     */
+    protected long candidateCacheMinLength = 4096;
+    public long getCandidateCacheMinLength() {
+        return candidateCacheMinLength;
+    }
+    public void setCandidateCacheMinLength(long candidateCacheMinLength) {
+        this.candidateCacheMinLength = candidateCacheMinLength;
+    }
+
+    /**
+     * If true, then JS files are decoded and scanned with a {@link JavaScriptStringScanner} a 
+     * window at a time, using the same small amount of memory whatever their size.
+     */
+    protected boolean streaming = false;
+    public boolean getStreaming() {
+        return streaming;
+    }
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * In streaming mode, stop extracting after this many bytes of content. Zero for no limit.
+     */
+    protected long maxStreamedBytes = 0;
+    public long getMaxStreamedBytes() {
+        return maxStreamedBytes;
+    }
+    public void setMaxStreamedBytes(long maxStreamedBytes) {
+        this.maxStreamedBytes = maxStreamedBytes;
+    }
+
+    /**
+     * In streaming mode, stop extracting after this many milliseconds. Zero for no limit.
+     */
+    protected long maxExtractionMillis = 0;
+    public long getMaxExtractionMillis() {
+        return maxExtractionMillis;
+    }
+    public void setMaxExtractionMillis(long maxExtractionMillis) {
+        this.maxExtractionMillis = maxExtractionMillis;
+    }
+
+    /** Size, in bytes and chars, of the windows the content is streamed through */
+    static final int STREAM_WINDOW = 16 * 1024;
+
+    private final LongAdder truncatedExtractions = new LongAdder();
+
+    private volatile CandidateCache candidateCache = null;
+    public CandidateCache getCandidateCache() {
+        return candidateCache;
+    }
+
+    /** Candidates found by the current thread, while extracting content that is to be cached */
+    private final ThreadLocal<List<String>> collectedCandidates = new ThreadLocal<>();
+
     
     /**
      * The list of regular expressions to evalute potential relative url against, rejecting any that match
@@ -67,19 +172,18 @@ public class ExtractorJS extends org.archive.modules.extractor.ExtractorJS {
     public List<String> getRejectRelativeMatchingRegexList() {
         return rejectRelativeMatchingRegexList;
     }
-    public void setRejectRelativeMatchingRegexList(List<String> patterns) {
-    	rejectRelativeMatchingRegexList = patterns;
-    	rejectRelativeMatchingRegexListPatterns = new ArrayList<>();
-    	for (String p : patterns) {
-    		rejectRelativeMatchingRegexListPatterns.add(Pattern.compile(p, Pattern.CASE_INSENSITIVE));
-    	}
+    public synchronized void setRejectRelativeMatchingRegexList(List<String> patterns) {
+        rejectRelativeMatchingRegexList = new ArrayList<>(patterns);
+        updateRejectFilter();
     }
-    public void addRejectRelativeMatchingRegex(String pattern) {
-		rejectRelativeMatchingRegexListPatterns.add(Pattern.compile(pattern, Pattern.CASE_INSENSITIVE));
+    public synchronized void addRejectRelativeMatchingRegex(String pattern) {
+        List<String> patterns = new ArrayList<>(rejectRelativeMatchingRegexList);
+        patterns.add(pattern);
+        rejectRelativeMatchingRegexList = patterns;
+        updateRejectFilter();
     }
     
     private List<String> rejectRelativeMatchingRegexList = new ArrayList<>();
-    private List<Pattern> rejectRelativeMatchingRegexListPatterns;
 
 
     /**
@@ -88,24 +192,242 @@ public class ExtractorJS extends org.archive.modules.extractor.ExtractorJS {
     public List<String> getRejectRelativeIgnoreList() {
         return rejectRelativeIgnoreSet.stream().collect(Collectors.toList());
     }
-    public void setRejectRelativeIgnoreList(Set<String> ignoreStrings) {
-    	rejectRelativeIgnoreSet.clear();
-    	rejectRelativeIgnoreSet.addAll(ignoreStrings);
+    public synchronized void setRejectRelativeIgnoreList(Set<String> ignoreStrings) {
+        rejectRelativeIgnoreSet = new HashSet<>(ignoreStrings);
+        updateRejectFilter();
     }
-    public void addRejectRelativeIgnoreList(String ignoreString) {
-		rejectRelativeIgnoreSet.add(ignoreString);
+    public synchronized void addRejectRelativeIgnoreList(String ignoreString) {
+        Set<String> ignoreStrings = new HashSet<>(rejectRelativeIgnoreSet);
+        ignoreStrings.add(ignoreString);
+        rejectRelativeIgnoreSet = ignoreStrings;
+        updateRejectFilter();
     }
     
     private Set<String> rejectRelativeIgnoreSet = new HashSet<>();
-    
+
+    /** 
+     * Compiled from the two lists above. Replaced, never modified, when they change so 
+     * threads extracting links need no locking.
+     */
+    private volatile RelativeLinkRejectFilter rejectFilter = RelativeLinkRejectFilter.EMPTY;
+
+    private void updateRejectFilter() {
+        rejectFilter = new RelativeLinkRejectFilter(rejectRelativeIgnoreSet, rejectRelativeMatchingRegexList);
+    }
+
+    private final LongAdder[] foundFalsePositives = new LongAdder[RelativeLinkRejectFilter.Reason.values().length];
+    {
+        for (int i = 0; i < foundFalsePositives.length; i++) {
+            foundFalsePositives[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return Number of relative links rejected as false positives
+     */
+    public long getFoundFalsePositives() {
+        long total = 0;
+        for (LongAdder count : foundFalsePositives) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    public long getFoundFalsePositives(RelativeLinkRejectFilter.Reason reason) {
+        return foundFalsePositives[reason.ordinal()].sum();
+    }
+
+    @Override
+    protected boolean innerExtract(CrawlURI curi) {
+        CandidateCache cache = candidateCache;
+        String digest = null;
+        if (cache != null && curi.getContentLength() >= getCandidateCacheMinLength()) {
+            digest = curi.getContentDigestSchemeString();
+        }
+        if (digest == null) {
+            return extractCandidates(curi);
+        }
+
+        String[] cached = cache.get(digest, curi.getContentLength());
+        if (cached != null) {
+            // Same content seen before, only the base differs
+            long found = 0;
+            for (String candidate : cached) {
+                if (considerString(this, curi, true, candidate)) {
+                    found++;
+                }
+            }
+            numberOfLinksExtracted.addAndGet(found);
+            return true;
+        }
+
+        List<String> candidates = new ArrayList<>();
+        collectedCandidates.set(candidates);
+        try {
+            if (!extractCandidates(curi)) {
+                return false;
+            }
+            if (collectedCandidates.get() != candidates) {
+                // Extraction was cut short, the candidates are incomplete
+                return true;
+            }
+        } finally {
+            collectedCandidates.remove();
+        }
+        cache.put(digest, candidates.toArray(new String[candidates.size()]));
+        return true;
+    }
+
+    private boolean extractCandidates(CrawlURI curi) {
+        if (getStreaming()) {
+            try {
+                numberOfLinksExtracted.addAndGet(streamStrings(curi));
+                return true;
+            } catch (IOException e) {
+                curi.getNonFatalFailures().add(e);
+            }
+            return false;
+        }
+        if (!getUseStringScanner()) {
+            return super.innerExtract(curi);
+        }
+        try {
+            ReplayCharSequence cs = curi.getRecorder().getContentReplayCharSequence();
+            numberOfLinksExtracted.addAndGet(scanStrings(curi, cs));
+            return true;
+        } catch (IOException e) {
+            curi.getNonFatalFailures().add(e);
+        }
+        return false;
+    }
+
+    /**
+     * Find candidates in JS content with a {@link JavaScriptStringScanner}.
+     * 
+     * @return Number of links found
+     */
+    protected long scanStrings(CrawlURI curi, CharSequence cs) {
+        long[] found = new long[1];
+        JavaScriptStringScanner scanner = newScanner(curi, found);
+        scanner.scan(cs);
+        scanner.end();
+        return found[0];
+    }
+
+    private JavaScriptStringScanner newScanner(CrawlURI curi, long[] found) {
+        return new JavaScriptStringScanner(candidate -> {
+            if (UriUtils.isPossibleUri(candidate) && considerString(this, curi, true, candidate)) {
+                found[0]++;
+            }
+        });
+    }
+
+    /**
+     * Find candidates in JS content with a {@link JavaScriptStringScanner}, reading and decoding 
+     * the content a window at a time. Stops early if the content is longer than 
+     * {@link #getMaxStreamedBytes()}, takes longer than {@link #getMaxExtractionMillis()} or an 
+     * {@link OffloadingExtractor} gives up on it, in which case the URI is annotated.
+     * 
+     * @return Number of links found
+     */
+    protected long streamStrings(CrawlURI curi) throws IOException {
+        Recorder recorder = curi.getRecorder();
+        Charset charset = recorder.getCharset() == null ? StandardCharsets.UTF_8 : recorder.getCharset();
+        try (InputStream stream = recorder.getContentReplayInputStream()) {
+            return streamStrings(curi, stream, charset);
+        }
+    }
+
+    /**
+     * As {@link #streamStrings(CrawlURI)}, reading the content from <code>stream</code>.
+     */
+    protected long streamStrings(CrawlURI curi, InputStream stream, Charset charset) throws IOException {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        long[] found = new long[1];
+        JavaScriptStringScanner scanner = newScanner(curi, found);
+
+        long maxBytes = getMaxStreamedBytes();
+        long maxNanos = getMaxExtractionMillis() * 1000000L;
+        long start = System.nanoTime();
+        ByteBuffer in = ByteBuffer.allocate(STREAM_WINDOW);
+        CharBuffer out = CharBuffer.allocate(STREAM_WINDOW);
+        long read = 0;
+        boolean truncated = false;
+        boolean eof = false;
+        while (!eof) {
+            if (maxBytes > 0 && read >= maxBytes) {
+                // Only cut short if there is more content
+                if (stream.read() >= 0) {
+                    truncated = true;
+                    break;
+                }
+                eof = true;
+            } else {
+                int wanted = in.remaining();
+                if (maxBytes > 0) {
+                    wanted = (int) Math.min(wanted, maxBytes - read);
+                }
+                int n = stream.read(in.array(), in.position(), wanted);
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    in.position(in.position() + n);
+                    read += n;
+                }
+            }
+
+            // Characters that span windows are kept in the buffer, literals that do 
+            // are kept by the scanner
+            in.flip();
+            CoderResult result;
+            do {
+                result = decoder.decode(in, out, eof);
+                scanner.scan(out.array(), 0, out.position());
+                out.clear();
+            } while (result.isOverflow());
+            in.compact();
+
+            if (!eof && ((maxNanos > 0 && System.nanoTime() - start > maxNanos) 
+                    || OffloadingExtractor.isCancelled())) {
+                truncated = true;
+                break;
+            }
+        }
+        if (eof) {
+            while (decoder.flush(out).isOverflow()) {
+                scanner.scan(out.array(), 0, out.position());
+                out.clear();
+            }
+            scanner.scan(out.array(), 0, out.position());
+        }
+        scanner.end();
+
+        if (truncated) {
+            truncatedExtractions.increment();
+            curi.getAnnotations().add("jsExtractionTruncated");
+            collectedCandidates.remove();
+            LOGGER.fine("Stopped extracting " + curi + " after " + read + " bytes and " 
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+        return found[0];
+    }
 
     @Override
     protected boolean considerString(Extractor ext, CrawlURI curi,
             boolean handlingJSFile, String candidate) {
-        try {
-            candidate = StringEscapeUtils.unescapeJavaScript(candidate);
-        } catch (NestableRuntimeException e) {
-            LOGGER.log(Level.WARNING, "problem unescaping some javascript", e);
+        List<String> collected = collectedCandidates.get();
+        if (collected != null) {
+            collected.add(candidate);
+        }
+
+        if (candidate.indexOf('\\') >= 0) {
+            try {
+                candidate = StringEscapeUtils.unescapeJavaScript(candidate);
+            } catch (NestableRuntimeException e) {
+                LOGGER.log(Level.WARNING, "problem unescaping some javascript", e);
+            }
         }
         
         candidate = UriUtils.speculativeFixup(candidate, curi.getUURI());
@@ -140,32 +462,12 @@ public class ExtractorJS extends org.archive.modules.extractor.ExtractorJS {
     }
     
 	private boolean shouldIgnorePossibleRelativeLink(String string) {
-		if (string.startsWith("http://") || string.startsWith("https://")) {
-			// Absolute path. Assume it is ok.
+		RelativeLinkRejectFilter.Reason reason = rejectFilter.reject(string);
+		if (reason == null) {
 			return false;
 		}
-
-		if (string.contains("/.") 
-				|| string.contains("@") 
-				|| string.length() > 150 
-				// If the string is in the set of literal strings to ignore, 
-				// then treat as false positive
-				|| rejectRelativeIgnoreSet.contains(string)) {
-			// While legal in URIs, these are rare and usually an indication of a false
-			// positive in the speculative extraction.
-			foundFalsePositives++;
-			return true;
-		}
-
-		for (Pattern p : rejectRelativeMatchingRegexListPatterns) {
-			boolean matches = p.matcher(string).matches();
-			if (matches) {
-				foundFalsePositives++;
-				return true;
-			}
-		}
-
-		return false;
+		foundFalsePositives[reason.ordinal()].increment();
+		return true;
 	}
     
 
@@ -174,7 +476,25 @@ public class ExtractorJS extends org.archive.modules.extractor.ExtractorJS {
 	public String report() {
         StringBuilder report = new StringBuilder();
         report.append(super.report());
-        report.append("  False positives eliminated: " + foundFalsePositives + "\n"); 
+        report.append("  False positives eliminated: " + getFoundFalsePositives() + "\n"); 
+        for (RelativeLinkRejectFilter.Reason reason : RelativeLinkRejectFilter.Reason.values()) {
+            report.append("    " + reason.getDescription() + ": " + getFoundFalsePositives(reason) + "\n");
+        }
+        if (getStreaming()) {
+            report.append("  Extractions stopped by size or time limit: " + truncatedExtractions.sum() + "\n");
+        }
+        CandidateCache cache = candidateCache;
+        if (cache != null) {
+            report.append("  Candidate cache hits: " + cache.getHits() + " of " 
+                    + (cache.getHits() + cache.getMisses()) + " (" 
+                    + String.format("%.1f", 100 * cache.getHitRate()) + "%)\n");
+            report.append("  Candidate cache entries: " + cache.getSize() + " (" 
+                    + ArchiveUtils.formatBytesForDisplay(cache.getBytes()) + " of " 
+                    + ArchiveUtils.formatBytesForDisplay(cache.getMaxBytes()) + ", " 
+                    + cache.getEvictions() + " evicted)\n");
+            report.append("  Content not parsed due to cache hits: " 
+                    + ArchiveUtils.formatBytesForDisplay(cache.getSavedBytes()) + "\n");
+        }
 		return report.toString();
 	}
     
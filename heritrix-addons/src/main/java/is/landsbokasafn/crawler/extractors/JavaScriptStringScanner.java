@@ -0,0 +1,334 @@
+package is.landsbokasafn.crawler.extractors;
+
+/**
+ * Single pass lexer that finds the string literals in JavaScript (or JSON) that may hold URIs.
+ * <p>
+ * The scanner tracks whether it is in code, a string literal, a comment or a regular expression literal, so
+ * comments, regular expressions and the code between literals are never offered as candidates. Strings quoted
+ * inside a literal, such as the attributes of an HTML fragment (<code>'&lt;a href="/x"&gt;'</code> or
+ * <code>"&lt;a href=\"/x\"&gt;"</code>), are found as well.
+ * <p>
+ * A literal is only turned into a <code>String</code> if it passes cheap structural checks: it must contain a
+ * <code>.</code> or a <code>/</code>, must not contain white space, <code>&lt;</code> or <code>&gt;</code>, and must
+ * not be longer than the maximum candidate length. Escape sequences are passed on as they appear in the source.
+ * <p>
+ * The scanner is push based. Content can be given in any number of pieces, split anywhere, with
+ * {@link #scan(CharSequence)} or {@link #scan(char[], int, int)}, followed by {@link #end()}. Instances are not
+ * thread safe.
+ */
+public class JavaScriptStringScanner {
+    public static final int DEFAULT_MAX_CANDIDATE_LENGTH = 2048;
+
+    /**
+     * Receives the candidates found.
+     */
+    public interface Sink {
+        void candidate(String candidate);
+    }
+
+    // Lexer states
+    private static final int CODE = 0;
+    /** A '/' in code, the next character tells if it starts a comment, a regular expression or is division */
+    private static final int SLASH = 1;
+    private static final int LINE_COMMENT = 2;
+    private static final int BLOCK_COMMENT = 3;
+    private static final int BLOCK_COMMENT_STAR = 4;
+    private static final int STRING = 5;
+    private static final int REGEX = 6;
+    private static final int REGEX_CLASS = 7;
+
+    // Delimiters of strings quoted inside a string literal
+    private static final int NONE = 0;
+    private static final int SINGLE = 1;
+    private static final int DOUBLE = 2;
+    private static final int ESCAPED_SINGLE = 3;
+    private static final int ESCAPED_DOUBLE = 4;
+
+    /** Keywords after which a '/' starts a regular expression rather than being division */
+    private static final char[][] KEYWORDS = { "return".toCharArray(), "typeof".toCharArray(),
+            "case".toCharArray(), "do".toCharArray(), "else".toCharArray(), "in".toCharArray(), "of".toCharArray(),
+            "new".toCharArray(), "delete".toCharArray(), "void".toCharArray(), "throw".toCharArray(),
+            "instanceof".toCharArray(), "yield".toCharArray(), "await".toCharArray() };
+
+    private final Sink sink;
+    private final int maxLength;
+
+    private final Literal outer;
+    private final Literal inner;
+
+    private int state = CODE;
+    private boolean regexAllowed = true;
+    private boolean escaped = false;
+    /** Delimiter of the current string literal */
+    private char quote;
+    /** Delimiter of the string currently quoted inside the literal, if any */
+    private int innerDelimiter = NONE;
+
+    /** The identifier being read, only kept if it is short enough to be a keyword */
+    private final char[] word = new char[10];
+    private int wordLength = 0;
+    private boolean inWord = false;
+
+    public JavaScriptStringScanner(Sink sink) {
+        this(sink, DEFAULT_MAX_CANDIDATE_LENGTH);
+    }
+
+    public JavaScriptStringScanner(Sink sink, int maxCandidateLength) {
+        this.sink = sink;
+        this.maxLength = maxCandidateLength;
+        this.outer = new Literal();
+        this.inner = new Literal();
+    }
+
+    /**
+     * The content of a literal being read, and what the structural checks have seen so far.
+     */
+    private final class Literal {
+        final StringBuilder chars = new StringBuilder(64);
+        boolean dotOrSlash;
+        boolean rejected;
+
+        void reset() {
+            chars.setLength(0);
+            dotOrSlash = false;
+            rejected = false;
+        }
+
+        void append(char c) {
+            if (rejected) {
+                return;
+            }
+            if (c <= ' ' || c == '<' || c == '>' || chars.length() >= maxLength) {
+                rejected = true;
+                chars.setLength(0);
+                return;
+            }
+            if (c == '.' || c == '/') {
+                dotOrSlash = true;
+            }
+            chars.append(c);
+        }
+
+        void emit() {
+            if (!rejected && dotOrSlash) {
+                sink.candidate(chars.toString());
+            }
+            reset();
+        }
+    }
+
+    public void scan(CharSequence cs) {
+        int length = cs.length();
+        for (int i = 0; i < length; i++) {
+            next(cs.charAt(i));
+        }
+    }
+
+    public void scan(char[] chars, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            next(chars[i]);
+        }
+    }
+
+    /**
+     * Signal the end of the content. A string literal that is still open is dropped. The scanner can then be
+     * reused for other content.
+     */
+    public void end() {
+        outer.reset();
+        inner.reset();
+        state = CODE;
+        regexAllowed = true;
+        escaped = false;
+        innerDelimiter = NONE;
+        wordLength = 0;
+        inWord = false;
+    }
+
+    private void next(char c) {
+        switch (state) {
+        case CODE:
+            code(c);
+            break;
+        case SLASH:
+            if (c == '/') {
+                state = LINE_COMMENT;
+            } else if (c == '*') {
+                state = BLOCK_COMMENT;
+            } else if (regexAllowed) {
+                state = REGEX;
+                escaped = false;
+                regex(c);
+            } else {
+                // Division
+                state = CODE;
+                regexAllowed = true;
+                code(c);
+            }
+            break;
+        case LINE_COMMENT:
+            if (c == '\n' || c == '\r') {
+                state = CODE;
+            }
+            break;
+        case BLOCK_COMMENT:
+            if (c == '*') {
+                state = BLOCK_COMMENT_STAR;
+            }
+            break;
+        case BLOCK_COMMENT_STAR:
+            if (c == '/') {
+                state = CODE;
+            } else if (c != '*') {
+                state = BLOCK_COMMENT;
+            }
+            break;
+        case STRING:
+            string(c);
+            break;
+        default:
+            regex(c);
+        }
+    }
+
+    private void code(char c) {
+        if (Character.isJavaIdentifierPart(c) && c > ' ') {
+            if (!inWord) {
+                inWord = true;
+                wordLength = 0;
+            }
+            if (wordLength < word.length) {
+                word[wordLength] = c;
+            }
+            wordLength++;
+            regexAllowed = false;
+            return;
+        }
+        if (inWord) {
+            inWord = false;
+            regexAllowed = isKeyword();
+        }
+        switch (c) {
+        case '"':
+        case '\'':
+        case '`':
+            state = STRING;
+            quote = c;
+            escaped = false;
+            innerDelimiter = NONE;
+            outer.reset();
+            inner.reset();
+            break;
+        case '/':
+            state = SLASH;
+            break;
+        case ')':
+        case ']':
+            regexAllowed = false;
+            break;
+        default:
+            if (c > ' ') {
+                regexAllowed = true;
+            }
+        }
+    }
+
+    private boolean isKeyword() {
+        next: for (char[] keyword : KEYWORDS) {
+            if (keyword.length != wordLength) {
+                continue;
+            }
+            for (int i = 0; i < wordLength; i++) {
+                if (keyword[i] != word[i]) {
+                    continue next;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void string(char c) {
+        if (escaped) {
+            escaped = false;
+            outer.append(c);
+            if (c == '\'' || c == '"') {
+                quoted(c == '\'' ? ESCAPED_SINGLE : ESCAPED_DOUBLE, '\\', c);
+            } else if (innerDelimiter != NONE) {
+                inner.append('\\');
+                inner.append(c);
+            }
+            return;
+        }
+        if (c == '\\') {
+            escaped = true;
+            outer.append(c);
+        } else if (c == quote) {
+            state = CODE;
+            regexAllowed = false;
+            outer.emit();
+            inner.reset();
+        } else if ((c == '\n' || c == '\r') && quote != '`') {
+            // Unterminated literal
+            state = CODE;
+            regexAllowed = true;
+            outer.reset();
+            inner.reset();
+        } else if (c == '\'' || c == '"') {
+            outer.append(c);
+            quoted(c == '\'' ? SINGLE : DOUBLE, c, c);
+        } else {
+            outer.append(c);
+            if (innerDelimiter != NONE) {
+                if (c == '\n' || c == '\r') {
+                    innerDelimiter = NONE;
+                    inner.reset();
+                } else {
+                    inner.append(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * A quote inside a string literal. It either opens or closes a quoted string, or is part of one quoted with
+     * the other kind.
+     */
+    private void quoted(int delimiter, char first, char second) {
+        if (innerDelimiter == NONE) {
+            innerDelimiter = delimiter;
+            inner.reset();
+        } else if (innerDelimiter == delimiter) {
+            innerDelimiter = NONE;
+            inner.emit();
+        } else {
+            if (first != second) {
+                inner.append(first);
+            }
+            inner.append(second);
+        }
+    }
+
+    private void regex(char c) {
+        if (c == '\n' || c == '\r') {
+            // Not a regular expression after all
+            state = CODE;
+            regexAllowed = true;
+        } else if (escaped) {
+            escaped = false;
+        } else if (c == '\\') {
+            escaped = true;
+        } else if (state == REGEX_CLASS) {
+            if (c == ']') {
+                state = REGEX;
+            }
+        } else if (c == '[') {
+            state = REGEX_CLASS;
+        } else if (c == '/') {
+            // Flags follow, which are read as an identifier
+            state = CODE;
+            regexAllowed = false;
+        }
+    }
+}
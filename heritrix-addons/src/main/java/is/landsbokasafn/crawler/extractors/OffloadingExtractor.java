@@ -0,0 +1,269 @@
+package is.landsbokasafn.crawler.extractors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.ProcessResult;
+import org.archive.modules.Processor;
+import org.archive.spring.KeyedProperties;
+
+/**
+ * Runs a list of extractors on a work stealing pool sized to the number of cores, rather than on the ToeThread,
+ * for URIs with large content.
+ * <p>
+ * However many ToeThreads are fetching, no more than <code>parallelism</code> large documents are parsed at the
+ * same time, so a crawl can use many fetch threads without the cores being oversubscribed when several large
+ * pages arrive at once. Small content is extracted on the ToeThread as before. Sheet overlays that apply to the
+ * URI are loaded on the pool thread while it is being extracted, so the extractors are configured the same way
+ * whichever thread they run on.
+ * <p>
+ * The ToeThread waits for the extractors to finish, so the URI reaches the rest of the fetch chain and the
+ * disposition chain only when extraction is done. If extraction takes longer than <code>timeoutMillis</code> the
+ * extractors are asked to stop, see {@link #isCancelled()}, and the URI is annotated with
+ * <code>extractionTimeout</code>. The ToeThread still waits for them to stop, as they are working on the URI and
+ * its outlinks must not change once it has moved on. Extractors that do not check for cancellation may keep it
+ * waiting, which is logged as severe every <code>cancelWaitMillis</code> and counted.
+ * <p>
+ * The wrapped extractors are run in order, as they would be in the chain, and should be defined as top level
+ * beans so that they are started and stopped with the crawl. Use this in place of the wrapped extractors in the
+ * fetch chain, e.g.
+ *
+ * <pre>
+ * &lt;bean class="is.landsbokasafn.crawler.extractors.OffloadingExtractor"&gt;
+ *   &lt;property name="extractors"&gt;
+ *     &lt;list&gt;
+ *       &lt;ref bean="extractorHtml"/&gt;
+ *       &lt;ref bean="extractorJs"/&gt;
+ *     &lt;/list&gt;
+ *   &lt;/property&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ */
+public class OffloadingExtractor extends Processor {
+    private static final Logger logger = Logger.getLogger(OffloadingExtractor.class.getName());
+
+    /** Set on pool threads while they run extractors, raised if the ToeThread stops waiting for them */
+    private static final ThreadLocal<AtomicBoolean> CANCELLED = new ThreadLocal<>();
+
+    /**
+     * The extractors to run
+     */
+    protected List<Processor> extractors = new ArrayList<>();
+    public List<Processor> getExtractors() {
+        return extractors;
+    }
+    public void setExtractors(List<Processor> extractors) {
+        this.extractors = extractors;
+    }
+
+    /**
+     * URIs with at least this much content are extracted on the pool.
+     */
+    protected long minOffloadLength = 1024 * 1024;
+    public long getMinOffloadLength() {
+        return minOffloadLength;
+    }
+    public void setMinOffloadLength(long minOffloadLength) {
+        this.minOffloadLength = minOffloadLength;
+    }
+
+    /**
+     * How long to wait for extraction before asking the extractors to stop. Zero to wait indefinitely.
+     */
+    protected long timeoutMillis = 60000;
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * How long to wait for the extractors to stop once asked to before logging that they have not, and the interval
+     * at which that is repeated while waiting. Zero to wait without logging.
+     */
+    protected long cancelWaitMillis = 10000;
+    public long getCancelWaitMillis() {
+        return cancelWaitMillis;
+    }
+    public void setCancelWaitMillis(long cancelWaitMillis) {
+        this.cancelWaitMillis = cancelWaitMillis;
+    }
+
+    /**
+     * Number of threads in the pool. Defaults to the number of cores.
+     */
+    protected int parallelism = Runtime.getRuntime().availableProcessors();
+    public int getParallelism() {
+        return parallelism;
+    }
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    private volatile ForkJoinPool pool = null;
+
+    private final LongAdder inline = new LongAdder();
+    private final LongAdder offloaded = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder slowToStop = new LongAdder();
+
+    /**
+     * For extractors to check, on large content, whether they should stop early.
+     *
+     * @return true if the current thread is extracting for an {@link OffloadingExtractor} that has given up
+     *         waiting for it
+     */
+    public static boolean isCancelled() {
+        AtomicBoolean cancelled = CANCELLED.get();
+        return cancelled != null && cancelled.get();
+    }
+
+    @Override
+    public synchronized void start() {
+        if (isRunning()) {
+            return;
+        }
+        super.start();
+        pool = new ForkJoinPool(Math.max(1, getParallelism()), p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("OffloadingExtractor-" + getBeanName() + "-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        super.stop();
+        ForkJoinPool pool = this.pool;
+        this.pool = null;
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Override
+    protected boolean shouldProcess(CrawlURI curi) {
+        // The extractors decide for themselves
+        return true;
+    }
+
+    @Override
+    protected ProcessResult innerProcessResult(CrawlURI curi) throws InterruptedException {
+        ForkJoinPool pool = this.pool;
+        if (pool == null || curi.getContentLength() < getMinOffloadLength()) {
+            inline.increment();
+            return extract(curi);
+        }
+
+        offloaded.increment();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        // Not pool.submit(), as a ForkJoinTask rethrows a copy of the extractor's exception, wrapped around it
+        FutureTask<ProcessResult> task = new FutureTask<>(() -> {
+            CANCELLED.set(cancelled);
+            // Sheet overlays are loaded per thread, the ToeThread's do not apply here
+            KeyedProperties.loadOverlaysFrom(curi);
+            try {
+                return extract(curi);
+            } finally {
+                KeyedProperties.clearOverlaysFrom(curi);
+                CANCELLED.remove();
+            }
+        });
+        pool.execute(task);
+        try {
+            long timeout = getTimeoutMillis();
+            if (timeout <= 0) {
+                return task.get();
+            }
+            try {
+                return task.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                cancelled.set(true);
+                timedOut.increment();
+                logger.warning("Extraction of " + curi + " did not finish in " + timeout + " ms, stopping it");
+                // The extractors are still working on the URI, it can not go on until they stop
+                ProcessResult result = awaitCancelled(task, curi);
+                curi.getAnnotations().add("extractionTimeout");
+                return result;
+            }
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private ProcessResult awaitCancelled(FutureTask<ProcessResult> task, CrawlURI curi) 
+            throws InterruptedException, ExecutionException {
+        long cancelWait = getCancelWaitMillis();
+        if (cancelWait <= 0) {
+            return task.get();
+        }
+        long waited = 0;
+        while (true) {
+            try {
+                return task.get(cancelWait, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (waited == 0) {
+                    slowToStop.increment();
+                }
+                waited += cancelWait;
+                logger.severe("Extraction of " + curi + " has not stopped " + waited + " ms after being asked to, "
+                        + "still waiting for it");
+            }
+        }
+    }
+
+    private ProcessResult extract(CrawlURI curi) throws InterruptedException {
+        for (Processor extractor : getExtractors()) {
+            ProcessResult result = extractor.process(curi);
+            if (result != ProcessResult.PROCEED) {
+                return result;
+            }
+        }
+        return ProcessResult.PROCEED;
+    }
+
+    @Override
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(super.report());
+        report.append("  Extracted on ToeThreads: " + inline.sum() + "\n");
+        report.append("  Extracted on pool: " + offloaded.sum() + "\n");
+        report.append("  Timed out: " + timedOut.sum() + "\n");
+        report.append("  Slow to stop after timing out: " + slowToStop.sum() + "\n");
+        ForkJoinPool pool = this.pool;
+        if (pool != null) {
+            report.append("  Pool: " + pool.getParallelism() + " threads, " + pool.getActiveThreadCount()
+                    + " active, " + pool.getQueuedSubmissionCount() + " waiting, " + pool.getStealCount()
+                    + " steals\n");
+        }
+        for (Processor extractor : getExtractors()) {
+            report.append(extractor.report());
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,167 @@
+package is.landsbokasafn.crawler.extractors;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Decides if a relative link found speculatively by {@link ExtractorJS} is a false positive.
+ * <p>
+ * Instances are immutable, so a filter can be swapped for a new one while threads are using it. The checks are,
+ * in order:
+ * <ol>
+ * <li>Structural: the link contains <code>/.</code> or <code>@</code>, or is longer than {@link #MAX_LENGTH}.
+ * These are found in a single pass over the link.</li>
+ * <li>The link is one of the literal strings to ignore. Only links with the length of one of those are looked up.
+ * </li>
+ * <li>The link matches one of the regular expressions. These are combined into a single alternation, so one
+ * matcher does the work of all of them. Expressions that can not be combined safely (back references, quoting or
+ * comments) are matched one at a time.</li>
+ * </ol>
+ * Absolute http and https links are never rejected.
+ */
+public final class RelativeLinkRejectFilter {
+    public static final int MAX_LENGTH = 150;
+
+    public enum Reason {
+        DOT_SEGMENT("Contains /."),
+        AT_SIGN("Contains @"),
+        TOO_LONG("Longer than " + MAX_LENGTH),
+        IGNORE_LIST("In ignore list"),
+        REGEX("Matches a regex");
+
+        private final String description;
+
+        Reason(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    public static final RelativeLinkRejectFilter EMPTY =
+            new RelativeLinkRejectFilter(Collections.<String>emptySet(), Collections.<String>emptyList());
+
+    private final Set<String> ignore;
+    /** Bit n is set if a string of length n is ignored */
+    private final long[] ignoreLengths = new long[(MAX_LENGTH >> 6) + 1];
+    private final Pattern combined;
+    private final Pattern[] separate;
+
+    /**
+     * @param ignore Literal strings to reject
+     * @param regexes Regular expressions to reject links matching, case insensitive
+     * @throws PatternSyntaxException If one of the regular expressions is invalid
+     */
+    public RelativeLinkRejectFilter(Collection<String> ignore, List<String> regexes) {
+        this.ignore = new HashSet<>(ignore);
+        for (String s : this.ignore) {
+            if (s.length() <= MAX_LENGTH) {
+                ignoreLengths[s.length() >> 6] |= 1L << s.length();
+            }
+        }
+
+        StringBuilder alternation = new StringBuilder();
+        List<Pattern> combinable = new ArrayList<>();
+        List<Pattern> separate = new ArrayList<>();
+        for (String regex : regexes) {
+            Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+            if (isCombinable(regex)) {
+                if (alternation.length() > 0) {
+                    alternation.append('|');
+                }
+                alternation.append("(?:").append(regex).append(')');
+                combinable.add(pattern);
+            } else {
+                separate.add(pattern);
+            }
+        }
+        Pattern combined = null;
+        if (combinable.size() == 1) {
+            combined = combinable.get(0);
+        } else if (combinable.size() > 1) {
+            try {
+                combined = Pattern.compile(alternation.toString(), Pattern.CASE_INSENSITIVE);
+            } catch (PatternSyntaxException e) {
+                // E.g. the same group name used in two expressions
+                separate.addAll(combinable);
+            }
+        }
+        this.combined = combined;
+        this.separate = separate.toArray(new Pattern[separate.size()]);
+    }
+
+    /**
+     * @return true if the regex means the same inside a larger alternation
+     */
+    static boolean isCombinable(String regex) {
+        for (int i = 0; i < regex.length() - 1; i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                char next = regex.charAt(i + 1);
+                // Back references are numbered or named, \Q quotes to the end
+                if (Character.isDigit(next) || next == 'k' || next == 'Q') {
+                    return false;
+                }
+                i++;
+            } else if (c == '(' && regex.startsWith("(?", i)) {
+                // Possibly a comments flag, where # would comment out the rest of the alternation
+                int end = i + 2;
+                while (end < regex.length() && Character.isLetter(regex.charAt(end))) {
+                    end++;
+                }
+                if (regex.substring(i + 2, end).indexOf('x') >= 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Why the link should be rejected, null if it should not
+     */
+    public Reason reject(String link) {
+        if (link.startsWith("http://") || link.startsWith("https://")) {
+            // Absolute path. Assume it is ok.
+            return null;
+        }
+
+        int length = link.length();
+        if (length > MAX_LENGTH) {
+            return Reason.TOO_LONG;
+        }
+        // While legal in URIs, these are rare and usually an indication of a false
+        // positive in the speculative extraction.
+        for (int i = 0; i < length; i++) {
+            char c = link.charAt(i);
+            if (c == '@') {
+                return Reason.AT_SIGN;
+            }
+            if (c == '/' && i + 1 < length && link.charAt(i + 1) == '.') {
+                return Reason.DOT_SEGMENT;
+            }
+        }
+
+        if ((ignoreLengths[length >> 6] & (1L << length)) != 0 && ignore.contains(link)) {
+            return Reason.IGNORE_LIST;
+        }
+
+        if (combined != null && combined.matcher(link).matches()) {
+            return Reason.REGEX;
+        }
+        for (Pattern p : separate) {
+            if (p.matcher(link).matches()) {
+                return Reason.REGEX;
+            }
+        }
+        return null;
+    }
+}
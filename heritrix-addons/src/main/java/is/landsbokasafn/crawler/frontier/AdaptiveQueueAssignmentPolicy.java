@@ -0,0 +1,156 @@
+package is.landsbokasafn.crawler.frontier;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.archive.modules.CrawlURI;
+
+/**
+ * A variation on {@link HostnameQueueAssignmentPolicyWithLimits} that splits very large queues and folds small
+ * ones together.
+ * <p>
+ * <b>Splitting.</b> A single large site in a single queue can only be crawled by one thread at a time, so it
+ * often decides when a crawl finishes while other threads sit idle. When <code>splitQueues</code> is greater than
+ * one, a queue that has been assigned more than <code>splitThreshold</code> URIs is split: further URIs are
+ * spread over that many sub-queues by a hash of their path. The hash is stable, so a URI always goes to the same
+ * sub-queue. Sub-queue 0 is the original queue, the others are named <code>{queue}!{n}</code>.
+ * <p>
+ * <b>Folding.</b> Every queue has some overhead in the frontier, and a crawl of many tiny sites has a great many
+ * queues. When <code>foldQueues</code> is greater than zero, URIs are instead assigned to one of that many shared
+ * queues, named <code>folded!{n}</code>, by a hash of their normal queue. All URIs of a site go to the same shared
+ * queue.
+ * <p>
+ * Both are set per sheet, so splitting can be applied to the large sites known to need it, and folding to a list
+ * of small ones. Politeness settings in the same sheet then apply to each sub-queue, so a split site can be given
+ * a longer delay to keep the total load on it the same.
+ * <p>
+ * Splitting counts URIs as they are assigned, which includes URIs that are later found to be duplicates. The
+ * count is only kept for queues where splitting is enabled. URIs that already have a queue keep it, as long as
+ * <code>deferToPrevious</code> is set.
+ */
+public class AdaptiveQueueAssignmentPolicy extends HostnameQueueAssignmentPolicyWithLimits {
+    private static final long serialVersionUID = 1L;
+
+    public static final String SPLIT_QUEUES = "splitQueues";
+    public static final String SPLIT_THRESHOLD = "splitThreshold";
+    public static final String FOLD_QUEUES = "foldQueues";
+
+    public static final String SUB_QUEUE_SEPARATOR = "!";
+    public static final String FOLDED_QUEUE_PREFIX = "folded" + SUB_QUEUE_SEPARATOR;
+
+    {
+        setSplitQueues(1);
+        setSplitThreshold(10000);
+        setFoldQueues(0);
+    }
+
+    /**
+     * Number of sub-queues to split a queue into once it passes the <code>splitThreshold</code>. 1 or less
+     * disables splitting.
+     */
+    public void setSplitQueues(int splitQueues) {
+        kp.put(SPLIT_QUEUES, splitQueues);
+    }
+    public int getSplitQueues() {
+        return (Integer) kp.get(SPLIT_QUEUES);
+    }
+
+    /**
+     * Number of URIs assigned to a queue before it is split.
+     */
+    public void setSplitThreshold(long splitThreshold) {
+        kp.put(SPLIT_THRESHOLD, splitThreshold);
+    }
+    public long getSplitThreshold() {
+        return (Long) kp.get(SPLIT_THRESHOLD);
+    }
+
+    /**
+     * Number of shared queues to fold queues into. 0 disables folding.
+     */
+    public void setFoldQueues(int foldQueues) {
+        kp.put(FOLD_QUEUES, foldQueues);
+    }
+    public int getFoldQueues() {
+        return (Integer) kp.get(FOLD_QUEUES);
+    }
+
+    /** Number of URIs assigned to each queue, only for queues where splitting is enabled */
+    private final ConcurrentHashMap<String, AtomicLong> assigned = new ConcurrentHashMap<>();
+    private final Set<String> splitKeys = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public String getClassKey(CrawlURI curi) {
+        String previous = curi.getClassKey();
+        if (getDeferToPrevious() && previous != null && !previous.isEmpty()) {
+            // Already split or folded when it was assigned, and not counted again
+            return previous;
+        }
+        return getClassKey(super.getClassKey(curi), curi.getURI());
+    }
+
+    /**
+     * @param key The queue the URI would normally be assigned to
+     * @param uri The URI
+     * @return The queue to assign the URI to
+     */
+    protected String getClassKey(String key, String uri) {
+        int foldQueues = getFoldQueues();
+        if (foldQueues > 0) {
+            int folded = Math.floorMod(mix(key.hashCode()), foldQueues);
+            return getQueueKeyCache().canonicalize(FOLDED_QUEUE_PREFIX + folded);
+        }
+
+        int splitQueues = getSplitQueues();
+        if (splitQueues <= 1) {
+            return key;
+        }
+        AtomicLong counter = assigned.get(key);
+        if (counter == null) {
+            counter = assigned.computeIfAbsent(key, k -> new AtomicLong());
+        }
+        long count = counter.incrementAndGet();
+        long threshold = getSplitThreshold();
+        if (count <= threshold) {
+            return key;
+        }
+        if (count == threshold + 1) {
+            splitKeys.add(key);
+        }
+        int subQueue = Math.floorMod(mix(pathHash(uri)), splitQueues);
+        if (subQueue == 0) {
+            return key;
+        }
+        return getQueueKeyCache().canonicalize(key + SUB_QUEUE_SEPARATOR + subQueue);
+    }
+
+    /**
+     * @return The queues that have passed the split threshold
+     */
+    public Set<String> getSplitQueueKeys() {
+        return Collections.unmodifiableSet(splitKeys);
+    }
+
+    /**
+     * @return Hash of the URI from the start of its path
+     */
+    static int pathHash(String uri) {
+        int scheme = uri.indexOf("://");
+        int start = uri.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+        if (start < 0) {
+            return 0;
+        }
+        int h = 0;
+        for (int i = start; i < uri.length(); i++) {
+            h = 31 * h + uri.charAt(i);
+        }
+        return h;
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
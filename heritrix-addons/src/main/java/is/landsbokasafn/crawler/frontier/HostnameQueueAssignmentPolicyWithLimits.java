@@ -9,7 +9,7 @@ import org.archive.net.UURI;
  * This variation allows the operator (per sheet) to specify the maximum number of domains and
  * sub-domains to use for the queue name.
  * 
- * @deprecated in favor of {@link HostnameQueueAssignmentPolicyWithLimits}
+ * @deprecated in favor of {@link RegistrableDomainQueueAssignmentPolicy}
  */
 @Deprecated
 public class HostnameQueueAssignmentPolicyWithLimits extends HostnameQueueAssignmentPolicy {
@@ -43,25 +43,44 @@ public class HostnameQueueAssignmentPolicyWithLimits extends HostnameQueueAssign
     @Override
     protected String getCoreKey(UURI basis) {
     	int limit = (Integer)kp.get(LIMIT);
-    	return getLimitedHostname(super.getCoreKey(basis), limit);
+    	String hostname = super.getCoreKey(basis);
+    	return hostname == null ? null : getQueueKeyCache().get(hostname, limit);
+    }
+
+    private transient volatile QueueKeyCache queueKeyCache;
+
+    /**
+     * @return Cache of queue keys by host name, created on first use
+     */
+    protected QueueKeyCache getQueueKeyCache() {
+    	QueueKeyCache cache = queueKeyCache;
+    	if (cache == null) {
+    		synchronized (this) {
+    			if (queueKeyCache == null) {
+    				queueKeyCache = new QueueKeyCache(this::getLimitedHostname);
+    			}
+    			cache = queueKeyCache;
+    		}
+    	}
+    	return cache;
     }
 
     protected String getLimitedHostname(String hostname, int limit){
     	if (limit <= 0) {
     		return hostname;
     	}
-    	
-		String[] domains = hostname.split("\\.");
-		if (limit>=domains.length) {
-			return hostname;
-		}
-		// More domains are present than allowed.
-		StringBuffer limitedHostname = new StringBuffer();
-		for (int i=domains.length-limit ; i<domains.length-1 ; i++){
-			limitedHostname.append(domains[i]);
-			limitedHostname.append(".");
-		}
-		limitedHostname.append(domains[domains.length-1]);
-		return limitedHostname.toString();
+    	// Trailing empty labels are ignored, as String.split would
+    	int end = hostname.length();
+    	while (end > 0 && hostname.charAt(end - 1) == '.') {
+    		end--;
+    	}
+    	int labels = 0;
+    	for (int i = end - 1; i >= 0; i--) {
+    		if (hostname.charAt(i) == '.' && ++labels == limit) {
+    			// More domains are present than allowed.
+    			return hostname.substring(i + 1, end);
+    		}
+    	}
+    	return hostname;
     }
 }
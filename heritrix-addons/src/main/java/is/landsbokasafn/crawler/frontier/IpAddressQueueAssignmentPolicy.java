@@ -0,0 +1,190 @@
+package is.landsbokasafn.crawler.frontier;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.crawler.frontier.HostnameQueueAssignmentPolicy;
+import org.archive.modules.net.CrawlHost;
+import org.archive.modules.net.ServerCache;
+import org.archive.net.UURI;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import is.landsbokasafn.crawler.deciderules.IpAddresses;
+
+/**
+ * Assigns URIs to queues by the IP address their host resolves to, or by the network the address is in.
+ * <p>
+ * Many hosts are often served from a few shared hosting servers. With one queue per host such a server may be
+ * crawled by as many threads at once as there are hosts on it, no matter the politeness settings. With one queue
+ * per address the politeness settings apply to the server, as only one thread works on a queue at a time.
+ * <p>
+ * Addresses are looked up in the server cache, as the IP address decide rules do. A host that has not been
+ * resolved yet, such as when its first URIs are discovered, is assigned to its host name queue as by
+ * {@link HostnameQueueAssignmentPolicy}. This includes the DNS lookup itself. Once the host has been resolved,
+ * further URIs are assigned to the address queue. URIs already queued stay where they are. A host that is
+ * resolved to a different address when its record expires moves to the new address queue in the same way.
+ * <p>
+ * The queue is named by the address, e.g. <code>192.0.2.1</code>. When a prefix length is set that is shorter
+ * than the address the queue is named by the network, e.g. <code>192.0.2.0/24</code>. The port is not part of
+ * the name, as the server is the same.
+ */
+public class IpAddressQueueAssignmentPolicy extends HostnameQueueAssignmentPolicy {
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = Logger.getLogger(IpAddressQueueAssignmentPolicy.class.getName());
+
+    public static final String IPV4_PREFIX_LENGTH = "ipv4PrefixLength";
+    public static final String IPV6_PREFIX_LENGTH = "ipv6PrefixLength";
+
+    {
+        setIpv4PrefixLength(32);
+        setIpv6PrefixLength(64);
+    }
+    /**
+     * Number of leading bits of an IPv4 address that name its queue. 32 gives one queue per address, 24 one queue
+     * per class C network.
+     */
+    public void setIpv4PrefixLength(int ipv4PrefixLength) {
+        kp.put(IPV4_PREFIX_LENGTH, ipv4PrefixLength);
+    }
+    public int getIpv4PrefixLength() {
+        return (Integer) kp.get(IPV4_PREFIX_LENGTH);
+    }
+
+    /**
+     * Number of leading bits of an IPv6 address that name its queue. The default of 64 gives one queue per
+     * subnet, as a single server is often given a whole /64.
+     */
+    public void setIpv6PrefixLength(int ipv6PrefixLength) {
+        kp.put(IPV6_PREFIX_LENGTH, ipv6PrefixLength);
+    }
+    public int getIpv6PrefixLength() {
+        return (Integer) kp.get(IPV6_PREFIX_LENGTH);
+    }
+
+    transient protected ServerCache serverCache;
+
+    public ServerCache getServerCache() {
+        return this.serverCache;
+    }
+
+    @Autowired
+    public void setServerCache(ServerCache serverCache) {
+        this.serverCache = serverCache;
+    }
+
+    private transient volatile QueueKeyCache queueKeyCache;
+
+    private final LongAdder resolved = new LongAdder();
+    private final LongAdder unresolved = new LongAdder();
+
+    @Override
+    protected String getCoreKey(UURI basis) {
+        CrawlHost host = null;
+        try {
+            host = getServerCache().getHostFor(basis);
+        } catch (Exception e) {
+            // Log error and continue with the host name
+            logger.log(Level.WARNING, "Error looking up IP for URI " + basis, e);
+        }
+        String key = host == null ? null : getCoreKey(host);
+        if (key == null) {
+            unresolved.increment();
+            return super.getCoreKey(basis);
+        }
+        resolved.increment();
+        return key;
+    }
+
+    /**
+     * @return The queue key for the host's address, null if it has not been resolved
+     */
+    protected String getCoreKey(CrawlHost host) {
+        InetAddress ip = host.getIP();
+        if (ip == null) {
+            return null;
+        }
+        int prefixLength = ip instanceof Inet4Address ? getIpv4PrefixLength() : getIpv6PrefixLength();
+        return getQueueKeyCache().get(ip.getHostAddress(), prefixLength);
+    }
+
+    /**
+     * @return Cache of queue keys by address, created on first use
+     */
+    protected QueueKeyCache getQueueKeyCache() {
+        QueueKeyCache cache = queueKeyCache;
+        if (cache == null) {
+            synchronized (this) {
+                if (queueKeyCache == null) {
+                    queueKeyCache = new QueueKeyCache(IpAddressQueueAssignmentPolicy::getNetworkKey);
+                }
+                cache = queueKeyCache;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @param address Textual IPv4 or IPv6 address
+     * @param prefixLength Number of leading bits to keep
+     * @return The address, or the network address and prefix length if the prefix is shorter than the address.
+     *         The address as given if it can not be parsed.
+     */
+    static String getNetworkKey(String address, int prefixLength) {
+        long ipv4 = IpAddresses.parseIPv4(address);
+        if (ipv4 != IpAddresses.INVALID) {
+            int bits = Math.max(0, Math.min(32, prefixLength));
+            long network = bits == 0 ? 0 : ipv4 & (0xffffffffL << (32 - bits)) & 0xffffffffL;
+            StringBuilder sb = new StringBuilder(18);
+            sb.append(network >>> 24).append('.')
+                    .append((network >>> 16) & 0xff).append('.')
+                    .append((network >>> 8) & 0xff).append('.')
+                    .append(network & 0xff);
+            return bits < 32 ? sb.append('/').append(bits).toString() : sb.toString();
+        }
+
+        long[] ipv6 = new long[2];
+        if (!IpAddresses.parseIPv6(address, ipv6)) {
+            return address;
+        }
+        int bits = Math.max(0, Math.min(128, prefixLength));
+        long high = ipv6[0] & mask(bits);
+        long low = ipv6[1] & mask(bits - 64);
+        StringBuilder sb = new StringBuilder(44);
+        for (int group = 0; group < 8; group++) {
+            long half = group < 4 ? high : low;
+            if (group > 0) {
+                sb.append(':');
+            }
+            sb.append(Long.toHexString((half >>> (48 - 16 * (group % 4))) & 0xffff));
+        }
+        return bits < 128 ? sb.append('/').append(bits).toString() : sb.toString();
+    }
+
+    /**
+     * @return Mask of the leading bits of a 64 bit half
+     */
+    private static long mask(int bits) {
+        if (bits <= 0) {
+            return 0;
+        }
+        return bits >= 64 ? -1L : -1L << (64 - bits);
+    }
+
+    /**
+     * @return Number of URIs assigned to a queue by address
+     */
+    public long getResolvedCount() {
+        return resolved.sum();
+    }
+
+    /**
+     * @return Number of URIs assigned to a host name queue as their host had not been resolved
+     */
+    public long getUnresolvedCount() {
+        return unresolved.sum();
+    }
+}
@@ -0,0 +1,258 @@
+package is.landsbokasafn.crawler.frontier;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.IDN;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * The rules of the Public Suffix List (<a href="https://publicsuffix.org/">publicsuffix.org</a>) in a compact,
+ * read only trie, for finding the public suffix (effective TLD) of host names.
+ * <p>
+ * The trie is keyed on labels, right to left. All labels are held in a single <code>char[]</code> and the edges
+ * in a single open addressing hash table of <code>int</code>s, so a lookup walks the host name in place and does
+ * not allocate.
+ * <p>
+ * Normal, wildcard (<code>*.ck</code>) and exception (<code>!www.ck</code>) rules are supported, following the
+ * algorithm at <a href="https://publicsuffix.org/list/">publicsuffix.org/list</a>. Internationalized rules are
+ * converted to punycode, as host names in URIs are.
+ */
+public final class PublicSuffixTrie {
+    private static final Logger logger = Logger.getLogger(PublicSuffixTrie.class.getName());
+
+    public static final String PRIVATE_DOMAINS_BEGIN = "// ===BEGIN PRIVATE DOMAINS===";
+
+    // Node flags
+    private static final byte RULE = 1;
+    private static final byte WILDCARD = 2;
+    private static final byte EXCEPTION = 4;
+
+    private final int ruleCount;
+    /** Flags of each node, node 0 is the root */
+    private final byte[] flags;
+    /** Edge e leads from node edgeParent[e] to node e + 1 */
+    private final int[] edgeParent;
+    private final int[] labelStart;
+    private final int[] labelLength;
+    private final char[] labels;
+    /** Open addressing table of edge numbers, -1 where empty */
+    private final int[] table;
+    private final int mask;
+
+    /**
+     * @param rules Rules, in the format of the Public Suffix List
+     */
+    public PublicSuffixTrie(Collection<String> rules) {
+        Map<String, Integer> nodes = new HashMap<>();
+        List<Integer> parents = new ArrayList<>();
+        List<String> edgeLabels = new ArrayList<>();
+        List<Byte> nodeFlags = new ArrayList<>();
+        nodeFlags.add((byte) 0);
+        int count = 0;
+        int labelChars = 0;
+
+        for (String rule : rules) {
+            byte flag = RULE;
+            if (rule.startsWith("!")) {
+                flag = EXCEPTION;
+                rule = rule.substring(1);
+            }
+            String[] parts;
+            try {
+                parts = IDN.toASCII(rule, IDN.ALLOW_UNASSIGNED).toLowerCase(Locale.ROOT).split("\\.");
+            } catch (IllegalArgumentException e) {
+                logger.warning("Ignoring invalid public suffix rule " + rule);
+                continue;
+            }
+            int node = 0;
+            boolean valid = parts.length > 0;
+            for (int i = parts.length - 1; i >= 0 && valid; i--) {
+                String label = parts[i];
+                if (label.equals("*")) {
+                    if (i == 0 && flag == RULE) {
+                        flag = WILDCARD;
+                        break;
+                    }
+                    valid = false;
+                } else if (label.isEmpty()) {
+                    valid = false;
+                } else {
+                    String key = node + "." + label;
+                    Integer child = nodes.get(key);
+                    if (child == null) {
+                        child = nodeFlags.size();
+                        nodes.put(key, child);
+                        parents.add(node);
+                        edgeLabels.add(label);
+                        nodeFlags.add((byte) 0);
+                        labelChars += label.length();
+                    }
+                    node = child;
+                }
+            }
+            if (!valid) {
+                logger.warning("Ignoring unsupported public suffix rule " + rule);
+                continue;
+            }
+            nodeFlags.set(node, (byte) (nodeFlags.get(node) | flag));
+            count++;
+        }
+
+        this.ruleCount = count;
+        int edges = parents.size();
+        this.flags = new byte[edges + 1];
+        for (int i = 0; i <= edges; i++) {
+            flags[i] = nodeFlags.get(i);
+        }
+        this.edgeParent = new int[edges];
+        this.labelStart = new int[edges];
+        this.labelLength = new int[edges];
+        this.labels = new char[labelChars];
+        int size = Integer.highestOneBit(Math.max(4, edges * 2 - 1)) << 1;
+        this.table = new int[size];
+        this.mask = size - 1;
+        Arrays.fill(table, -1);
+        int offset = 0;
+        for (int e = 0; e < edges; e++) {
+            String label = edgeLabels.get(e);
+            edgeParent[e] = parents.get(e);
+            labelStart[e] = offset;
+            labelLength[e] = label.length();
+            label.getChars(0, label.length(), labels, offset);
+            offset += label.length();
+            int slot = slot(edgeParent[e], hash(label, 0, label.length()));
+            while (table[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = e;
+        }
+    }
+
+    /**
+     * Read rules in the format of the Public Suffix List file: one rule per line, ignoring comments (
+     * <code>//</code>), blank lines and anything after the first white space.
+     *
+     * @param includePrivate Whether to include the rules in the private domains section, e.g.
+     *            <code>blogspot.com</code>
+     */
+    public static PublicSuffixTrie parse(Reader reader, boolean includePrivate) throws IOException {
+        List<String> rules = new ArrayList<>();
+        BufferedReader br = new BufferedReader(reader);
+        String line;
+        while ((line = br.readLine()) != null) {
+            line = line.trim();
+            if (line.startsWith(PRIVATE_DOMAINS_BEGIN) && !includePrivate) {
+                break;
+            }
+            if (line.isEmpty() || line.startsWith("//")) {
+                continue;
+            }
+            int space = 0;
+            while (space < line.length() && !Character.isWhitespace(line.charAt(space))) {
+                space++;
+            }
+            rules.add(line.substring(0, space));
+        }
+        return new PublicSuffixTrie(rules);
+    }
+
+    private static int lower(char c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    private static int hash(CharSequence s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + lower(s.charAt(i));
+        }
+        return h;
+    }
+
+    private int slot(int parent, int labelHash) {
+        int h = (labelHash ^ (parent * 0x9E3779B9)) * 0x85EBCA6B;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * @return The node reached from parent by the label s[start, end), -1 if none
+     */
+    private int child(int parent, CharSequence s, int start, int end) {
+        int length = end - start;
+        for (int slot = slot(parent, hash(s, start, end)); table[slot] != -1; slot = (slot + 1) & mask) {
+            int e = table[slot];
+            if (edgeParent[e] == parent && labelLength[e] == length && matches(e, s, start)) {
+                return e + 1;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(int edge, CharSequence s, int start) {
+        int offset = labelStart[edge];
+        for (int i = 0; i < labelLength[edge]; i++) {
+            if (labels[offset + i] != lower(s.charAt(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param host Holds the host name, labels separated by dots, without a trailing dot
+     * @param start Start of the host name in host
+     * @param end End of the host name in host
+     * @return Number of labels in the public suffix of the host name. At least one, as a name matching no rule is
+     *         taken to be under a top level domain. May be more than the number of labels in the host name if it
+     *         matches a wildcard rule.
+     */
+    public int publicSuffixLabels(CharSequence host, int start, int end) {
+        int suffix = 1;
+        int node = 0;
+        int labelEnd = end;
+        for (int depth = 1; labelEnd > start; depth++) {
+            int labelStart = labelEnd - 1;
+            while (labelStart >= start && host.charAt(labelStart) != '.') {
+                labelStart--;
+            }
+            labelStart++;
+
+            boolean wildcard = (flags[node] & WILDCARD) != 0;
+            int child = child(node, host, labelStart, labelEnd);
+            if (child != -1 && (flags[child] & EXCEPTION) != 0) {
+                // Exceptions prevail, the suffix is the rule minus its leftmost label
+                return depth - 1;
+            }
+            if (wildcard) {
+                suffix = Math.max(suffix, depth);
+            }
+            if (child == -1) {
+                break;
+            }
+            if ((flags[child] & RULE) != 0) {
+                suffix = Math.max(suffix, depth);
+            }
+            node = child;
+            labelEnd = labelStart - 1;
+        }
+        return suffix;
+    }
+
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    /**
+     * @return Approximate memory used by the trie, in bytes
+     */
+    public long getMemoryUsage() {
+        return flags.length + 4L * (edgeParent.length * 3 + table.length) + 2L * labels.length;
+    }
+}
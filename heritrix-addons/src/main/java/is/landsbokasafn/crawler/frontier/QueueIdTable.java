@@ -0,0 +1,234 @@
+package is.landsbokasafn.crawler.frontier;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.checkpointing.Checkpoint;
+import org.archive.checkpointing.Checkpointable;
+import org.archive.spring.ConfigPath;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.context.Lifecycle;
+
+/**
+ * Assigns each queue name (class key) a small integer id, so that the id can be recorded with each URI rather
+ * than the name.
+ * <p>
+ * Ids are assigned in the order queues are first seen, starting at 0, and never change during a crawl. The table
+ * is saved in checkpoints and restored on recovery, so ids also carry over to a crawl resumed from a checkpoint.
+ * <p>
+ * While running, the table is written to <code>path</code>, by default <code>queue-ids.txt</code> in the crawl's
+ * log directory, one <code>{id} {queue name}</code> line per queue, separated by a tab. Lines are appended as
+ * queues are first seen, so the file can be joined with the crawl log while the crawl is in progress. Lines are
+ * not necessarily in id order.
+ * <p>
+ * Must be a top level bean to be started and checkpointed.
+ */
+public class QueueIdTable implements Lifecycle, Checkpointable, BeanNameAware {
+    private static final Logger logger = Logger.getLogger(QueueIdTable.class.getName());
+
+    public static final String CHECKPOINT_NAME = "table";
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, String> names = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    protected String beanName;
+    public void setBeanName(String name) {
+        this.beanName = name;
+    }
+    public String getBeanName() {
+        return beanName;
+    }
+
+    /**
+     * File to write the table to while running.
+     */
+    protected ConfigPath path = new ConfigPath("queue id table", "${launchId}/logs/queue-ids.txt");
+    public ConfigPath getPath() {
+        return path;
+    }
+    public void setPath(ConfigPath path) {
+        this.path = path;
+    }
+
+    private Writer writer;
+    private boolean running = false;
+    private Checkpoint recoveryCheckpoint;
+
+    /**
+     * @return The id of the queue, assigning the next free id if it has none
+     */
+    public int getId(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        boolean[] assigned = new boolean[1];
+        id = ids.computeIfAbsent(name, n -> {
+            assigned[0] = true;
+            return nextId.getAndIncrement();
+        });
+        if (assigned[0]) {
+            names.put(id, name);
+            append(id, name);
+        }
+        return id;
+    }
+
+    /**
+     * @return The name of the queue with the id, null if none has it
+     */
+    public String getName(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * @return Number of queues that have been assigned an id
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    private synchronized void append(int id, String name) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writeLine(writer, id, name);
+            writer.flush();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to write queue id table, no further ids will be written", e);
+            closeWriter();
+        }
+    }
+
+    private static void writeLine(Writer writer, int id, String name) throws IOException {
+        writer.write(Integer.toString(id));
+        writer.write('\t');
+        writer.write(name);
+        writer.write('\n');
+    }
+
+    /**
+     * Write the whole table, in id order.
+     */
+    public void save(Writer out) throws IOException {
+        int end = nextId.get();
+        for (int id = 0; id < end; id++) {
+            String name = names.get(id);
+            if (name != null) {
+                writeLine(out, id, name);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Add the entries of a table written by {@link #save(Writer)}. Ids for queues not in the table are assigned
+     * after the highest id read.
+     */
+    public void load(Reader in) throws IOException {
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int tab = line.indexOf('\t');
+            if (tab <= 0) {
+                continue;
+            }
+            int id;
+            try {
+                id = Integer.parseInt(line.substring(0, tab));
+            } catch (NumberFormatException e) {
+                logger.warning("Ignoring invalid queue id line: " + line);
+                continue;
+            }
+            String name = line.substring(tab + 1);
+            ids.put(name, id);
+            names.put(id, name);
+            nextId.accumulateAndGet(id + 1, Math::max);
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (recoveryCheckpoint != null) {
+            try (BufferedReader reader = recoveryCheckpoint.loadReader(getBeanName(), CHECKPOINT_NAME)) {
+                load(reader);
+                logger.info("Recovered " + size() + " queue ids from " + recoveryCheckpoint.getName());
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Failed to recover queue ids from " + recoveryCheckpoint.getName(), e);
+            }
+        }
+        File file = getPath() == null ? null : getPath().getFile();
+        if (file != null) {
+            try {
+                if (file.getParentFile() != null) {
+                    Files.createDirectories(file.getParentFile().toPath());
+                }
+                writer = new BufferedWriter(new OutputStreamWriter(
+                        Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8));
+                save(writer);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Failed to open queue id table " + file, e);
+                closeWriter();
+            }
+        }
+        running = true;
+    }
+
+    @Override
+    public synchronized void stop() {
+        closeWriter();
+        running = false;
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to close queue id table", e);
+            }
+            writer = null;
+        }
+    }
+
+    @Override
+    public void startCheckpoint(Checkpoint checkpointInProgress) {
+    }
+
+    @Override
+    public void doCheckpoint(Checkpoint checkpointInProgress) throws IOException {
+        try (BufferedWriter out = checkpointInProgress.saveWriter(getBeanName(), CHECKPOINT_NAME)) {
+            save(out);
+        }
+    }
+
+    @Override
+    public void finishCheckpoint(Checkpoint checkpointInProgress) {
+    }
+
+    @Override
+    public void setRecoveryCheckpoint(Checkpoint recoveryCheckpoint) {
+        this.recoveryCheckpoint = recoveryCheckpoint;
+    }
+}
@@ -0,0 +1,107 @@
+package is.landsbokasafn.crawler.frontier;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the queue key derived from a host (or other core key), so it is only derived once per host rather
+ * than once per URI.
+ * <p>
+ * Keys are canonicalized: equal keys are always the same <code>String</code> instance, so the many URIs held in
+ * the frontier for a queue share a single copy of its name.
+ * <p>
+ * The cache is bounded. When it is full it is simply cleared, on the assumption that hosts being actively crawled
+ * will quickly be cached again.
+ */
+public class QueueKeyCache {
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    /**
+     * Derives a queue key.
+     */
+    public interface KeyFunction {
+        String apply(String coreKey, int limit);
+    }
+
+    private static final class Entry {
+        final int limit;
+        final String key;
+
+        Entry(int limit, String key) {
+            this.limit = limit;
+            this.key = key;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> canonical = new ConcurrentHashMap<>();
+    private final KeyFunction function;
+    private final int maxSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param function Derives the queue key on a miss
+     */
+    public QueueKeyCache(KeyFunction function) {
+        this(function, DEFAULT_MAX_SIZE);
+    }
+
+    public QueueKeyCache(KeyFunction function, int maxSize) {
+        this.function = function;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param coreKey The key to derive from, e.g. a host name
+     * @param limit Parameter of the function, part of the cache key as it can differ between sheets
+     * @return The canonical instance of the derived key
+     */
+    public String get(String coreKey, int limit) {
+        Entry entry = entries.get(coreKey);
+        if (entry != null && entry.limit == limit) {
+            hits.increment();
+            return entry.key;
+        }
+        misses.increment();
+        String key = canonicalize(function.apply(coreKey, limit));
+        if (entries.size() >= maxSize) {
+            entries.clear();
+        }
+        entries.put(coreKey, new Entry(limit, key));
+        return key;
+    }
+
+    /**
+     * @return The canonical instance of the key
+     */
+    public String canonicalize(String key) {
+        String existing = canonical.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if (canonical.size() >= maxSize) {
+            canonical.clear();
+        }
+        existing = canonical.putIfAbsent(key, key);
+        return existing == null ? key : existing;
+    }
+
+    public void clear() {
+        entries.clear();
+        canonical.clear();
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,187 @@
+package is.landsbokasafn.crawler.frontier;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.crawler.frontier.HostnameQueueAssignmentPolicy;
+import org.archive.io.ReadSource;
+import org.archive.net.UURI;
+
+/**
+ * Assigns URIs to queues by registrable domain, that is the public suffix of the host name plus one label, as
+ * given by the Public Suffix List.
+ * <p>
+ * Unlike a fixed number of labels (see {@link HostnameQueueAssignmentPolicyWithLimits}) this gives one queue per
+ * site under both single label (<code>example.is</code>) and multi label (<code>example.co.uk</code>) public
+ * suffixes, so sites are not lumped together under <code>co.uk</code> nor split up by sub-domain under
+ * <code>is</code>.
+ * <p>
+ * E.g. with <code>extraLabels</code> set to <code>0</code> the following assignments are made: <br/>
+ * <code>www.example.is -> example.is</code> <br/>
+ * <code>a.b.example.co.uk -> example.co.uk</code> <br/>
+ * <code>co.uk -> co.uk</code> <br/>
+ * <code>www.example.com#443 -> example.com#443</code> <br/>
+ * IP addresses are used as they are. The port is always preserved.
+ * <p>
+ * The list is read from <code>publicSuffixSource</code>, a copy of
+ * <a href="https://publicsuffix.org/list/public_suffix_list.dat">public_suffix_list.dat</a>, when first needed. If
+ * it is not set, or can not be read, every host is taken to be directly under a top level domain.
+ */
+public class RegistrableDomainQueueAssignmentPolicy extends HostnameQueueAssignmentPolicy {
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = Logger.getLogger(RegistrableDomainQueueAssignmentPolicy.class.getName());
+
+    public static final String EXTRA_LABELS = "extraLabels";
+
+    {
+        setExtraLabels(0);
+    }
+    /**
+     * Number of labels to the left of the registrable domain to include in the queue name. E.g. with
+     * <code>1</code>, <code>a.b.example.co.uk</code> is assigned to <code>b.example.co.uk</code>.
+     */
+    public void setExtraLabels(int extraLabels) {
+        kp.put(EXTRA_LABELS, extraLabels);
+    }
+    public int getExtraLabels() {
+        return (Integer) kp.get(EXTRA_LABELS);
+    }
+
+    /**
+     * The Public Suffix List.
+     */
+    protected ReadSource publicSuffixSource = null;
+    public ReadSource getPublicSuffixSource() {
+        return publicSuffixSource;
+    }
+    public synchronized void setPublicSuffixSource(ReadSource publicSuffixSource) {
+        this.publicSuffixSource = publicSuffixSource;
+        reset();
+    }
+
+    /**
+     * Whether to use the rules in the private domains section of the list, such as <code>blogspot.com</code>.
+     * These are usually served by the same hosts, so for politeness they are best left out.
+     */
+    protected boolean includePrivateDomains = false;
+    public boolean getIncludePrivateDomains() {
+        return includePrivateDomains;
+    }
+    public synchronized void setIncludePrivateDomains(boolean includePrivateDomains) {
+        this.includePrivateDomains = includePrivateDomains;
+        reset();
+    }
+
+    private transient volatile PublicSuffixTrie publicSuffixes;
+    private transient volatile QueueKeyCache queueKeyCache;
+
+    private void reset() {
+        publicSuffixes = null;
+        queueKeyCache = null;
+    }
+
+    @Override
+    protected String getCoreKey(UURI basis) {
+        String hostname = super.getCoreKey(basis);
+        return hostname == null ? null : getQueueKeyCache().get(hostname, getExtraLabels());
+    }
+
+    /**
+     * @return Cache of queue keys by host name, created on first use
+     */
+    protected QueueKeyCache getQueueKeyCache() {
+        QueueKeyCache cache = queueKeyCache;
+        if (cache == null) {
+            synchronized (this) {
+                if (queueKeyCache == null) {
+                    queueKeyCache = new QueueKeyCache(this::getRegistrableDomain);
+                }
+                cache = queueKeyCache;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @return The public suffix rules, read when first needed
+     */
+    public PublicSuffixTrie getPublicSuffixes() {
+        PublicSuffixTrie trie = publicSuffixes;
+        if (trie == null) {
+            synchronized (this) {
+                if (publicSuffixes == null) {
+                    publicSuffixes = readPublicSuffixes();
+                }
+                trie = publicSuffixes;
+            }
+        }
+        return trie;
+    }
+
+    private PublicSuffixTrie readPublicSuffixes() {
+        if (getPublicSuffixSource() == null) {
+            logger.warning("No publicSuffixSource set, assuming all hosts are directly under a top level domain");
+            return new PublicSuffixTrie(Collections.<String>emptyList());
+        }
+        try (Reader reader = getPublicSuffixSource().obtainReader()) {
+            PublicSuffixTrie trie = PublicSuffixTrie.parse(reader, getIncludePrivateDomains());
+            logger.info("Read " + trie.getRuleCount() + " public suffix rules from " + getPublicSuffixSource());
+            return trie;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to read " + getPublicSuffixSource()
+                    + ", assuming all hosts are directly under a top level domain", e);
+            return new PublicSuffixTrie(Collections.<String>emptyList());
+        }
+    }
+
+    /**
+     * @param hostname Host name, possibly followed by <code>#port</code>
+     * @param extraLabels Number of labels beyond the registrable domain to keep
+     */
+    protected String getRegistrableDomain(String hostname, int extraLabels) {
+        int portStart = hostname.indexOf('#');
+        int end = portStart == -1 ? hostname.length() : portStart;
+        while (end > 0 && hostname.charAt(end - 1) == '.') {
+            end--;
+        }
+        if (end == 0 || isIpAddress(hostname, end)) {
+            return hostname;
+        }
+
+        int keep = getPublicSuffixes().publicSuffixLabels(hostname, 0, end) + 1 + Math.max(0, extraLabels);
+        int labels = 0;
+        for (int i = end - 1; i >= 0; i--) {
+            if (hostname.charAt(i) == '.' && ++labels == keep) {
+                if (portStart == -1) {
+                    return hostname.substring(i + 1, end);
+                }
+                return new StringBuilder(end - i - 1 + hostname.length() - portStart)
+                        .append(hostname, i + 1, end)
+                        .append(hostname, portStart, hostname.length())
+                        .toString();
+            }
+        }
+        return hostname;
+    }
+
+    /**
+     * @return true for IPv6 addresses and for IPv4 addresses, whose last label is numeric unlike any top level
+     *         domain
+     */
+    private static boolean isIpAddress(String hostname, int end) {
+        if (hostname.charAt(0) == '[' || hostname.indexOf(':') != -1) {
+            return true;
+        }
+        for (int i = end - 1; i >= 0 && hostname.charAt(i) != '.'; i--) {
+            char c = hostname.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
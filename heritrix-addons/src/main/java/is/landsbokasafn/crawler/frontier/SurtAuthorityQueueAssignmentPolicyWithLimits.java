@@ -9,7 +9,7 @@ import org.archive.net.UURI;
  * This variation allows the operator (per sheet) to specify the maximum number of domains and
  * sub-domains to use for the queue name.
  * 
- * @deprecated in favor of {@link SurtAuthorityQueueAssignmentPolicyWithLimits}
+ * @deprecated in favor of {@link RegistrableDomainQueueAssignmentPolicy}
  *
  */
 @Deprecated
@@ -46,31 +46,52 @@ public class SurtAuthorityQueueAssignmentPolicyWithLimits extends SurtAuthorityQ
     @Override
     protected String getCoreKey(UURI basis) {
     	int limit = (Integer)kp.get(LIMIT);
-    	return getLimitedSurtAuthority(super.getCoreKey(basis), limit);
+    	String surt = super.getCoreKey(basis);
+    	return surt == null ? null : getQueueKeyCache().get(surt, limit);
+    }
+
+    private transient volatile QueueKeyCache queueKeyCache;
+
+    /**
+     * @return Cache of queue keys by SURT authority, created on first use
+     */
+    protected QueueKeyCache getQueueKeyCache() {
+    	QueueKeyCache cache = queueKeyCache;
+    	if (cache == null) {
+    		synchronized (this) {
+    			if (queueKeyCache == null) {
+    				queueKeyCache = new QueueKeyCache(this::getLimitedSurtAuthority);
+    			}
+    			cache = queueKeyCache;
+    		}
+    	}
+    	return cache;
     }
 
     protected String getLimitedSurtAuthority(String surt, int limit){
     	if (limit <= 0) {
     		return surt;
     	}
-    	String domainPart = surt;
-    	String portPart = "";
     	int indexOfHash = surt.indexOf('#');
-    	if (indexOfHash>-1) {
-    		domainPart = surt.substring(0,indexOfHash);
-    		portPart = surt.substring(indexOfHash);
+    	int domainEnd = indexOfHash > -1 ? indexOfHash : surt.length();
+    	// Trailing empty segments are ignored, as String.split would
+    	int end = domainEnd;
+    	while (end > 0 && surt.charAt(end - 1) == ',') {
+    		end--;
+    	}
+    	int segments = 0;
+    	for (int i = 0; i < end; i++) {
+    		if (surt.charAt(i) == ',' && ++segments == limit) {
+    			// More domains are present than allowed.
+    			if (indexOfHash == -1) {
+    				return surt.substring(0, i + 1);
+    			}
+    			return new StringBuilder(i + 1 + surt.length() - indexOfHash)
+    					.append(surt, 0, i + 1)
+    					.append(surt, indexOfHash, surt.length())
+    					.toString();
+    		}
     	}
-		String[] segments = domainPart.split(",");
-		if (limit>=segments.length) {
-			return surt;
-		}
-		// More domains are present than allowed.
-		StringBuffer limitedSurt = new StringBuffer();
-		for (int i=0 ; i<limit ; i++){
-			limitedSurt.append(segments[i]);
-			limitedSurt.append(",");
-		}
-		limitedSurt.append(portPart);
-		return limitedSurt.toString();
+    	return surt;
     }
 }
@@ -2,6 +2,9 @@ package is.landsbokasafn.crawler.prefetch;
 
 import org.archive.crawler.prefetch.FrontierPreparer;
 import org.archive.modules.CrawlURI;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import is.landsbokasafn.crawler.frontier.QueueIdTable;
 
 /**
  * Lbs custom frontier preparer adds the name of the frontier queue (class key) that the CrawlURI is assigned to
@@ -10,16 +13,48 @@ import org.archive.modules.CrawlURI;
  * 
  * This is merely to facilitate crawl-time analysis of the crawl log by making it easy to associate lines in the log
  * with specific queues in the frontier report.
+ * 
+ * If a {@link QueueIdTable} bean is configured, only the queue's id is added, under <code>queueId</code>, rather
+ * than its name. The name is then looked up in the table's file. This saves repeating the name in every URI held
+ * in the frontier and every line of the crawl log.
  *
  */
 public class LbsFrontierPreparer extends FrontierPreparer {
 	public static final String LBS_QUEUE_NAME_EXTRA_KEY = "queueName";
+	public static final String LBS_QUEUE_ID_EXTRA_KEY = "queueId";
+
+	protected QueueIdTable queueIdTable;
+	public QueueIdTable getQueueIdTable() {
+		return queueIdTable;
+	}
+	@Autowired(required=false)
+	public void setQueueIdTable(QueueIdTable queueIdTable) {
+		this.queueIdTable = queueIdTable;
+	}
 
 	@Override
 	public void prepare(CrawlURI curi) {
 		super.prepare(curi);
-		curi.getExtraInfo().putOnce(LBS_QUEUE_NAME_EXTRA_KEY, curi.getClassKey());
+		addQueue(curi, getQueueIdTable());
+	}
+
+	/**
+	 * @return True if the queue id or name has been added to the URI's extra info
+	 */
+	public static boolean hasQueue(CrawlURI curi) {
+		return curi.getExtraInfo().has(LBS_QUEUE_ID_EXTRA_KEY) || curi.getExtraInfo().has(LBS_QUEUE_NAME_EXTRA_KEY);
 	}
 
+	/**
+	 * Add the queue id to the URI's extra info, or the queue name if there is no table.
+	 */
+	public static void addQueue(CrawlURI curi, QueueIdTable table) {
+		String classKey = curi.getClassKey();
+		if (table == null || classKey == null) {
+			curi.getExtraInfo().putOnce(LBS_QUEUE_NAME_EXTRA_KEY, classKey);
+		} else {
+			curi.getExtraInfo().putOnce(LBS_QUEUE_ID_EXTRA_KEY, table.getId(classKey));
+		}
+	}
 
 }
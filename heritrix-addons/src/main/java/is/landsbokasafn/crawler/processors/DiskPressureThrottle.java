@@ -0,0 +1,58 @@
+package is.landsbokasafn.crawler.processors;
+
+/**
+ * Decides how hard to throttle a crawl as free disk space runs low.
+ * <p>
+ * Above the soft threshold the crawl runs at full speed. Between the soft and the hard threshold the number of
+ * threads is reduced in proportion to how far usable space is into that band, so writing slows down as the disk
+ * fills and the crawl keeps going for as long as possible. Below the hard threshold the crawl should be paused.
+ * A paused crawl should only be resumed once usable space is back above the hard threshold by the resume margin,
+ * so that it does not pause and resume over and over while space hovers around the threshold.
+ */
+public class DiskPressureThrottle {
+    private final long softThresholdBytes;
+    private final long hardThresholdBytes;
+    private final long resumeMarginBytes;
+
+    /**
+     * @param softThresholdBytes Usable space below which threads are reduced. If not above the hard threshold,
+     *            threads are never reduced.
+     * @param hardThresholdBytes Usable space below which the crawl is paused
+     * @param resumeMarginBytes Usable space above the hard threshold needed to resume
+     */
+    public DiskPressureThrottle(long softThresholdBytes, long hardThresholdBytes, long resumeMarginBytes) {
+        this.softThresholdBytes = softThresholdBytes;
+        this.hardThresholdBytes = hardThresholdBytes;
+        this.resumeMarginBytes = Math.max(0, resumeMarginBytes);
+    }
+
+    /**
+     * @param usableBytes Usable space on the fullest mount
+     * @param maxThreads Threads when not throttled
+     * @return Threads to crawl with, at least 1
+     */
+    public int getThreads(long usableBytes, int maxThreads) {
+        if (usableBytes >= softThresholdBytes || softThresholdBytes <= hardThresholdBytes) {
+            return maxThreads;
+        }
+        if (usableBytes <= hardThresholdBytes) {
+            return Math.min(1, maxThreads);
+        }
+        double fraction = (double) (usableBytes - hardThresholdBytes) / (softThresholdBytes - hardThresholdBytes);
+        return Math.max(1, (int) Math.ceil(maxThreads * fraction));
+    }
+
+    /**
+     * @return True if the crawl should be paused
+     */
+    public boolean shouldPause(long usableBytes) {
+        return usableBytes < hardThresholdBytes;
+    }
+
+    /**
+     * @return True if a crawl paused for lack of space may be resumed
+     */
+    public boolean shouldResume(long usableBytes) {
+        return usableBytes >= hardThresholdBytes + resumeMarginBytes;
+    }
+}
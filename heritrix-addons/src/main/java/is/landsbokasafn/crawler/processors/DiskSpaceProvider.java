@@ -0,0 +1,20 @@
+package is.landsbokasafn.crawler.processors;
+
+import java.io.File;
+
+/**
+ * Source of the usable space on a mount. Lets the disk space checks be tested without filling up a disk.
+ */
+public interface DiskSpaceProvider {
+
+    /**
+     * Usable space as reported by {@link File#getUsableSpace()}.
+     */
+    DiskSpaceProvider FILE_SYSTEM = mount -> new File(mount).getUsableSpace();
+
+    /**
+     * @param mount Path of a directory on the mount
+     * @return Usable space on the mount in bytes, 0 if the path does not exist
+     */
+    long getUsableSpace(String mount);
+}
@@ -0,0 +1,20 @@
+package is.landsbokasafn.crawler.processors;
+
+import java.util.Map;
+import java.util.Set;
+
+import is.landsbokasafn.crawler.processors.MountUsageEstimator.MountStatus;
+
+/**
+ * Source of the monitored mounts that no longer get new files, such as those a
+ * {@link is.landsbokasafn.crawler.writer.StripingWARCWriterChainProcessor} has stopped writing to. The
+ * {@link LowDiskPauseProcessor} does not slow the crawl down for these mounts.
+ */
+public interface DrainedMountProvider {
+
+    /**
+     * @param status Latest status of each monitored mount
+     * @return Those of the monitored mounts, as keys of <code>status</code>, that get no new files
+     */
+    Set<String> getDrainedMounts(Map<String, MountStatus> status);
+}
@@ -1,27 +1,38 @@
 package is.landsbokasafn.crawler.processors;
 
-import static is.landsbokasafn.crawler.prefetch.LbsFrontierPreparer.LBS_QUEUE_NAME_EXTRA_KEY;
-
 import org.archive.modules.CrawlURI;
 import org.archive.modules.Processor;
+import org.springframework.beans.factory.annotation.Autowired;
 
+import is.landsbokasafn.crawler.frontier.QueueIdTable;
 import is.landsbokasafn.crawler.prefetch.LbsFrontierPreparer;
 
 /**
  * The queue name extra info gets wiped out on retries. Re-add it if missing.
+ * <p>
+ * Adds the queue id instead if a {@link QueueIdTable} is configured, as {@link LbsFrontierPreparer} does.
  * 
  * @see LbsFrontierPreparer
  */
 public class LbsQueueNameLoggerProcessor extends Processor {
 
+	protected QueueIdTable queueIdTable;
+	public QueueIdTable getQueueIdTable() {
+		return queueIdTable;
+	}
+	@Autowired(required=false)
+	public void setQueueIdTable(QueueIdTable queueIdTable) {
+		this.queueIdTable = queueIdTable;
+	}
+
 	@Override
 	protected boolean shouldProcess(CrawlURI curi) {
-		return !curi.getExtraInfo().has(LBS_QUEUE_NAME_EXTRA_KEY);
+		return !LbsFrontierPreparer.hasQueue(curi);
 	}
 
 	@Override
 	protected void innerProcess(CrawlURI curi) throws InterruptedException {
-		curi.getExtraInfo().putOnce(LBS_QUEUE_NAME_EXTRA_KEY, curi.getClassKey());
+		LbsFrontierPreparer.addQueue(curi, getQueueIdTable());
 
 	}
 
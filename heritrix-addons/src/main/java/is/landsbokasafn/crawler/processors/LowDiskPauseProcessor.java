@@ -1,14 +1,21 @@
 package is.landsbokasafn.crawler.processors;
 
-import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.archive.crawler.framework.CrawlController;
+import org.archive.crawler.framework.CrawlController.State;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.ProcessResult;
 import org.archive.modules.Processor;
@@ -16,8 +23,29 @@ import org.archive.util.ArchiveUtils;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import is.landsbokasafn.crawler.processors.MountUsageEstimator.MountStatus;
+
+/**
+ * Pauses the crawl when usable space on any of the monitored mounts falls below a threshold.
+ * <p>
+ * Space is sampled every <code>sampleIntervalSeconds</code> on a background thread, which also estimates how
+ * quickly each mount is filling up (see {@link MountUsageEstimator}). ToeThreads only add the size of each URI's
+ * content to a counter. The crawl can be paused, or a warning logged, when a mount is predicted to reach the
+ * threshold within a given time, rather than waiting until it has.
+ * <p>
+ * With <code>pressureResponse</code> enabled the crawl is slowed down before it is paused, and resumed once space
+ * is freed, see {@link DiskPressureThrottle}. Below <code>softThresholdKb</code> the number of ToeThreads is
+ * reduced in proportion to how close the fullest mount is to the pause threshold. Below the pause threshold the
+ * crawl is paused, and once usable space is <code>resumeMarginKb</code> above it again, the crawl is resumed and
+ * the number of threads restored. Only pauses made by this processor are resumed.
+ * <p>
+ * Mounts that get no new files, as reported by the <code>drainedMountProvider</code>, are left out when deciding
+ * how many threads to run and when predicting when the threshold is reached, as their rate only reflects files
+ * written before they were drained. The crawl is still paused if one of them falls below the pause threshold.
+ * <p>
+ * The background thread runs while the processor is running, which requires it to be a top level bean.
+ */
 public class LowDiskPauseProcessor extends Processor implements InitializingBean {
-    Map<String, Long> lastValues = new HashMap<>();
     
     /**
      * Logger.
@@ -62,7 +90,10 @@ public class LowDiskPauseProcessor extends Processor implements InitializingBean
     /**
      * Available space via 'df' is rechecked after every increment of this much
      * content (uncompressed) is observed.
+     * 
+     * @deprecated Ignored, space is sampled every <code>sampleIntervalSeconds</code>
      */
+    @Deprecated
     long recheckThresholdKb = 200*1024L; // 200MB 
     public long getRecheckThresholdKb() {
         return this.recheckThresholdKb;
@@ -71,13 +102,167 @@ public class LowDiskPauseProcessor extends Processor implements InitializingBean
         this.recheckThresholdKb = recheckThresholdKb;
     }
     
-    protected int contentSinceCheck = 0;
+    /**
+     * Seconds between samples of usable space.
+     */
+    int sampleIntervalSeconds = 10;
+    public int getSampleIntervalSeconds() {
+        return this.sampleIntervalSeconds;
+    }
+    public void setSampleIntervalSeconds(int sampleIntervalSeconds) {
+        this.sampleIntervalSeconds = sampleIntervalSeconds;
+    }
+
+    /**
+     * Seconds over which the rate at which each mount is filling up is averaged.
+     */
+    int rateWindowSeconds = 300;
+    public int getRateWindowSeconds() {
+        return this.rateWindowSeconds;
+    }
+    public void setRateWindowSeconds(int rateWindowSeconds) {
+        this.rateWindowSeconds = rateWindowSeconds;
+    }
+
+    /**
+     * Pause the crawl when a mount is predicted to fall below the pause threshold within this many seconds at
+     * its current rate. 0 only pauses once it has.
+     */
+    long pauseAheadSeconds = 0;
+    public long getPauseAheadSeconds() {
+        return this.pauseAheadSeconds;
+    }
+    public void setPauseAheadSeconds(long pauseAheadSeconds) {
+        this.pauseAheadSeconds = pauseAheadSeconds;
+    }
+
+    /**
+     * Log a warning when a mount is predicted to fall below the pause threshold within this many seconds at its
+     * current rate. 0 disables the warning.
+     */
+    long warnAheadSeconds = 3600;
+    public long getWarnAheadSeconds() {
+        return this.warnAheadSeconds;
+    }
+    public void setWarnAheadSeconds(long warnAheadSeconds) {
+        this.warnAheadSeconds = warnAheadSeconds;
+    }
+
+    /**
+     * Slow the crawl down as space runs low, and resume it automatically once space is freed, rather than only
+     * pausing. <code>pauseAheadSeconds</code> is not used in this mode.
+     */
+    boolean pressureResponse = false;
+    public boolean getPressureResponse() {
+        return this.pressureResponse;
+    }
+    public void setPressureResponse(boolean pressureResponse) {
+        this.pressureResponse = pressureResponse;
+    }
+
+    /**
+     * When <code>pressureResponse</code> is enabled and available space on any monitored mount falls below this
+     * threshold, the number of ToeThreads is reduced.
+     */
+    long softThresholdKb = 10*1024*1024L; // 10GB
+    public long getSoftThresholdKb() {
+        return this.softThresholdKb;
+    }
+    public void setSoftThresholdKb(long softThresholdKb) {
+        this.softThresholdKb = softThresholdKb;
+    }
+
+    /**
+     * When <code>pressureResponse</code> is enabled, a crawl paused for low disk space is resumed once available
+     * space on all monitored mounts is this much above the pause threshold.
+     */
+    long resumeMarginKb = 1024*1024L; // 1GB
+    public long getResumeMarginKb() {
+        return this.resumeMarginKb;
+    }
+    public void setResumeMarginKb(long resumeMarginKb) {
+        this.resumeMarginKb = resumeMarginKb;
+    }
+
+    /**
+     * Where usable space is read from.
+     */
+    DiskSpaceProvider diskSpaceProvider = DiskSpaceProvider.FILE_SYSTEM;
+    public DiskSpaceProvider getDiskSpaceProvider() {
+        return this.diskSpaceProvider;
+    }
+    public void setDiskSpaceProvider(DiskSpaceProvider diskSpaceProvider) {
+        this.diskSpaceProvider = diskSpaceProvider;
+    }
+
+    /**
+     * Which monitored mounts get no new files. A
+     * {@link is.landsbokasafn.crawler.writer.StripingWARCWriterChainProcessor} wired to this processor sets itself.
+     */
+    protected DrainedMountProvider drainedMountProvider = null;
+    public DrainedMountProvider getDrainedMountProvider() {
+        return this.drainedMountProvider;
+    }
+    public void setDrainedMountProvider(DrainedMountProvider drainedMountProvider) {
+        this.drainedMountProvider = drainedMountProvider;
+    }
+
+    /** Content observed since the processor was created */
+    protected final LongAdder contentBytes = new LongAdder();
+
+    /** Latest status of each monitored mount, replaced as a whole by each sample */
+    protected volatile Map<String, MountStatus> mountStatus = Collections.emptyMap();
+
+    /**
+     * @return Status of each monitored mount as of the latest sample
+     */
+    public Map<String, MountStatus> getMountStatus() {
+        return mountStatus;
+    }
+
+    /** Only used by the sampling thread, under the lock of this */
+    private final Map<String, MountUsageEstimator> estimators = new HashMap<>();
+    private final List<String> warned = new ArrayList<>();
+    /** True while the crawl is paused, or waiting to be resumed, because of low space */
+    private boolean pausedForSpace = false;
+    /** Mounts that got no new files as of the latest sample */
+    private volatile Set<String> drainedMounts = Collections.emptySet();
+    /** True while ToeThreads are reduced */
+    private boolean throttling = false;
+    /** ToeThreads before they were reduced */
+    private int unthrottledThreads;
+
+    private transient ScheduledExecutorService sampler = null;
     
 	@Override
 	public void afterPropertiesSet() throws Exception {
 		// Get first reading immediately
 		checkAvailableSpace();
 	}
+
+    @Override
+    public synchronized void start() {
+        if (isRunning()) {
+            return;
+        }
+        super.start();
+        int interval = Math.max(1, getSampleIntervalSeconds());
+        sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "LowDiskPauseProcessor-sampler");
+            t.setDaemon(true);
+            return t;
+        });
+        sampler.scheduleWithFixedDelay(this::sample, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+            sampler = null;
+        }
+        super.stop();
+    }
     
     @Override
     protected boolean shouldProcess(CrawlURI curi) {
@@ -90,51 +275,198 @@ public class LowDiskPauseProcessor extends Processor implements InitializingBean
     }
     
     /**
-     * Notes a CrawlURI's content size in its running tally. If the 
-     * recheck increment of content has passed through since the last
-     * available-space check, checks available space and pauses the 
-     * crawl if any monitored mounts are below the configured threshold. 
+     * Notes a CrawlURI's content size in its running tally. Available space
+     * is checked on a background thread.
      * 
      * @param curi CrawlURI to process.
      */
     @Override
     protected ProcessResult innerProcessResult(CrawlURI curi) {
-        synchronized (this) {
-            contentSinceCheck += curi.getContentSize();
-            if (contentSinceCheck/1024 > getRecheckThresholdKb()) {
-                ProcessResult r = checkAvailableSpace();
-                contentSinceCheck = 0;
-                return r;
-            } 
+        contentBytes.add(curi.getContentSize());
+        return ProcessResult.PROCEED;
+    }
 
-            return ProcessResult.PROCEED;
+    private void sample() {
+        try {
+            checkAvailableSpace();
+        } catch (Exception e) {
+            // Must not propagate, that would cancel further samples
+            logger.log(Level.WARNING, "Failed to check available space", e);
         }
     }
 
-
     /**
      * Probe via File.getUsableSpace to see if monitored mounts have fallen
-     * below the pause available threshold. If so, request a 
-     * crawl pause. 
+     * below the pause available threshold, or are predicted to within
+     * pauseAheadSeconds. If so, request a crawl pause. 
      */
-    private ProcessResult checkAvailableSpace() {
-        List<String> monitoredMounts = getMonitorMounts();
-        for (String folderPath : monitoredMounts) {
-        	File folder = new File(folderPath);
-        
-            long availBytes = folder.getUsableSpace();
-            lastValues.put(folderPath, availBytes);
-            long thresholdKilobytes = getPauseThresholdKb();
-            if (availBytes/1024 < thresholdKilobytes ) {
-                logger.log(Level.SEVERE, "Low Disk Pause - " + 
-                		ArchiveUtils.formatBytesForDisplay(availBytes) + 
-                		" available on " + folderPath + " (below threshold " + 
-                        ArchiveUtils.formatBytesForDisplay(thresholdKilobytes*1024) + ")");
-                controller.requestCrawlPause();
-                return ProcessResult.PROCEED;
+    protected synchronized void checkAvailableSpace() {
+        long thresholdBytes = getPauseThresholdKb() * 1024;
+        long now = System.currentTimeMillis();
+        Map<String, MountStatus> status = new LinkedHashMap<>();
+        for (String folderPath : getMonitorMounts()) {
+            MountUsageEstimator estimator = estimators.get(folderPath);
+            if (estimator == null) {
+                estimator = new MountUsageEstimator(folderPath, getRateWindowSeconds());
+                estimators.put(folderPath, estimator);
             }
+            long usable = getDiskSpaceProvider().getUsableSpace(folderPath);
+            status.put(folderPath, estimator.sample(usable, thresholdBytes, now));
+        }
+        mountStatus = Collections.unmodifiableMap(status);
+        Set<String> drained = drainedMountProvider == null 
+                ? Collections.<String>emptySet() : drainedMountProvider.getDrainedMounts(status);
+        drainedMounts = drained;
+
+        if (getPressureResponse()) {
+            respondToPressure(status, drained);
+            warnAhead(status, drained, thresholdBytes);
+            return;
+        }
+
+        for (MountStatus mount : status.values()) {
+            long eta = mount.getSecondsToThreshold();
+            if (eta == 0) {
+                pause("Low Disk Pause - " + 
+                        ArchiveUtils.formatBytesForDisplay(mount.getUsableBytes()) + 
+                        " available on " + mount.getMount() + " (below threshold " + 
+                        ArchiveUtils.formatBytesForDisplay(thresholdBytes) + ")");
+                return;
+            }
+            if (eta > 0 && eta < getPauseAheadSeconds() && !drained.contains(mount.getMount())) {
+                pause("Low Disk Pause - " + mount.getMount() + " predicted to fall below threshold " +
+                        ArchiveUtils.formatBytesForDisplay(thresholdBytes) + " in " + formatEta(eta) + " (" +
+                        ArchiveUtils.formatBytesForDisplay(mount.getUsableBytes()) + " available)");
+                return;
+            }
+        }
+        warnAhead(status, drained, thresholdBytes);
+    }
+
+    private void warnAhead(Map<String, MountStatus> status, Set<String> drained, long thresholdBytes) {
+        for (MountStatus mount : status.values()) {
+            long eta = mount.getSecondsToThreshold();
+            boolean warn = eta > 0 && eta < getWarnAheadSeconds() && !drained.contains(mount.getMount());
+            if (warn && !warned.contains(mount.getMount())) {
+                warned.add(mount.getMount());
+                logger.warning("Low Disk - " + mount.getMount() + " predicted to fall below threshold " +
+                        ArchiveUtils.formatBytesForDisplay(thresholdBytes) + " in " + formatEta(eta) + " (" +
+                        ArchiveUtils.formatBytesForDisplay(mount.getUsableBytes()) + " available)");
+            } else if (!warn) {
+                warned.remove(mount.getMount());
+            }
+        }
+    }
+
+    /**
+     * Pause or resume the crawl according to the usable space on the fullest mount, and throttle it according to
+     * the fullest mount that still gets new files.
+     */
+    private void respondToPressure(Map<String, MountStatus> status, Set<String> drained) {
+        if (status.isEmpty()) {
+            return;
+        }
+        MountStatus fullest = null;
+        MountStatus fullestWritten = null;
+        for (MountStatus mount : status.values()) {
+            if (fullest == null || mount.getUsableBytes() < fullest.getUsableBytes()) {
+                fullest = mount;
+            }
+            if (!drained.contains(mount.getMount()) 
+                    && (fullestWritten == null || mount.getUsableBytes() < fullestWritten.getUsableBytes())) {
+                fullestWritten = mount;
+            }
+        }
+        long usable = fullest.getUsableBytes();
+        DiskPressureThrottle throttle = new DiskPressureThrottle(getSoftThresholdKb() * 1024,
+                getPauseThresholdKb() * 1024, getResumeMarginKb() * 1024);
+
+        if (throttle.shouldPause(usable)) {
+            if (!isCrawlPaused()) {
+                // Not if paused by the operator, that pause is theirs to end
+                pausedForSpace = true;
+            }
+            pause("Low Disk Pause - " + 
+                    ArchiveUtils.formatBytesForDisplay(usable) + 
+                    " available on " + fullest.getMount() + " (below threshold " + 
+                    ArchiveUtils.formatBytesForDisplay(getPauseThresholdKb() * 1024) + ")");
+            return;
+        }
+        if (pausedForSpace) {
+            if (!throttle.shouldResume(usable)) {
+                return;
+            }
+            pausedForSpace = false;
+            if (isCrawlPaused()) {
+                logger.info("Low Disk Resume - " + ArchiveUtils.formatBytesForDisplay(usable) + 
+                        " available on " + fullest.getMount());
+                requestCrawlResume();
+            }
+        }
+
+        if (fullestWritten == null) {
+            // Everything drained, the writer still has to put its files somewhere
+            fullestWritten = fullest;
+        }
+        long usableWritten = fullestWritten.getUsableBytes();
+        if (!throttling) {
+            unthrottledThreads = getMaxToeThreads();
+        }
+        int threads = throttle.getThreads(usableWritten, unthrottledThreads);
+        if (threads < unthrottledThreads) {
+            throttling = true;
+            if (threads != getMaxToeThreads()) {
+                logger.warning("Low Disk - " + ArchiveUtils.formatBytesForDisplay(usableWritten) + " available on " +
+                        fullestWritten.getMount() + ", reducing ToeThreads to " + threads + " of " + 
+                        unthrottledThreads);
+                setMaxToeThreads(threads);
+            }
+        } else if (throttling) {
+            throttling = false;
+            logger.info("Disk space recovered, restoring ToeThreads to " + unthrottledThreads);
+            setMaxToeThreads(unthrottledThreads);
+        }
+    }
+
+    private void pause(String message) {
+        if (!isCrawlPaused()) {
+            logger.log(Level.SEVERE, message);
+            requestCrawlPause();
+        }
+    }
+
+    protected boolean isCrawlPaused() {
+        if (controller == null) {
+            return false;
+        }
+        State state = controller.getState();
+        return state == State.PAUSED || state == State.PAUSING;
+    }
+
+    protected void requestCrawlPause() {
+        if (controller != null) {
+            controller.requestCrawlPause();
         }
-        return ProcessResult.PROCEED;
+    }
+
+    protected void requestCrawlResume() {
+        if (controller != null) {
+            controller.requestCrawlResume();
+        }
+    }
+
+    protected int getMaxToeThreads() {
+        return controller == null ? 0 : controller.getMaxToeThreads();
+    }
+
+    protected void setMaxToeThreads(int threads) {
+        if (controller != null) {
+            controller.setMaxToeThreads(threads);
+        }
+    }
+
+    private static String formatEta(long seconds) {
+        return ArchiveUtils.formatMillisecondsToConventional(seconds * 1000);
     }
     
     
@@ -145,15 +477,43 @@ public class LowDiskPauseProcessor extends Processor implements InitializingBean
         report.append(super.report());
         report.append("  Pause threshold: " + getPauseThresholdKb() + " KiB ("); 
         report.append(ArchiveUtils.formatBytesForDisplay(getPauseThresholdKb()*1024) +")\n");
-        report.append("  Recheck intervals: " + getRecheckThresholdKb() + " KiB (");
-        report.append(ArchiveUtils.formatBytesForDisplay(getRecheckThresholdKb()*1024) +")\n");
+        if (getPressureResponse()) {
+            report.append("  Soft threshold: " + getSoftThresholdKb() + " KiB (");
+            report.append(ArchiveUtils.formatBytesForDisplay(getSoftThresholdKb()*1024) +")\n");
+            report.append("  Resume margin: " + getResumeMarginKb() + " KiB (");
+            report.append(ArchiveUtils.formatBytesForDisplay(getResumeMarginKb()*1024) +")\n");
+            if (pausedForSpace) {
+                report.append("  Paused for low disk space\n");
+            } else if (throttling) {
+                report.append("  ToeThreads reduced from " + unthrottledThreads + " to " + getMaxToeThreads() + "\n");
+            }
+        }
+        report.append("  Sample interval: " + getSampleIntervalSeconds() + " seconds\n");
+        report.append("  Content observed: " + ArchiveUtils.formatBytesForDisplay(contentBytes.sum()) + "\n");
         report.append("  Last seen usable space:\n");
+        Map<String, MountStatus> status = mountStatus;
+        Set<String> drained = drainedMounts;
         for (String folderPath : monitoredMounts) {
-        	report.append("    " + folderPath + " > " + lastValues.get(folderPath) + " KiB (");
-            report.append(ArchiveUtils.formatBytesForDisplay(lastValues.get(folderPath)) +")\n");
+            MountStatus mount = status.get(folderPath);
+            if (mount == null) {
+                report.append("    " + folderPath + " > not sampled yet\n");
+                continue;
+            }
+            report.append("    " + folderPath + " > " + mount.getUsableBytes()/1024 + " KiB (");
+            report.append(ArchiveUtils.formatBytesForDisplay(mount.getUsableBytes()) + "), using ");
+            report.append(ArchiveUtils.formatBytesForDisplay((long) mount.getBytesPerSecond()) + "/s, ");
+            if (drained.contains(folderPath)) {
+                report.append("no new files, ");
+            }
+            long eta = mount.getSecondsToThreshold();
+            if (eta == 0) {
+                report.append("below threshold\n");
+            } else if (eta < 0) {
+                report.append("threshold not in sight\n");
+            } else {
+                report.append("threshold in " + formatEta(eta) + "\n");
+            }
         }
-        report.append("  Will check again after " + (recheckThresholdKb-(contentSinceCheck/1024)) + " KiB (");
-        report.append(ArchiveUtils.formatBytesForDisplay((recheckThresholdKb*1024)-contentSinceCheck) +")\n");
 		return report.toString();
 	}
 	
@@ -0,0 +1,113 @@
+package is.landsbokasafn.crawler.processors;
+
+/**
+ * Estimates how quickly a mount is filling up from successive readings of its usable space, and from that how
+ * long until it falls below a threshold.
+ * <p>
+ * The write rate is an exponentially weighted moving average of the drop in usable space between readings, so
+ * bursts are smoothed out over roughly <code>rateWindowSeconds</code>. Readings where usable space went up, as
+ * when files are moved off the mount, leave the rate as it was, since writing carries on regardless.
+ * <p>
+ * Not thread safe, readings are expected to come from a single sampling thread.
+ */
+public class MountUsageEstimator {
+
+    /**
+     * The state of a mount as of a reading.
+     */
+    public static final class MountStatus {
+        private final String mount;
+        private final long usableBytes;
+        private final double bytesPerSecond;
+        private final long secondsToThreshold;
+        private final long sampledAt;
+
+        MountStatus(String mount, long usableBytes, double bytesPerSecond, long secondsToThreshold, long sampledAt) {
+            this.mount = mount;
+            this.usableBytes = usableBytes;
+            this.bytesPerSecond = bytesPerSecond;
+            this.secondsToThreshold = secondsToThreshold;
+            this.sampledAt = sampledAt;
+        }
+
+        public String getMount() {
+            return mount;
+        }
+
+        public long getUsableBytes() {
+            return usableBytes;
+        }
+
+        /**
+         * @return Estimated rate at which usable space is being used up, 0 until there have been two readings
+         */
+        public double getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        /**
+         * @return Estimated seconds until usable space falls below the threshold, 0 if it already has, -1 if it is
+         *         not falling
+         */
+        public long getSecondsToThreshold() {
+            return secondsToThreshold;
+        }
+
+        public long getSampledAt() {
+            return sampledAt;
+        }
+    }
+
+    private final String mount;
+    private final double rateWindowSeconds;
+
+    private long lastUsable = -1;
+    private long lastTime;
+    private double rate = 0;
+    private boolean hasRate = false;
+
+    /**
+     * @param mount Name of the mount, for reporting
+     * @param rateWindowSeconds Time over which the write rate is averaged
+     */
+    public MountUsageEstimator(String mount, double rateWindowSeconds) {
+        this.mount = mount;
+        this.rateWindowSeconds = Math.max(1, rateWindowSeconds);
+    }
+
+    /**
+     * @param usableBytes Usable space on the mount
+     * @param thresholdBytes Threshold to estimate the time to
+     * @param nowMillis Time of the reading
+     */
+    public MountStatus sample(long usableBytes, long thresholdBytes, long nowMillis) {
+        if (lastUsable >= 0 && nowMillis > lastTime) {
+            double seconds = (nowMillis - lastTime) / 1000.0;
+            if (usableBytes <= lastUsable) {
+                double observed = (lastUsable - usableBytes) / seconds;
+                if (hasRate) {
+                    double alpha = 1 - Math.exp(-seconds / rateWindowSeconds);
+                    rate += alpha * (observed - rate);
+                } else {
+                    rate = observed;
+                    hasRate = true;
+                }
+            }
+        }
+        if (lastUsable < 0 || nowMillis > lastTime) {
+            lastUsable = usableBytes;
+            lastTime = nowMillis;
+        }
+        return new MountStatus(mount, usableBytes, rate, secondsToThreshold(usableBytes, thresholdBytes), nowMillis);
+    }
+
+    private long secondsToThreshold(long usableBytes, long thresholdBytes) {
+        if (usableBytes < thresholdBytes) {
+            return 0;
+        }
+        if (rate <= 0) {
+            return -1;
+        }
+        return (long) ((usableBytes - thresholdBytes) / rate);
+    }
+}
@@ -0,0 +1,38 @@
+package is.landsbokasafn.crawler.reports;
+
+import is.landsbokasafn.crawler.deciderules.DecideRuleSequence;
+
+import java.io.PrintWriter;
+
+import org.archive.crawler.reporting.Report;
+import org.archive.crawler.reporting.StatisticsTracker;
+
+public class DecideRuleSequenceReport extends Report {
+
+	DecideRuleSequence decideRuleSequence = null;
+	public DecideRuleSequence getDecideRuleSequence() {
+		return decideRuleSequence;
+	}
+	public void setDecideRuleSequence(DecideRuleSequence decideRuleSequence) {
+		this.decideRuleSequence = decideRuleSequence;
+	}
+
+	@Override
+	public void write(PrintWriter writer, StatisticsTracker stats) {
+		writer.write("[#] [rule] [evaluations] [skipped] [accepts] [rejects] [nones] [decisive] [sampled] "
+				+ "[mean-nanos] [p50-nanos] [p99-nanos]\n");
+		writer.write(decideRuleSequence.getReport());
+		if (decideRuleSequence.getLatencySampleRate() > 0) {
+			writer.write("\nLatency sampled for 1 in " + decideRuleSequence.getLatencySampleRate() + " URIs. "
+					+ "Percentiles are upper bounds of power of two buckets.\n");
+		}
+	}
+
+	@Override
+	public String getFilename() {
+		String name = decideRuleSequence.getBeanName() == null ? "decideRuleSequence" 
+				: decideRuleSequence.getBeanName();
+		return name + "-report.txt";
+	}
+
+}
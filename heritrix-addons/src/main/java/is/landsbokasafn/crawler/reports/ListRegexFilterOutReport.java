@@ -17,9 +17,27 @@ public class ListRegexFilterOutReport extends Report {
 		this.listRegexFilterOut = listRegexFilterOut;
 	}
 
+	/**
+	 * Number of most expensive expressions to list separately when the rule has profiling enabled.
+	 */
+	int maxCostlyPatterns = 25;
+	public int getMaxCostlyPatterns() {
+		return maxCostlyPatterns;
+	}
+	public void setMaxCostlyPatterns(int maxCostlyPatterns) {
+		this.maxCostlyPatterns = maxCostlyPatterns;
+	}
+
 	@Override
 	public void write(PrintWriter writer, StatisticsTracker stats) {
-		writer.write(listRegexFilterOut.getReport());
+		if (listRegexFilterOut.getProfileSampleRate() > 0) {
+			writer.write("[regex] [hits] [sampled-evaluations] [sampled-matches] [sampled-nanos] [mean-nanos]\n");
+			writer.write(listRegexFilterOut.getReport());
+			writer.write("\nMost expensive (sampled 1 in " + listRegexFilterOut.getProfileSampleRate() + "):\n");
+			writer.write(listRegexFilterOut.getCostReport(maxCostlyPatterns));
+		} else {
+			writer.write(listRegexFilterOut.getReport());
+		}
 	}
 
 	@Override
@@ -0,0 +1,42 @@
+package is.landsbokasafn.crawler.reports;
+
+import is.landsbokasafn.crawler.deciderules.DecideRuleSequence;
+
+import java.io.PrintWriter;
+
+import org.archive.crawler.reporting.Report;
+import org.archive.crawler.reporting.StatisticsTracker;
+
+/**
+ * Which rules reject the most URIs from which hosts. Requires rejectionAnalytics to be enabled on the 
+ * {@link DecideRuleSequence}. The report is built from the live counters each time it is requested.
+ */
+public class RejectionAnalyticsReport extends Report {
+
+	DecideRuleSequence decideRuleSequence = null;
+	public DecideRuleSequence getDecideRuleSequence() {
+		return decideRuleSequence;
+	}
+	public void setDecideRuleSequence(DecideRuleSequence decideRuleSequence) {
+		this.decideRuleSequence = decideRuleSequence;
+	}
+
+	@Override
+	public void write(PrintWriter writer, StatisticsTracker stats) {
+		if (!decideRuleSequence.getRejectionAnalytics()) {
+			writer.write("rejectionAnalytics is not enabled\n");
+			return;
+		}
+		writer.write("[#] [rule] [rejections]\n");
+		writer.write("\t[estimated-rejections] [host] [recent-uris...]\n");
+		writer.write(decideRuleSequence.getRejectionReport());
+	}
+
+	@Override
+	public String getFilename() {
+		String name = decideRuleSequence.getBeanName() == null ? "decideRuleSequence" 
+				: decideRuleSequence.getBeanName();
+		return name + "-rejections-report.txt";
+	}
+
+}
@@ -0,0 +1,124 @@
+package is.landsbokasafn.crawler.writer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks which of several output directories, each on its own mount, a new file should be written to.
+ * <p>
+ * Directories whose mount has no more than the drain threshold of usable space are left out, so they are not
+ * given new files while the files already open on them are finished. Of the others the one with the lowest cost
+ * is picked, where the cost is
+ * <pre>
+ * (1 + recent picks) * (1 + write rate / highest write rate) / (usable space - drain threshold)
+ * </pre>
+ * Recent picks are counted with a half life, roughly the time it takes to fill a file, so that files being
+ * written at the same time are spread over different mounts for more aggregate bandwidth. Mounts with more space
+ * to spare get more of the files, and mounts that are busy with other writes get fewer. Ties go to the first
+ * directory.
+ * <p>
+ * If all directories are drained, the one with the most usable space is picked.
+ */
+public class MountSelector {
+
+    /**
+     * An output directory and the state of its mount.
+     */
+    public static final class Candidate {
+        private final String dir;
+        private final long usableBytes;
+        private final double bytesPerSecond;
+
+        /**
+         * @param dir The directory
+         * @param usableBytes Usable space on its mount
+         * @param bytesPerSecond Rate at which the mount is filling up, 0 if not known
+         */
+        public Candidate(String dir, long usableBytes, double bytesPerSecond) {
+            this.dir = dir;
+            this.usableBytes = usableBytes;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        public String getDir() {
+            return dir;
+        }
+
+        public long getUsableBytes() {
+            return usableBytes;
+        }
+
+        public double getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+    }
+
+    private final double pickHalfLifeMillis;
+    /** Decayed pick count and the time it was last updated, by directory */
+    private final Map<String, double[]> picks = new HashMap<>();
+
+    /**
+     * @param pickHalfLifeSeconds Time for a pick to count half as much
+     */
+    public MountSelector(double pickHalfLifeSeconds) {
+        this.pickHalfLifeMillis = Math.max(1, pickHalfLifeSeconds) * 1000;
+    }
+
+    /**
+     * @param candidates The directories to choose from, not empty
+     * @param drainThresholdBytes Usable space at or below which a mount gets no new files
+     * @param nowMillis Current time
+     * @return Index of the directory picked
+     */
+    public synchronized int select(List<Candidate> candidates, long drainThresholdBytes, long nowMillis) {
+        double maxRate = 0;
+        for (Candidate candidate : candidates) {
+            maxRate = Math.max(maxRate, candidate.getBytesPerSecond());
+        }
+
+        int best = -1;
+        double bestCost = Double.MAX_VALUE;
+        int roomiest = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            Candidate candidate = candidates.get(i);
+            if (candidate.getUsableBytes() > candidates.get(roomiest).getUsableBytes()) {
+                roomiest = i;
+            }
+            long headroom = candidate.getUsableBytes() - drainThresholdBytes;
+            if (headroom <= 0) {
+                continue;
+            }
+            double busy = maxRate > 0 ? Math.max(0, candidate.getBytesPerSecond()) / maxRate : 0;
+            double cost = (1 + getPicks(candidate.getDir(), nowMillis)) * (1 + busy) / headroom;
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = i;
+            }
+        }
+        if (best == -1) {
+            best = roomiest;
+        }
+        double[] count = picks.get(candidates.get(best).getDir());
+        if (count == null) {
+            count = new double[2];
+            picks.put(candidates.get(best).getDir(), count);
+        }
+        count[0] = decayed(count, nowMillis) + 1;
+        count[1] = nowMillis;
+        return best;
+    }
+
+    /**
+     * @return The decayed number of times the directory has been picked
+     */
+    public synchronized double getPicks(String dir, long nowMillis) {
+        double[] count = picks.get(dir);
+        return count == null ? 0 : decayed(count, nowMillis);
+    }
+
+    private double decayed(double[] count, long nowMillis) {
+        double elapsed = Math.max(0, nowMillis - count[1]);
+        return count[0] * Math.pow(0.5, elapsed / pickHalfLifeMillis);
+    }
+}
@@ -0,0 +1,235 @@
+package is.landsbokasafn.crawler.writer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.archive.modules.writer.WARCWriterChainProcessor;
+import org.archive.util.ArchiveUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import is.landsbokasafn.crawler.processors.DiskSpaceProvider;
+import is.landsbokasafn.crawler.processors.DrainedMountProvider;
+import is.landsbokasafn.crawler.processors.LowDiskPauseProcessor;
+import is.landsbokasafn.crawler.processors.MountUsageEstimator.MountStatus;
+
+/**
+ * A WARC writer that spreads its files over several <code>storePaths</code>, normally one per disk, picking the
+ * directory for each new file by usable space and recent writes on its disk (see {@link MountSelector}).
+ * <p>
+ * The stock writer goes round robin through its store paths, so the smallest or busiest disk decides when the
+ * crawl must pause. This writer instead stops putting new files on a disk once it is down to
+ * <code>drainThresholdKb</code>, and keeps writing to the others, so the crawl only runs out of space when all
+ * of them have.
+ * <p>
+ * The usable space and write rate of a store path is taken from the {@link LowDiskPauseProcessor}, if there is
+ * one and it monitors the mount the path is on (the longest of its <code>monitorMounts</code> that the path is
+ * under). Otherwise the usable space is read when the file is created. The processor is told which of its mounts
+ * this writer has stopped putting files on, so that it does not slow the crawl down on their account.
+ *
+ * <pre>
+ * &lt;bean id="warcWriter" class="is.landsbokasafn.crawler.writer.StripingWARCWriterChainProcessor"&gt;
+ *  &lt;property name="storePaths"&gt;
+ *   &lt;list&gt;
+ *    &lt;value&gt;/disk1/warcs&lt;/value&gt;
+ *    &lt;value&gt;/disk2/warcs&lt;/value&gt;
+ *   &lt;/list&gt;
+ *  &lt;/property&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ */
+public class StripingWARCWriterChainProcessor extends WARCWriterChainProcessor implements DrainedMountProvider {
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = Logger.getLogger(StripingWARCWriterChainProcessor.class.getName());
+
+    protected LowDiskPauseProcessor lowDiskPauseProcessor;
+    public LowDiskPauseProcessor getLowDiskPauseProcessor() {
+        return lowDiskPauseProcessor;
+    }
+    @Autowired(required=false)
+    public void setLowDiskPauseProcessor(LowDiskPauseProcessor lowDiskPauseProcessor) {
+        this.lowDiskPauseProcessor = lowDiskPauseProcessor;
+        if (lowDiskPauseProcessor != null) {
+            lowDiskPauseProcessor.setDrainedMountProvider(this);
+        }
+    }
+
+    /**
+     * Store paths whose mount has this much usable space or less get no new files. 0, the default, is the
+     * pause threshold of the {@link LowDiskPauseProcessor} plus room for one full size file per writer, so
+     * that files already being written to a drained mount can be finished without pausing the crawl.
+     */
+    long drainThresholdKb = 0;
+    public long getDrainThresholdKb() {
+        return drainThresholdKb;
+    }
+    public void setDrainThresholdKb(long drainThresholdKb) {
+        this.drainThresholdKb = drainThresholdKb;
+    }
+
+    /**
+     * Half life of the count of files recently put in each store path. Should be about the time it takes a
+     * writer to fill a file.
+     */
+    int pickHalfLifeSeconds = 600;
+    public int getPickHalfLifeSeconds() {
+        return pickHalfLifeSeconds;
+    }
+    public void setPickHalfLifeSeconds(int pickHalfLifeSeconds) {
+        this.pickHalfLifeSeconds = pickHalfLifeSeconds;
+        this.selector = null;
+    }
+
+    /**
+     * Where usable space is read from for store paths not on a monitored mount.
+     */
+    DiskSpaceProvider diskSpaceProvider = DiskSpaceProvider.FILE_SYSTEM;
+    public DiskSpaceProvider getDiskSpaceProvider() {
+        return diskSpaceProvider;
+    }
+    public void setDiskSpaceProvider(DiskSpaceProvider diskSpaceProvider) {
+        this.diskSpaceProvider = diskSpaceProvider;
+    }
+
+    private transient volatile MountSelector selector;
+    private transient volatile boolean allDrained = false;
+
+    protected MountSelector getSelector() {
+        MountSelector s = selector;
+        if (s == null) {
+            synchronized (this) {
+                if (selector == null) {
+                    selector = new MountSelector(getPickHalfLifeSeconds());
+                }
+                s = selector;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * @return Usable space at or below which a store path gets no new files
+     */
+    public long getDrainThresholdBytes() {
+        if (getDrainThresholdKb() > 0) {
+            return getDrainThresholdKb() * 1024;
+        }
+        long pauseThreshold = lowDiskPauseProcessor == null ? 0 : lowDiskPauseProcessor.getPauseThresholdKb() * 1024;
+        return pauseThreshold + getMaxFileSizeBytes() * Math.max(1, getPoolMaxActive());
+    }
+
+    /**
+     * Called whenever a writer starts a new file. Returns only the store path picked for it, so the writer has no
+     * other choice.
+     */
+    @Override
+    public List<File> calcOutputDirs() {
+        List<File> dirs = getStoreDirs();
+        if (dirs.size() <= 1) {
+            return dirs;
+        }
+        List<MountSelector.Candidate> candidates = getCandidates(dirs, getMountStatus());
+        long drainThreshold = getDrainThresholdBytes();
+        int picked = getSelector().select(candidates, drainThreshold, System.currentTimeMillis());
+
+        boolean drained = candidates.get(picked).getUsableBytes() <= drainThreshold;
+        if (drained && !allDrained) {
+            logger.warning("All store paths are at or below the drain threshold of " +
+                    ArchiveUtils.formatBytesForDisplay(drainThreshold) + ", writing to the one with most space");
+        }
+        allDrained = drained;
+        return Collections.singletonList(dirs.get(picked));
+    }
+
+    /**
+     * @return All the store paths
+     */
+    protected List<File> getStoreDirs() {
+        return super.calcOutputDirs();
+    }
+
+    private Map<String, MountStatus> getMountStatus() {
+        return lowDiskPauseProcessor == null
+                ? Collections.<String, MountStatus>emptyMap()
+                : lowDiskPauseProcessor.getMountStatus();
+    }
+
+    protected List<MountSelector.Candidate> getCandidates(List<File> dirs, Map<String, MountStatus> mounts) {
+        List<MountSelector.Candidate> candidates = new ArrayList<>(dirs.size());
+        for (File dir : dirs) {
+            String path = dir.getAbsolutePath();
+            MountStatus mount = findMount(mounts, path);
+            if (mount != null) {
+                candidates.add(new MountSelector.Candidate(path, mount.getUsableBytes(), mount.getBytesPerSecond()));
+            } else {
+                candidates.add(new MountSelector.Candidate(path, getDiskSpaceProvider().getUsableSpace(path), 0));
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * The monitored mounts whose store paths are all at or below the drain threshold, unless every store path is,
+     * in which case files are still being put on the mount with most space.
+     */
+    @Override
+    public Set<String> getDrainedMounts(Map<String, MountStatus> status) {
+        List<File> dirs = getStoreDirs();
+        long drainThreshold = getDrainThresholdBytes();
+        Set<String> drained = new HashSet<>();
+        boolean anyTakingFiles = false;
+        for (MountSelector.Candidate candidate : getCandidates(dirs, status)) {
+            if (candidate.getUsableBytes() > drainThreshold) {
+                anyTakingFiles = true;
+            } else {
+                MountStatus mount = findMount(status, candidate.getDir());
+                if (mount != null) {
+                    drained.add(mount.getMount());
+                }
+            }
+        }
+        return anyTakingFiles ? drained : Collections.<String>emptySet();
+    }
+
+    /**
+     * @return Status of the longest monitored mount that the path is under, null if none
+     */
+    static MountStatus findMount(Map<String, MountStatus> mounts, String path) {
+        MountStatus found = null;
+        int foundLength = -1;
+        for (Map.Entry<String, MountStatus> entry : mounts.entrySet()) {
+            String mount = entry.getKey();
+            int length = mount.length();
+            while (length > 1 && mount.charAt(length - 1) == File.separatorChar) {
+                length--;
+            }
+            boolean under = path.startsWith(mount.substring(0, length)) && (path.length() == length
+                    || path.charAt(length) == File.separatorChar || mount.charAt(length - 1) == File.separatorChar);
+            if (under && length > foundLength) {
+                found = entry.getValue();
+                foundLength = length;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public String report() {
+        StringBuilder report = new StringBuilder(super.report());
+        report.append("  Drain threshold: " + ArchiveUtils.formatBytesForDisplay(getDrainThresholdBytes()) + "\n");
+        report.append("  Recent files per store path:\n");
+        long now = System.currentTimeMillis();
+        for (File dir : getStoreDirs()) {
+            String path = dir.getAbsolutePath();
+            report.append("    " + path + " > " + ArchiveUtils.doubleToString(getSelector().getPicks(path, now), 1));
+            report.append("\n");
+        }
+        return report.toString();
+    }
+}
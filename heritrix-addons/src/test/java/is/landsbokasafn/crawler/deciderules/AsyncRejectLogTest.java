@@ -0,0 +1,68 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.archive.modules.deciderules.DecideResult;
+
+import junit.framework.TestCase;
+
+public class AsyncRejectLogTest extends TestCase {
+
+    public void testWritesAndRotates() throws Exception {
+        File dir = Files.createTempDirectory("rejectlog").toFile();
+        AsyncRejectLog log = new AsyncRejectLog(4096, dir, "scope", 1000, true);
+        log.start();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(log.log(3, "PathSegmentsDecideRule", DecideResult.REJECT, "http://example.com/" + i, null));
+        }
+        log.stop();
+        assertEquals(100, log.getWritten());
+        assertEquals(0, log.getDropped());
+
+        File[] files = dir.listFiles();
+        assertTrue(files.length > 1);
+        Arrays.sort(files, (a, b) -> Integer.compare(fileNumber(a), fileNumber(b)));
+        List<String> lines = new ArrayList<>();
+        for (File file : files) {
+            try (InputStream in = new GZIPInputStream(new FileInputStream(file));
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            }
+            file.delete();
+        }
+        dir.delete();
+
+        assertEquals(100, lines.size());
+        for (int i = 0; i < 100; i++) {
+            // [timestamp] [rule-num] [rule-class] [decision] [uri] [via]
+            assertTrue(lines.get(i), lines.get(i).endsWith(" 3 PathSegmentsDecideRule REJECT http://example.com/" + i + " "));
+        }
+    }
+
+    public void testDropsWhenFull() {
+        // Not started, so nothing is consumed
+        AsyncRejectLog log = new AsyncRejectLog(8, new File("."), "unused", 0, false);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(log.log(1, "Rule", DecideResult.REJECT, "http://example.com/", null));
+        }
+        assertFalse(log.log(1, "Rule", DecideResult.REJECT, "http://example.com/", null));
+        assertEquals(1, log.getDropped());
+    }
+
+    private static int fileNumber(File file) {
+        return Integer.parseInt(file.getName().split("\\.")[1]);
+    }
+}
@@ -0,0 +1,88 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class CidrSetTest extends TestCase {
+
+    public void testParseIPv4() {
+        assertEquals(0xC0000201L, IpAddresses.parseIPv4("192.0.2.1"));
+        assertEquals(0xFFFFFFFFL, IpAddresses.parseIPv4("255.255.255.255"));
+        assertEquals(0L, IpAddresses.parseIPv4("0.0.0.0"));
+        assertEquals(IpAddresses.INVALID, IpAddresses.parseIPv4("256.0.0.1"));
+        assertEquals(IpAddresses.INVALID, IpAddresses.parseIPv4("1.2.3"));
+        assertEquals(IpAddresses.INVALID, IpAddresses.parseIPv4("1.2.3.4.5"));
+        assertEquals(IpAddresses.INVALID, IpAddresses.parseIPv4("1.2.3."));
+        assertEquals(IpAddresses.INVALID, IpAddresses.parseIPv4("1..3.4"));
+        assertEquals(IpAddresses.INVALID, IpAddresses.parseIPv4("example.com"));
+    }
+
+    public void testParseIPv6() {
+        long[] a = new long[2];
+        assertTrue(IpAddresses.parseIPv6("2001:db8::1", a));
+        assertEquals(0x20010db800000000L, a[0]);
+        assertEquals(1L, a[1]);
+
+        assertTrue(IpAddresses.parseIPv6("2001:db8:0:0:0:0:0:1", a));
+        assertEquals(0x20010db800000000L, a[0]);
+        assertEquals(1L, a[1]);
+
+        assertTrue(IpAddresses.parseIPv6("::", a));
+        assertEquals(0L, a[0]);
+        assertEquals(0L, a[1]);
+
+        assertTrue(IpAddresses.parseIPv6("fe80::1:2%eth0", a));
+        assertEquals(0xfe80000000000000L, a[0]);
+        assertEquals(0x0000000000010002L, a[1]);
+
+        assertTrue(IpAddresses.parseIPv6("::ffff:192.0.2.1", a));
+        assertEquals(0xC0000201L, IpAddresses.mappedIPv4(a[0], a[1]));
+
+        assertTrue(IpAddresses.parseIPv6("1:2:3:4:5:6:7::", a));
+        assertEquals(0x0001000200030004L, a[0]);
+        assertEquals(0x0005000600070000L, a[1]);
+
+        assertFalse(IpAddresses.parseIPv6("1:2:3:4:5:6:7:8:9", a));
+        assertFalse(IpAddresses.parseIPv6("1::2::3", a));
+        assertFalse(IpAddresses.parseIPv6("12345::", a));
+        assertFalse(IpAddresses.parseIPv6(":1:2", a));
+        assertFalse(IpAddresses.parseIPv6("192.0.2.1", a));
+    }
+
+    public void testIPv4Ranges() {
+        CidrSet set = new CidrSet(Arrays.asList("127.0.0.1/32", "69.89.27.0/24", "10.0.0.0/9", "10.128.0.0/9",
+                "192.0.2.5", "not-an-address", "1.2.3.4/33"));
+        long[] scratch = new long[2];
+        assertTrue(set.contains("127.0.0.1", scratch));
+        assertFalse(set.contains("127.0.0.2", scratch));
+        assertTrue(set.contains("69.89.27.0", scratch));
+        assertTrue(set.contains("69.89.27.255", scratch));
+        assertFalse(set.contains("69.89.28.0", scratch));
+        assertTrue(set.contains("10.200.1.1", scratch));
+        assertTrue(set.contains("192.0.2.5", scratch));
+        assertFalse(set.contains("garbage", scratch));
+        // The two /9 are merged into one interval
+        assertEquals(4, set.getIPv4IntervalCount());
+    }
+
+    public void testNegativePrefix() {
+        CidrSet set = new CidrSet(Arrays.asList("10.0.0.0/-1", "2001:db8::/-8", "192.0.2.0/24"));
+        long[] scratch = new long[2];
+        assertFalse(set.contains("10.0.0.0", scratch));
+        assertFalse(set.contains("2001:db8::", scratch));
+        assertTrue(set.contains("192.0.2.1", scratch));
+        assertEquals(1, set.getIPv4IntervalCount());
+    }
+
+    public void testIPv6Ranges() {
+        CidrSet set = new CidrSet(Arrays.asList("2001:db8::/32", "2a00:1450:4001:81c::200e", "192.0.2.0/24"));
+        long[] scratch = new long[2];
+        assertTrue(set.contains("2001:db8:1234::1", scratch));
+        assertFalse(set.contains("2001:db9::1", scratch));
+        assertTrue(set.contains("2a00:1450:4001:81c::200e", scratch));
+        assertFalse(set.contains("2a00:1450:4001:81c::200f", scratch));
+        assertTrue(set.contains("::ffff:192.0.2.77", scratch));
+        assertEquals(2, set.getIPv6RangeCount());
+    }
+}
@@ -0,0 +1,252 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.deciderules.DecideResult;
+import org.archive.modules.deciderules.DecideRule;
+import org.archive.net.UURIFactory;
+
+import junit.framework.TestCase;
+
+public class DecideRuleSequenceTest extends TestCase {
+
+    /**
+     * Returns a fixed decision
+     */
+    static class FixedRule extends DecideRule {
+        private static final long serialVersionUID = 1L;
+        final DecideResult decision;
+        FixedRule(DecideResult decision) {
+            this.decision = decision;
+        }
+        @Override
+        protected DecideResult innerDecide(CrawlURI uri) {
+            return decision;
+        }
+    }
+
+    static class AcceptOnlyRule extends FixedRule {
+        private static final long serialVersionUID = 1L;
+        AcceptOnlyRule(DecideResult decision) {
+            super(decision);
+        }
+        @Override
+        public DecideResult onlyDecision(CrawlURI uri) {
+            return DecideResult.ACCEPT;
+        }
+    }
+
+    static class RejectOnlyRule extends FixedRule {
+        private static final long serialVersionUID = 1L;
+        RejectOnlyRule(DecideResult decision) {
+            super(decision);
+        }
+        @Override
+        public DecideResult onlyDecision(CrawlURI uri) {
+            return DecideResult.REJECT;
+        }
+    }
+
+    static class NoneOnlyRule extends FixedRule {
+        private static final long serialVersionUID = 1L;
+        NoneOnlyRule() {
+            super(DecideResult.NONE);
+        }
+        @Override
+        public DecideResult onlyDecision(CrawlURI uri) {
+            return DecideResult.NONE;
+        }
+    }
+
+    private static final DecideResult[] ACCEPT_OR_NONE = { DecideResult.ACCEPT, DecideResult.NONE };
+    private static final DecideResult[] REJECT_OR_NONE = { DecideResult.REJECT, DecideResult.NONE };
+    private static final DecideResult[] ANY = { DecideResult.ACCEPT, DecideResult.REJECT, DecideResult.NONE };
+
+    private static FixedRule randomRule(Random random) {
+        switch (random.nextInt(4)) {
+        case 0:
+            return new AcceptOnlyRule(ACCEPT_OR_NONE[random.nextInt(2)]);
+        case 1:
+            return new RejectOnlyRule(REJECT_OR_NONE[random.nextInt(2)]);
+        case 2:
+            return new NoneOnlyRule();
+        default:
+            return new FixedRule(ANY[random.nextInt(3)]);
+        }
+    }
+
+    /**
+     * A sequence that logs to a list rather than a file
+     */
+    private static DecideRuleSequence sequence(List<DecideRule> rules, boolean reverse, final List<String> log) {
+        DecideRuleSequence sequence = new DecideRuleSequence();
+        sequence.setRules(rules);
+        sequence.setReverseEvaluation(reverse);
+        if (log != null) {
+            Logger logger = Logger.getAnonymousLogger();
+            logger.setUseParentHandlers(false);
+            logger.addHandler(new Handler() {
+                @Override
+                public void publish(LogRecord record) {
+                    log.add(record.getMessage());
+                }
+                @Override
+                public void flush() {
+                }
+                @Override
+                public void close() {
+                }
+            });
+            sequence.fileLogger = logger;
+        }
+        return sequence;
+    }
+
+    private static String describe(List<DecideRule> rules) {
+        StringBuilder s = new StringBuilder();
+        for (DecideRule rule : rules) {
+            s.append(rule.getClass().getSimpleName() + ":" + ((FixedRule) rule).decision + " ");
+        }
+        return s.toString();
+    }
+
+    public void testReverseMatchesForward() throws Exception {
+        CrawlURI uri = new CrawlURI(UURIFactory.getInstance("http://example.is/"));
+        Random random = new Random(42);
+        int logged = 0;
+        for (int trial = 0; trial < 2000; trial++) {
+            List<DecideRule> rules = new ArrayList<>();
+            int size = 1 + random.nextInt(8);
+            for (int i = 0; i < size; i++) {
+                rules.add(randomRule(random));
+            }
+            String description = describe(rules);
+
+            List<String> forwardLog = new ArrayList<>();
+            DecideResult forward = sequence(rules, false, forwardLog).innerDecide(uri);
+            List<String> reverseLog = new ArrayList<>();
+            DecideResult reverse = sequence(rules, true, reverseLog).innerDecide(uri);
+            assertEquals(description, forward, reverse);
+            // Rule number, rule class, decision and URI
+            assertEquals(description, forwardLog, reverseLog);
+            logged += forwardLog.size();
+
+            assertEquals(description, forward, sequence(rules, true, null).innerDecide(uri));
+        }
+        // The log is only written for rejections by other than the first rule
+        assertTrue(logged > 100);
+    }
+
+    public void testLoggedRule() throws Exception {
+        CrawlURI uri = new CrawlURI(UURIFactory.getInstance("http://example.is/"));
+        List<DecideRule> rules = new ArrayList<>();
+        rules.add(new RejectOnlyRule(DecideResult.REJECT));
+        rules.add(new AcceptOnlyRule(DecideResult.ACCEPT));
+        rules.add(new FixedRule(DecideResult.REJECT));
+        rules.add(new AcceptOnlyRule(DecideResult.NONE));
+        rules.add(new RejectOnlyRule(DecideResult.REJECT));
+        rules.add(new NoneOnlyRule());
+
+        for (boolean reverse : new boolean[] { false, true }) {
+            List<String> log = new ArrayList<>();
+            DecideRuleSequence sequence = sequence(rules, reverse, log);
+            assertEquals(DecideResult.REJECT, sequence.innerDecide(uri));
+            // Rule 4 is skipped when evaluating in order, as rule 2 has already rejected
+            assertEquals(1, log.size());
+            assertEquals("2 FixedRule REJECT http://example.is/ ", log.get(0));
+        }
+    }
+
+    public void testReverseDecisiveMetrics() throws Exception {
+        CrawlURI uri = new CrawlURI(UURIFactory.getInstance("http://example.is/"));
+        List<DecideRule> rules = new ArrayList<>();
+        rules.add(new RejectOnlyRule(DecideResult.REJECT));
+        rules.add(new FixedRule(DecideResult.REJECT));
+        rules.add(new RejectOnlyRule(DecideResult.REJECT));
+        rules.add(new NoneOnlyRule());
+
+        DecideRuleSequence forward = sequence(rules, false, null);
+        forward.innerDecide(uri);
+        assertEquals(1, forward.getRuleMetrics().get(1).getDecisive());
+        assertEquals(0, forward.getRuleMetrics().get(2).getDecisive());
+        assertEquals(1, forward.getRuleMetrics().get(2).getSkipped());
+
+        // The last rule to return the decision is counted, with or without a log
+        for (boolean logging : new boolean[] { false, true }) {
+            DecideRuleSequence reverse = sequence(rules, true, logging ? new ArrayList<String>() : null);
+            reverse.innerDecide(uri);
+            assertEquals(0, reverse.getRuleMetrics().get(1).getDecisive());
+            assertEquals(1, reverse.getRuleMetrics().get(2).getDecisive());
+            assertEquals(1, reverse.getRuleMetrics().get(3).getSkipped());
+        }
+    }
+
+    public void testRestart() throws Exception {
+        final List<Logger> loggers = new ArrayList<>();
+        DecideRuleSequence sequence = new DecideRuleSequence();
+        sequence.setBeanName("scope");
+        sequence.setRegisterMBean(false);
+        sequence.setLogToFile(true);
+        sequence.setAsyncLogging(true);
+        sequence.setLoggerModule(name -> {
+            Logger logger = Logger.getAnonymousLogger();
+            loggers.add(logger);
+            return logger;
+        });
+
+        sequence.start();
+        assertEquals(1, loggers.size());
+        assertNotNull(sequence.asyncLog);
+        sequence.stop();
+        assertNull(sequence.asyncLog);
+        assertNull(sequence.fileLogger);
+
+        sequence.setAsyncLogging(false);
+        sequence.start();
+        assertEquals(2, loggers.size());
+        assertSame(loggers.get(1), sequence.fileLogger);
+        sequence.stop();
+    }
+
+    public void testOverlayMetrics() throws Exception {
+        CrawlURI uri = new CrawlURI(UURIFactory.getInstance("http://example.is/"));
+        DecideRule reject = new RejectOnlyRule(DecideResult.REJECT);
+        DecideRule accept = new AcceptOnlyRule(DecideResult.ACCEPT);
+        DecideRule overlayOnly = new FixedRule(DecideResult.REJECT);
+        List<DecideRule> rules = new ArrayList<>();
+        rules.add(reject);
+        rules.add(accept);
+        List<DecideRule> overlay = new ArrayList<>(rules);
+        overlay.add(overlayOnly);
+
+        DecideRuleSequence sequence = sequence(rules, false, null);
+        RuleMetrics[] plan = sequence.getMetrics(rules);
+        RuleMetrics[] overlayPlan = sequence.getMetrics(overlay);
+        // Plans are kept for each list, equal or not
+        assertSame(plan, sequence.getMetrics(rules));
+        assertSame(overlayPlan, sequence.getMetrics(overlay));
+        assertTrue(plan != sequence.getMetrics(new ArrayList<>(rules)));
+        assertSame(plan[1], overlayPlan[1]);
+
+        assertEquals(DecideResult.ACCEPT, sequence.innerDecide(uri));
+        sequence.setRules(overlay);
+        assertEquals(DecideResult.REJECT, sequence.innerDecide(uri));
+        sequence.setRules(rules);
+        assertEquals(1, sequence.getRuleMetrics().get(1).getDecisive());
+        assertEquals(1, sequence.getRuleMetrics().get(2).getDecisive());
+
+        String[] lines = sequence.getReport().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].startsWith("0\tRejectOnlyRule\t"));
+        assertTrue(lines[1].startsWith("1\tAcceptOnlyRule\t2\t"));
+        assertTrue(lines[2].startsWith("overlay\tFixedRule\t1\t"));
+        assertEquals(java.util.Arrays.asList("0 RejectOnlyRule", "1 AcceptOnlyRule", "overlay FixedRule"),
+                sequence.getRuleNames());
+    }
+}
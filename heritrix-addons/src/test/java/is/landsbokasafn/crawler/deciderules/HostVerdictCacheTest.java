@@ -0,0 +1,48 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.net.InetAddress;
+
+import org.archive.modules.net.CrawlHost;
+
+import junit.framework.TestCase;
+
+public class HostVerdictCacheTest extends TestCase {
+
+    public void testInvalidation() throws Exception {
+        HostVerdictCache cache = new HostVerdictCache();
+        Object addresses = new Object();
+        CrawlHost host = new CrawlHost("example.com");
+        host.setIP(InetAddress.getByName("192.0.2.1"), 3600);
+
+        assertNull(cache.get(host, addresses));
+        cache.put(host, addresses, true);
+        assertEquals(Boolean.TRUE, cache.get(host, addresses));
+
+        // Different configuration
+        assertNull(cache.get(host, new Object()));
+
+        // Host resolved again, to a new address
+        host.setIP(InetAddress.getByName("192.0.2.2"), 3600);
+        assertNull(cache.get(host, addresses));
+        cache.put(host, addresses, false);
+        assertEquals(Boolean.FALSE, cache.get(host, addresses));
+
+        // Same address, new TTL
+        host.setIP(InetAddress.getByName("192.0.2.2"), 60);
+        assertNull(cache.get(host, addresses));
+
+        assertEquals(2, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    public void testBounded() throws Exception {
+        HostVerdictCache cache = new HostVerdictCache(10);
+        Object addresses = new Object();
+        for (int i = 0; i < 25; i++) {
+            CrawlHost host = new CrawlHost("host" + i + ".example.com");
+            host.setIP(InetAddress.getByName("192.0.2." + i), 3600);
+            cache.put(host, addresses, true);
+            assertTrue(cache.size() <= 10);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+import junit.framework.TestCase;
+
+public class IpAddressSetDecideRuleTest extends TestCase {
+
+    private static CrawlURI uri(String serverIp) throws Exception {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://example.is/"));
+        curi.setServerIP(serverIp);
+        return curi;
+    }
+
+    public void testInvalidAddresses() throws Exception {
+        IpAddressSetDecideRule rule = new IpAddressSetDecideRule();
+        rule.setIpAddresses(new LinkedHashSet<>(Arrays.asList(
+                "192.0.2.1", "10.0.0.0/-1", "10.0.0.0/33", "10.1.0.0/x", "2001:db8::/-128", "not-an-address")));
+        assertEquals(new LinkedHashSet<>(Arrays.asList("192.0.2.1")), rule.getIpAddresses());
+        assertTrue(rule.evaluate(uri("192.0.2.1")));
+        assertFalse(rule.evaluate(uri("10.0.0.0")));
+        assertFalse(rule.evaluate(uri("2001:db8::")));
+
+        rule.addIpAddress("10.0.0.0/-24");
+        assertFalse(rule.evaluate(uri("10.0.0.0")));
+        assertEquals(1, rule.getIpAddresses().size());
+    }
+
+    public void testAddIpAddress() throws Exception {
+        IpAddressSetDecideRule rule = new IpAddressSetDecideRule();
+        rule.addIpAddress("192.0.2.0/30");
+        assertTrue(rule.evaluate(uri("192.0.2.3")));
+        assertFalse(rule.evaluate(uri("192.0.2.4")));
+
+        rule.setIpAddresses(new LinkedHashSet<>(Arrays.asList("198.51.100.1")));
+        rule.addIpAddress("192.0.2.4");
+        rule.addIpAddress("2001:db8::1");
+        assertEquals(new LinkedHashSet<>(Arrays.asList("198.51.100.1", "192.0.2.4", "2001:db8::1")),
+                rule.getIpAddresses());
+        assertTrue(rule.evaluate(uri("198.51.100.1")));
+        assertTrue(rule.evaluate(uri("192.0.2.4")));
+        assertTrue(rule.evaluate(uri("2001:db8::1")));
+        assertFalse(rule.evaluate(uri("192.0.2.3")));
+    }
+}
@@ -0,0 +1,96 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.net.InetAddress;
+
+import junit.framework.TestCase;
+
+public class IpAddressSetTest extends TestCase {
+
+    public void testIPv4() {
+        IpAddressSet set = new IpAddressSet();
+        set.addIPv4(IpAddresses.parseIPv4("127.0.0.1"));
+        set.addIPv4Range(IpAddresses.parseIPv4("69.89.27.0"), IpAddresses.parseIPv4("69.89.27.255"));
+        long[] scratch = new long[2];
+        assertTrue(set.contains("127.0.0.1", scratch));
+        assertFalse(set.contains("127.0.0.2", scratch));
+        assertTrue(set.contains("69.89.27.0", scratch));
+        assertTrue(set.contains("69.89.27.128", scratch));
+        assertTrue(set.contains("69.89.27.255", scratch));
+        assertFalse(set.contains("69.89.28.0", scratch));
+        assertFalse(set.contains("not-an-address", scratch));
+        assertTrue(set.contains("::ffff:69.89.27.3", scratch));
+        assertEquals(257, set.getIPv4Count());
+    }
+
+    public void testArrayToBitmap() {
+        IpAddressSet set = new IpAddressSet();
+        // Every third address in a /16, enough to convert the container to a bitmap
+        for (long a = 0x0A000000L; a <= 0x0A00FFFFL; a += 3) {
+            set.addIPv4(a);
+        }
+        for (long a = 0x0A000000L; a <= 0x0A00FFFFL; a++) {
+            assertEquals((a - 0x0A000000L) % 3 == 0, set.containsIPv4(a));
+        }
+        assertFalse(set.containsIPv4(0x0A010000L));
+        assertFalse(set.containsIPv4(0x09FFFFFFL));
+    }
+
+    public void testLargeRangeIsCompact() {
+        IpAddressSet set = new IpAddressSet();
+        set.addIPv4Range(0x0A000000L, 0x0A0FFFFFL);
+        assertEquals(1 << 20, set.getIPv4Count());
+        assertTrue(set.containsIPv4(0x0A0ABCDEL));
+        assertFalse(set.containsIPv4(0x0A100000L));
+        // 16 bitmaps of 8 KiB each
+        assertTrue(set.getMemoryUsage() < 140 * 1024);
+    }
+
+    public void testIPv6() throws Exception {
+        IpAddressSet set = new IpAddressSet();
+        long[] a = new long[2];
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(IpAddresses.parseIPv6("2001:db8::" + Integer.toHexString(i * 7), a));
+            set.addIPv6(a[0], a[1]);
+        }
+        IpAddresses.parseIPv6("::", a);
+        set.addIPv6(a[0], a[1]);
+        assertEquals(1001, set.getIPv6Count());
+
+        long[] scratch = new long[2];
+        assertTrue(set.contains("2001:db8::7", scratch));
+        assertTrue(set.contains("2001:0db8:0:0:0:0:0:1b51", scratch));
+        assertFalse(set.contains("2001:db8::8", scratch));
+        assertTrue(set.contains("::", scratch));
+        assertTrue(set.contains(InetAddress.getByName("2001:db8::e"), scratch));
+        assertFalse(set.contains(InetAddress.getByName("192.0.2.1"), scratch));
+    }
+
+    public void testCopy() {
+        IpAddressSet set = new IpAddressSet();
+        set.addIPv4(IpAddresses.parseIPv4("10.0.0.1"));
+        set.addIPv4Range(IpAddresses.parseIPv4("10.1.0.0"), IpAddresses.parseIPv4("10.1.255.255"));
+        long[] v6 = new long[2];
+        IpAddresses.parseIPv6("2001:db8::1", v6);
+        set.addIPv6(v6[0], v6[1]);
+
+        IpAddressSet copy = set.copy();
+        copy.addIPv4(IpAddresses.parseIPv4("10.0.0.2"));
+        copy.addIPv4(IpAddresses.parseIPv4("10.2.0.1"));
+        IpAddresses.parseIPv6("2001:db8::2", v6);
+        copy.addIPv6(v6[0], v6[1]);
+
+        long[] scratch = new long[2];
+        for (String address : new String[] { "10.0.0.1", "10.1.3.4", "2001:db8::1" }) {
+            assertTrue(set.contains(address, scratch));
+            assertTrue(copy.contains(address, scratch));
+        }
+        for (String address : new String[] { "10.0.0.2", "10.2.0.1", "2001:db8::2" }) {
+            assertFalse(set.contains(address, scratch));
+            assertTrue(copy.contains(address, scratch));
+        }
+        assertEquals(65537, set.getIPv4Count());
+        assertEquals(65539, copy.getIPv4Count());
+        assertEquals(1, set.getIPv6Count());
+        assertEquals(2, copy.getIPv6Count());
+    }
+}
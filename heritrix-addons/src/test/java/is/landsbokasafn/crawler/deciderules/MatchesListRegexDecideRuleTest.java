@@ -0,0 +1,233 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+import is.landsbokasafn.crawler.reports.ListRegexFilterOutReport;
+import junit.framework.TestCase;
+
+public class MatchesListRegexDecideRuleTest extends TestCase {
+
+    private static final String[] REGEXES = {
+            "^https?://a\\.is/.*",
+            "^https?://b\\.is/.*",
+            ".*\\.is/.*",
+    };
+
+    private static MatchesListRegexDecideRule newRule(boolean compiled) {
+        MatchesListRegexDecideRule rule = new MatchesListRegexDecideRule();
+        rule.setCompiledMatching(compiled);
+        for (String regex : REGEXES) {
+            rule.add(regex);
+        }
+        return rule;
+    }
+
+    private static CrawlURI uri(String uri) throws Exception {
+        return new CrawlURI(UURIFactory.getInstance(uri));
+    }
+
+    private static long[] hits(MatchesListRegexDecideRule rule) {
+        long[] hits = new long[REGEXES.length];
+        for (int i = 0; i < REGEXES.length; i++) {
+            hits[i] = rule.getStatistics(REGEXES[i]).getHits();
+        }
+        return hits;
+    }
+
+    public void testOrHits() throws Exception {
+        for (boolean compiled : new boolean[] { false, true }) {
+            MatchesListRegexDecideRule rule = newRule(compiled);
+            assertTrue(rule.evaluate(uri("http://a.is/x")));
+            assertTrue(rule.evaluate(uri("https://a.is/y")));
+            assertTrue(rule.evaluate(uri("http://b.is/")));
+            assertTrue(rule.evaluate(uri("http://c.is/")));
+            assertFalse(rule.evaluate(uri("http://d.com/")));
+
+            long[] hits = hits(rule);
+            assertEquals("compiled " + compiled, 2, hits[0]);
+            assertEquals("compiled " + compiled, 1, hits[1]);
+            assertEquals("compiled " + compiled, 1, hits[2]);
+        }
+    }
+
+    public void testAndHits() throws Exception {
+        for (boolean compiled : new boolean[] { false, true }) {
+            MatchesListRegexDecideRule rule = newRule(compiled);
+            rule.setListLogicalOr(false);
+            // Fails the first expression
+            assertFalse(rule.evaluate(uri("http://b.is/")));
+            assertFalse(rule.evaluate(uri("http://d.com/")));
+            // Matches the first, fails the second
+            assertFalse(rule.evaluate(uri("http://a.is/x")));
+
+            long[] hits = hits(rule);
+            assertEquals("compiled " + compiled, 2, hits[0]);
+            assertEquals("compiled " + compiled, 1, hits[1]);
+            assertEquals("compiled " + compiled, 0, hits[2]);
+        }
+
+        MatchesListRegexDecideRule rule = new MatchesListRegexDecideRule();
+        rule.setListLogicalOr(false);
+        rule.add(".*\\.is/.*");
+        rule.add("^http://.*");
+        assertTrue(rule.evaluate(uri("http://c.is/")));
+        // No expression decides when all match
+        assertEquals(0, rule.getStatistics(".*\\.is/.*").getHits());
+    }
+
+    public void testReport() throws Exception {
+        MatchesListRegexDecideRule rule = newRule(false);
+        rule.evaluate(uri("http://b.is/"));
+        assertEquals(REGEXES[0] + "\t0\n" + REGEXES[1] + "\t1\n" + REGEXES[2] + "\t0\n", rule.getReport());
+
+        rule.setProfileSampleRate(1);
+        rule.evaluate(uri("http://b.is/"));
+        rule.evaluate(uri("http://d.com/"));
+        String[] lines = rule.getReport().split("\n");
+        assertEquals(3, lines.length);
+        // regex, hits, sampled evaluations, sampled matches, sampled nanos, mean nanos
+        String[] first = lines[0].split("\t");
+        assertEquals(6, first.length);
+        assertEquals(REGEXES[0], first[0]);
+        assertEquals("0", first[1]);
+        assertEquals("2", first[2]);
+        assertEquals("0", first[3]);
+        String[] second = lines[1].split("\t");
+        assertEquals("2", second[1]);
+        assertEquals("2", second[2]);
+        assertEquals("1", second[3]);
+        String[] third = lines[2].split("\t");
+        assertEquals("1", third[2]);
+        assertEquals("0", third[3]);
+        assertEquals(1, rule.getStatistics(REGEXES[1]).getSampledMatches());
+
+        ListRegexFilterOutReport report = new ListRegexFilterOutReport();
+        report.setListRegexFilterOut(rule);
+        StringWriter out = new StringWriter();
+        report.write(new PrintWriter(out), null);
+        assertTrue(out.toString().startsWith("[regex] [hits] [sampled-evaluations]"));
+        assertTrue(out.toString().contains("Most expensive (sampled 1 in 1):\n"));
+    }
+
+    /**
+     * Reads its regexSource from a file
+     */
+    private static class FileRule extends MatchesListRegexDecideRule {
+        private static final long serialVersionUID = 1L;
+        final File file;
+
+        FileRule(File file) {
+            this.file = file;
+            setRegexSource(() -> {
+                try {
+                    return Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+
+        @Override
+        protected File getRegexSourceFile() {
+            return file;
+        }
+    }
+
+    private static void write(File file, String... lines) throws IOException {
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+    public void testReload() throws Exception {
+        File file = File.createTempFile("regexes", ".txt");
+        try {
+            write(file, "# comment", ".*a\\.is/.*", ".*b\\.is/.*", "", ".*c\\.is/.*");
+            FileRule rule = new FileRule(file);
+            rule.importRegexes();
+            rule.add(".*x\\.is/.*");
+            // Already in the source, stays a sourced expression
+            rule.add(".*b\\.is/.*");
+            assertEquals(".*a\\.is/.*\n.*b\\.is/.*\n.*c\\.is/.*\n.*x\\.is/.*\n", rule.getList());
+
+            rule.evaluate(uri("http://a.is/"));
+            rule.evaluate(uri("http://b.is/"));
+            rule.evaluate(uri("http://b.is/"));
+            rule.evaluate(uri("http://x.is/"));
+            PatternStatistics b = rule.getStatistics(".*b\\.is/.*");
+
+            // a dropped from the source, d added between c and b
+            write(file, ".*c\\.is/.*", ".*d\\.is/.*", ".*b\\.is/.*");
+            rule.reloadRegexes();
+            assertFalse(rule.getCompiledList().hasMatcher());
+            assertEquals(".*c\\.is/.*\n.*d\\.is/.*\n.*b\\.is/.*\n.*x\\.is/.*\n", rule.getList());
+            assertNull(rule.getStatistics(".*a\\.is/.*"));
+            // Counters carried over for unchanged expressions
+            assertSame(b, rule.getStatistics(".*b\\.is/.*"));
+            assertEquals(2, rule.getStatistics(".*b\\.is/.*").getHits());
+            assertEquals(1, rule.getStatistics(".*x\\.is/.*").getHits());
+            assertEquals(0, rule.getStatistics(".*d\\.is/.*").getHits());
+            assertFalse(rule.evaluate(uri("http://a.is/")));
+            assertTrue(rule.evaluate(uri("http://d.is/")));
+
+            // Added expressions survive removal from the source
+            write(file, ".*c\\.is/.*");
+            rule.setCompiledMatching(true);
+            rule.reloadRegexes();
+            assertEquals(".*c\\.is/.*\n.*x\\.is/.*\n", rule.getList());
+            // Built by the reloading thread, not by the first evaluation
+            assertTrue(rule.getCompiledList().hasMatcher());
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testWatcher() throws Exception {
+        File file = File.createTempFile("regexes", ".txt");
+        FileRule rule = new FileRule(file);
+        try {
+            write(file, ".*a\\.is/.*");
+            rule.setRegexSourceCheckInterval(1);
+            rule.importRegexes();
+            rule.startWatchingSource();
+            write(file, ".*a\\.is/.*", ".*b\\.is/.*");
+            long deadline = System.currentTimeMillis() + 10000;
+            while (rule.getStatistics(".*b\\.is/.*") == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(".*a\\.is/.*\n.*b\\.is/.*\n", rule.getList());
+        } finally {
+            rule.stopWatchingSource();
+            file.delete();
+        }
+    }
+
+    public void testMatcherBuiltOnlyWhenNeeded() throws Exception {
+        MatchesListRegexDecideRule rule = new MatchesListRegexDecideRule();
+        rule.addAll(Arrays.asList(REGEXES));
+        rule.addAll(Arrays.asList(REGEXES[0], ".*\\.com/.*"));
+        assertEquals(4, rule.getCompiledList().size());
+        rule.evaluate(uri("http://c.is/"));
+        assertFalse(rule.getCompiledList().hasMatcher());
+
+        rule.setCompiledMatching(true);
+        assertTrue(rule.evaluate(uri("http://c.is/")));
+        assertTrue(rule.getCompiledList().hasMatcher());
+
+        try {
+            rule.addAll(Arrays.asList(".*\\.net/.*", "(unclosed"));
+            fail();
+        } catch (java.util.regex.PatternSyntaxException e) {
+            // None added
+        }
+        assertEquals(4, rule.getCompiledList().size());
+    }
+}
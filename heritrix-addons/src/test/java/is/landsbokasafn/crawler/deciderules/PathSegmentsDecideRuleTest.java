@@ -80,4 +80,44 @@ public class PathSegmentsDecideRuleTest extends TestCase {
         String[] segments = {"path1","path2","path1","path1","path2","path1","index.html"};
         assertEquals(DecideResult.REJECT, psdr.evaluate(3, 2, segments));
     }
+
+    public void testEvaluateUriMatchesSegments() {
+        PathSegmentsDecideRule psdr = new PathSegmentsDecideRule();
+        String[] urls = {
+                "http://example.com/path1/path2/index.html",
+                "http://example.com/path1///path2/index.html",
+                "http://example.com/path1/path2/index.php?stuff=cool/stuff",
+                "http://example.com/path1/path2/?stuff=cool/stuff",
+                "http://example.com//",
+                "http://example.com",
+                "dns:example.com",
+                "http://example.com/a/a/b/a/",
+                "http://example.com/a//a//a/index.html",
+                "http://example.com/a/b/a/b/a/b/a/b",
+                "http://example.com/a/b/?a/?a/?a",
+                "http://example.com/a/a?/a/a",
+                "http://example.com?x=/a/a/a/a",
+                "http://example.com/ab/ba/ab/ba/ab/ba/ab"};
+        for (String url : urls) {
+            for (int maxSeg = 0; maxSeg <= 4; maxSeg++) {
+                for (int maxConSeg = 0; maxConSeg <= 3; maxConSeg++) {
+                    assertEquals(url + " " + maxSeg + " " + maxConSeg,
+                            psdr.evaluate(maxSeg, maxConSeg, psdr.getSegments(url)),
+                            psdr.evaluate(maxSeg, maxConSeg, url));
+                }
+            }
+        }
+    }
+
+    public void testEvaluateUriManySegments() {
+        PathSegmentsDecideRule psdr = new PathSegmentsDecideRule();
+        StringBuilder url = new StringBuilder("http://example.com");
+        for (int i = 0; i < 500; i++) {
+            url.append("/s").append(i);
+        }
+        assertEquals(DecideResult.NONE, psdr.evaluate(3, 2, url.toString()));
+        url.append("/s7/s7");
+        assertEquals(DecideResult.REJECT, psdr.evaluate(2, 0, url.toString()));
+        assertEquals(DecideResult.NONE, psdr.evaluate(3, 0, url.toString()));
+    }
 }
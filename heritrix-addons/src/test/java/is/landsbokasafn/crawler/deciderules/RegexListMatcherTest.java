@@ -0,0 +1,108 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+public class RegexListMatcherTest extends TestCase {
+
+    private static final String[] REGEXES = {
+            "^https?://www\\.example\\.com/calendar/.*",
+            "https?://[^/]*facebook\\.com/.*",
+            ".*/wp-json/.*",
+            ".*[?&]sessionid=.*",
+            ".*\\.(jpg|png|gif)$",
+            "(?i).*/PRINT/.*",
+            "http://trap\\.is/(a|b)+/.*",
+            "http://a\\.is/x?y.*",
+            "http://b\\.is/z+q.*",
+            ".*\\x2Fcgi-bin\\x2F.*",
+            "http://c\\.is/.*|http://d\\.is/.*",
+            ".*",
+    };
+
+    private static final String[] URIS = {
+            "http://www.example.com/calendar/2024/01",
+            "https://www.example.com/calendar/",
+            "https://m.facebook.com/some/page",
+            "http://example.com/wp-json/v2/posts",
+            "http://example.com/index.php?a=1&sessionid=abc",
+            "http://example.com/image.png",
+            "http://example.com/print/article",
+            "http://trap.is/a/b/a/b/index.html",
+            "http://a.is/y",
+            "http://a.is/xy",
+            "http://b.is/zzzq",
+            "http://b.is/q",
+            "http://example.com/cgi-bin/test",
+            "http://d.is/page",
+            "http://unrelated.org/",
+            "",
+    };
+
+    private List<Pattern> compile(String... regexes) {
+        List<Pattern> patterns = new ArrayList<>();
+        for (String regex : regexes) {
+            patterns.add(Pattern.compile(regex));
+        }
+        return patterns;
+    }
+
+    private int linearFirstMatch(List<Pattern> patterns, String uri) {
+        for (int i = 0; i < patterns.size(); i++) {
+            if (patterns.get(i).matcher(uri).matches()) {
+                return i;
+            }
+        }
+        return RegexListMatcher.NONE;
+    }
+
+    private int linearFirstMismatch(List<Pattern> patterns, String uri) {
+        for (int i = 0; i < patterns.size(); i++) {
+            if (!patterns.get(i).matcher(uri).matches()) {
+                return i;
+            }
+        }
+        return RegexListMatcher.NONE;
+    }
+
+    public void testSameOutcomeAsLinearEvaluation() {
+        // Every suffix of the list, so each pattern gets to be the first one tried
+        for (int start = 0; start < REGEXES.length; start++) {
+            List<Pattern> patterns = compile(REGEXES).subList(start, REGEXES.length);
+            RegexListMatcher matcher = new RegexListMatcher(patterns);
+            for (String uri : URIS) {
+                assertEquals(uri, linearFirstMatch(patterns, uri), matcher.firstMatch(uri));
+                assertEquals(uri, linearFirstMismatch(patterns, uri), matcher.firstMismatch(uri));
+            }
+        }
+    }
+
+    public void testAndAllMatch() {
+        List<Pattern> patterns = compile("http://example\\.com/.*", ".*\\.html", ".*/dir/.*");
+        RegexListMatcher matcher = new RegexListMatcher(patterns);
+        assertEquals(RegexListMatcher.NONE, matcher.firstMismatch("http://example.com/dir/index.html"));
+        assertEquals(1, matcher.firstMismatch("http://example.com/dir/index.php"));
+    }
+
+    public void testRequiredLiteral() {
+        assertLiteral("http://www.example.com/", true, "^http://www\\.example\\.com/.*");
+        assertLiteral("http", true, "https?://.*");
+        assertLiteral("/calendar/", false, ".*/calendar/.*");
+        assertLiteral("sessionid=", false, ".*[?&]sessionid=.*");
+        assertLiteral("http://b.is/z", true, "http://b\\.is/z+q.*");
+        assertNull(RegexListMatcher.requiredLiteral(Pattern.compile("(?i).*/print/.*")));
+        assertNull(RegexListMatcher.requiredLiteral(Pattern.compile("abc.*|def.*")));
+        assertNull(RegexListMatcher.requiredLiteral(Pattern.compile(".*/print/.*", Pattern.CASE_INSENSITIVE)));
+        assertNull(RegexListMatcher.requiredLiteral(Pattern.compile(".*\\d+.*")));
+    }
+
+    private void assertLiteral(String expected, boolean prefix, String regex) {
+        RegexListMatcher.Literal literal = RegexListMatcher.requiredLiteral(Pattern.compile(regex));
+        assertNotNull(literal);
+        assertEquals(regex, expected, literal.text);
+        assertEquals(regex, prefix, literal.prefix);
+    }
+}
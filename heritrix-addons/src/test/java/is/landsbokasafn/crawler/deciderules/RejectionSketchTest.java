@@ -0,0 +1,45 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class RejectionSketchTest extends TestCase {
+
+    public void testFindsHeavyHosts() {
+        RejectionSketch sketch = new RejectionSketch("1 TestRule", 5, 2);
+        Random random = new Random(11);
+        // Background of many hosts with a few rejections each
+        for (int i = 0; i < 50000; i++) {
+            sketch.add("host" + random.nextInt(20000) + ".example.com", "http://example.com/" + i);
+        }
+        // Three traps
+        for (int i = 0; i < 3000; i++) {
+            sketch.add("trap1.example.com", "http://trap1.example.com/" + i);
+            if (i % 2 == 0) {
+                sketch.add("trap2.example.com", "http://trap2.example.com/" + i);
+            }
+            if (i % 3 == 0) {
+                sketch.add("trap3.example.com", "http://trap3.example.com/" + i);
+            }
+        }
+        assertEquals(50000 + 3000 + 1500 + 1000, sketch.getTotal());
+
+        List<RejectionSketch.HostRejections> hosts = sketch.getHeavyHosts();
+        assertTrue(hosts.size() <= 5);
+        assertEquals("trap1.example.com", hosts.get(0).getHost());
+        assertEquals("trap2.example.com", hosts.get(1).getHost());
+        assertEquals("trap3.example.com", hosts.get(2).getHost());
+
+        // Estimates never under count
+        assertTrue(hosts.get(0).getCount() >= 3000);
+        assertTrue(hosts.get(0).getCount() < 3100);
+
+        // Most recent samples
+        List<String> samples = hosts.get(0).getSampleUris();
+        assertEquals(2, samples.size());
+        assertTrue(samples.contains("http://trap1.example.com/2999"));
+        assertTrue(samples.contains("http://trap1.example.com/2998"));
+    }
+}
@@ -0,0 +1,43 @@
+package is.landsbokasafn.crawler.deciderules;
+
+import org.archive.modules.deciderules.DecideResult;
+
+import junit.framework.TestCase;
+
+public class RuleMetricsTest extends TestCase {
+
+    public void testCounts() {
+        RuleMetrics metrics = new RuleMetrics("Rule");
+        metrics.evaluated(DecideResult.ACCEPT);
+        metrics.evaluated(DecideResult.REJECT);
+        metrics.evaluated(DecideResult.REJECT);
+        metrics.evaluated(DecideResult.NONE);
+        metrics.skipped();
+        metrics.decisive();
+        assertEquals(4, metrics.getEvaluations());
+        assertEquals(1, metrics.getAccepts());
+        assertEquals(2, metrics.getRejects());
+        assertEquals(1, metrics.getNones());
+        assertEquals(1, metrics.getSkipped());
+        assertEquals(1, metrics.getDecisive());
+
+        metrics.reset();
+        assertEquals(0, metrics.getEvaluations());
+        assertEquals(0, metrics.getDecisive());
+    }
+
+    public void testLatencyPercentiles() {
+        RuleMetrics metrics = new RuleMetrics("Rule");
+        assertEquals(0, metrics.getLatencyNanos(0.5));
+        for (int i = 0; i < 99; i++) {
+            metrics.sampled(100);
+        }
+        metrics.sampled(1000000);
+        assertEquals(100, metrics.getSampledEvaluations());
+        assertEquals((99 * 100 + 1000000) / 100, metrics.getMeanNanos());
+        // 100 is in the bucket [64, 128), 1000000 in [524288, 1048576)
+        assertEquals(128, metrics.getLatencyNanos(0.5));
+        assertEquals(128, metrics.getLatencyNanos(0.99));
+        assertEquals(1048576, metrics.getLatencyNanos(1.0));
+    }
+}
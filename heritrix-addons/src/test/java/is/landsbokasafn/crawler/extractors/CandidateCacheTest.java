@@ -0,0 +1,63 @@
+package is.landsbokasafn.crawler.extractors;
+
+import junit.framework.TestCase;
+
+public class CandidateCacheTest extends TestCase {
+
+    private static String[] candidates(int count) {
+        String[] candidates = new String[count];
+        for (int i = 0; i < count; i++) {
+            candidates[i] = "/lib/file" + i + ".js";
+        }
+        return candidates;
+    }
+
+    public void testHitsAndSavedBytes() {
+        CandidateCache cache = new CandidateCache(1 << 20);
+        assertNull(cache.get("sha1:A", 1000));
+        String[] found = candidates(3);
+        cache.put("sha1:A", found);
+        assertSame(found, cache.get("sha1:A", 1000));
+        assertSame(found, cache.get("sha1:A", 500));
+        assertNull(cache.get("sha1:B", 1000));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate(), 0.0001);
+        assertEquals(1500, cache.getSavedBytes());
+    }
+
+    public void testBoundedByBytes() {
+        long entry = CandidateCache.ENTRY_OVERHEAD + 2 * "sha1:0".length();
+        for (String candidate : candidates(10)) {
+            entry += CandidateCache.CANDIDATE_OVERHEAD + 2 * candidate.length();
+        }
+        CandidateCache cache = new CandidateCache(20 * entry);
+        for (int i = 0; i < 10; i++) {
+            cache.put("sha1:" + i, candidates(10));
+        }
+        assertEquals(10, cache.getSize());
+        assertEquals(10 * entry, cache.getBytes());
+
+        // Touch the eldest, so the next eldest is evicted
+        assertNotNull(cache.get("sha1:0", 1));
+        for (int i = 10; i < 21; i++) {
+            cache.put("sha1:" + (char) ('a' + i), candidates(10));
+        }
+        assertTrue(cache.getBytes() <= cache.getMaxBytes());
+        assertEquals(20, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(cache.get("sha1:0", 1));
+        assertNull(cache.get("sha1:1", 1));
+
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getBytes());
+    }
+
+    public void testLargeEntriesNotCached() {
+        CandidateCache cache = new CandidateCache(16 * 1024);
+        cache.put("sha1:A", candidates(100));
+        assertNull(cache.get("sha1:A", 1));
+        assertEquals(0, cache.getBytes());
+    }
+}
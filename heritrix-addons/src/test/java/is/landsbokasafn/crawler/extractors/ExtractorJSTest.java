@@ -0,0 +1,181 @@
+package is.landsbokasafn.crawler.extractors;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.extractor.Extractor;
+import org.archive.modules.extractor.ExtractorParameters;
+import org.archive.net.UURIFactory;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("deprecation")
+public class ExtractorJSTest extends TestCase {
+
+    /**
+     * Records the candidates considered, and streams its content from a byte array
+     */
+    static class TestExtractor extends ExtractorJS {
+        private static final long serialVersionUID = 1L;
+        final List<String> candidates = new ArrayList<>();
+        byte[] content;
+
+        TestExtractor() {
+            setStreaming(true);
+            setExtractorParameters(ExtractorParameters.DEFAULT);
+        }
+
+        @Override
+        protected boolean considerString(Extractor ext, CrawlURI curi, boolean handlingJSFile, String candidate) {
+            candidates.add(candidate);
+            return super.considerString(ext, curi, handlingJSFile, candidate);
+        }
+
+        @Override
+        protected long streamStrings(CrawlURI curi) throws IOException {
+            return streamStrings(curi, new ByteArrayInputStream(content), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Has a content digest and length, so its candidates can be cached
+     */
+    static class TestURI extends CrawlURI {
+        private static final long serialVersionUID = 1L;
+        final long length;
+
+        TestURI(long length) throws Exception {
+            super(UURIFactory.getInstance("http://example.is/lib.js"));
+            this.length = length;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public String getContentDigestSchemeString() {
+            return "sha1:TEST";
+        }
+    }
+
+    private static CrawlURI uri() throws Exception {
+        return new CrawlURI(UURIFactory.getInstance("http://example.is/lib.js"));
+    }
+
+    /**
+     * @return Content with <code>literal</code> in quotes starting at byte <code>offset</code>, padded to
+     *         <code>length</code> bytes
+     */
+    private static byte[] content(int offset, String literal, int length) {
+        StringBuilder s = new StringBuilder();
+        while (s.length() < offset - 1) {
+            s.append(';');
+        }
+        s.append('"').append(literal).append('"');
+        byte[] bytes = s.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] content = Arrays.copyOf(bytes, Math.max(length, bytes.length));
+        Arrays.fill(content, bytes.length, content.length, (byte) ';');
+        return content;
+    }
+
+    private static long stream(ExtractorJS extractor, CrawlURI curi, InputStream in) throws IOException {
+        return extractor.streamStrings(curi, in, StandardCharsets.UTF_8);
+    }
+
+    public void testLiteralSpanningWindows() throws Exception {
+        String literal = "http://example.is/scripts/a-long-enough-path/library.js";
+        for (int offset : new int[] { ExtractorJS.STREAM_WINDOW - 10, 2 * ExtractorJS.STREAM_WINDOW - 1 }) {
+            TestExtractor extractor = new TestExtractor();
+            CrawlURI curi = uri();
+            stream(extractor, curi, new ByteArrayInputStream(content(offset, literal, 3 * ExtractorJS.STREAM_WINDOW)));
+            assertEquals(Arrays.asList(literal), extractor.candidates);
+            assertFalse(curi.getAnnotations().contains("jsExtractionTruncated"));
+        }
+    }
+
+    public void testMultiByteCharactersSpanningWindows() throws Exception {
+        // Two, three and four bytes in UTF-8
+        String literal = "http://example.is/þ€😀/";
+        int window = ExtractorJS.STREAM_WINDOW;
+        // Puts each byte of each character at the window boundary in turn
+        for (int shift = 0; shift < 10; shift++) {
+            TestExtractor extractor = new TestExtractor();
+            int offset = window - "http://example.is/".length() - shift;
+            stream(extractor, uri(), new ByteArrayInputStream(content(offset, literal, 2 * window)));
+            assertEquals("shift " + shift, Arrays.asList(literal), extractor.candidates);
+        }
+    }
+
+    public void testMaxStreamedBytes() throws Exception {
+        String literal = "http://example.is/last.js";
+        byte[] content = content(3 * ExtractorJS.STREAM_WINDOW, literal, 0);
+
+        // Content of exactly the maximum length is not cut short
+        TestExtractor extractor = new TestExtractor();
+        extractor.setMaxStreamedBytes(content.length);
+        CrawlURI curi = uri();
+        stream(extractor, curi, new ByteArrayInputStream(content));
+        assertEquals(Arrays.asList(literal), extractor.candidates);
+        assertFalse(curi.getAnnotations().contains("jsExtractionTruncated"));
+        assertTrue(extractor.report().contains("stopped by size or time limit: 0\n"));
+
+        extractor = new TestExtractor();
+        extractor.setMaxStreamedBytes(content.length - 1);
+        curi = uri();
+        stream(extractor, curi, new ByteArrayInputStream(content));
+        assertTrue(extractor.candidates.isEmpty());
+        assertTrue(curi.getAnnotations().contains("jsExtractionTruncated"));
+        assertTrue(extractor.report().contains("stopped by size or time limit: 1\n"));
+    }
+
+    public void testMaxExtractionMillis() throws Exception {
+        String literal = "http://example.is/last.js";
+        byte[] content = content(10 * ExtractorJS.STREAM_WINDOW, literal, 0);
+        final int[] reads = new int[1];
+        InputStream slow = new ByteArrayInputStream(content) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                reads[0]++;
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.read(b, off, len);
+            }
+        };
+        TestExtractor extractor = new TestExtractor();
+        extractor.setMaxExtractionMillis(10);
+        CrawlURI curi = uri();
+        stream(extractor, curi, slow);
+        assertEquals(1, reads[0]);
+        assertTrue(extractor.candidates.isEmpty());
+        assertTrue(curi.getAnnotations().contains("jsExtractionTruncated"));
+    }
+
+    public void testTruncatedNotCached() throws Exception {
+        String literal = "http://example.is/last.js";
+        TestExtractor extractor = new TestExtractor();
+        extractor.content = content(2 * ExtractorJS.STREAM_WINDOW, literal, 0);
+        extractor.setCandidateCacheBytes(1 << 20);
+        extractor.setCandidateCacheMinLength(0);
+
+        extractor.setMaxStreamedBytes(ExtractorJS.STREAM_WINDOW);
+        assertTrue(extractor.innerExtract(new TestURI(extractor.content.length)));
+        assertEquals(0, extractor.getCandidateCache().getSize());
+
+        extractor.setMaxStreamedBytes(0);
+        assertTrue(extractor.innerExtract(new TestURI(extractor.content.length)));
+        assertEquals(1, extractor.getCandidateCache().getSize());
+        assertEquals(Arrays.asList(literal),
+                Arrays.asList(extractor.getCandidateCache().get("sha1:TEST", extractor.content.length)));
+    }
+}
@@ -0,0 +1,81 @@
+package is.landsbokasafn.crawler.extractors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class JavaScriptStringScannerTest extends TestCase {
+
+    private static List<String> scan(String js) {
+        List<String> found = new ArrayList<>();
+        JavaScriptStringScanner scanner = new JavaScriptStringScanner(found::add);
+        scanner.scan(js);
+        scanner.end();
+        return found;
+    }
+
+    public void testStringLiterals() {
+        assertEquals(Arrays.asList("/a/b.html", "http://example.com/", "c.js"),
+                scan("var a = '/a/b.html', b = \"http://example.com/\"; load(`c.js`);"));
+    }
+
+    public void testStructuralChecks() {
+        // No dot or slash, white space, markup
+        assertEquals(Arrays.asList("x.png"), scan("f('abc', 'a b/c', '<p>.', 'x.png')"));
+        JavaScriptStringScanner scanner = new JavaScriptStringScanner(s -> fail(s), 8);
+        scanner.scan("'/123456789.html'");
+        scanner.end();
+    }
+
+    public void testCodeBetweenLiteralsIgnored() {
+        // A regex over the whole content would also offer " + x + " and similar
+        assertEquals(Arrays.asList("/a/", "/b.html"), scan("u = '/a/' + x.y + '/b.html';"));
+    }
+
+    public void testComments() {
+        assertEquals(Arrays.asList("/real.js"),
+                scan("// see 'http://example.com/a'\n/* \"/b.html\" */ x = '/real.js'; /**/"));
+    }
+
+    public void testRegularExpressions() {
+        assertEquals(Arrays.asList("/a.html"), scan("x = /'/g; y = '/a.html'"));
+        assertEquals(Arrays.asList("/a.html"), scan("x = s.replace(/[/\"']/, '') || '/a.html'"));
+        assertEquals(Arrays.asList("/a.html"), scan("function f(s){return /\"/.test(s)} y = '/a.html'"));
+        // Division, not a regular expression
+        assertEquals(Arrays.asList("/a.html", "/b.html"), scan("x = a / 2 + '/a.html' + (b) / c + '/b.html'"));
+    }
+
+    public void testQuotedInsideLiteral() {
+        assertEquals(Arrays.asList("/x/y.html", "/img/a.png"),
+                scan("h = '<a href=\"/x/y.html\"><img src=\"/img/a.png\"></a>';"));
+        assertEquals(Arrays.asList("/x/y.html"), scan("h = \"<a href=\\\"/x/y.html\\\">\";"));
+        assertEquals(Arrays.asList("/x/y.html", "/z.html"), scan("h = '<a href=\\'/x/y.html\\'>' + \"/z.html\";"));
+    }
+
+    public void testEscapedLiteralKept() {
+        assertEquals(Arrays.asList("http:\\/\\/example.com\\/a.js", "it\\'s.js"),
+                scan("{\"u\":\"http:\\/\\/example.com\\/a.js\",\"v\":'it\\'s.js'}"));
+    }
+
+    public void testUnterminatedLiteral() {
+        assertEquals(Arrays.asList("/b.html"), scan("x = '/a.html\ny = '/b.html'; z = '/c.html"));
+    }
+
+    public void testSplitAnywhere() {
+        String js = "var a='/a.html';/* '/no' */b=x/2/y;c=/\"[/']/g.exec(\"<a href='/x.html'>\");"
+                + "d=\"http:\\/\\/e.com\\/\"; // '/no'\n e=`/t.js`;";
+        List<String> whole = scan(js);
+        assertEquals(Arrays.asList("/a.html", "/x.html", "http:\\/\\/e.com\\/", "/t.js"), whole);
+        for (int split = 0; split <= js.length(); split++) {
+            List<String> found = new ArrayList<>();
+            JavaScriptStringScanner scanner = new JavaScriptStringScanner(found::add);
+            char[] chars = js.toCharArray();
+            scanner.scan(chars, 0, split);
+            scanner.scan(chars, split, chars.length - split);
+            scanner.end();
+            assertEquals(whole, found);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package is.landsbokasafn.crawler.extractors;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.ProcessResult;
+import org.archive.modules.Processor;
+import org.archive.net.UURIFactory;
+import org.archive.spring.KeyedProperties;
+
+import junit.framework.TestCase;
+
+public class OffloadingExtractorTest extends TestCase {
+
+    static class TestURI extends CrawlURI {
+        private static final long serialVersionUID = 1L;
+        final long length;
+
+        TestURI(long length) throws Exception {
+            super(UURIFactory.getInstance("http://example.is/"));
+            this.length = length;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+    }
+
+    /**
+     * Records the thread it runs on
+     */
+    static class RecordingExtractor extends Processor {
+        volatile Thread thread;
+
+        @Override
+        protected boolean shouldProcess(CrawlURI uri) {
+            return true;
+        }
+
+        @Override
+        protected void innerProcess(CrawlURI uri) throws InterruptedException {
+            thread = Thread.currentThread();
+        }
+    }
+
+    /**
+     * Works until cancelled
+     */
+    static class SlowExtractor extends Processor {
+        volatile boolean sawCancel = false;
+
+        @Override
+        protected boolean shouldProcess(CrawlURI uri) {
+            return true;
+        }
+
+        @Override
+        protected void innerProcess(CrawlURI uri) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!OffloadingExtractor.isCancelled() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            sawCancel = OffloadingExtractor.isCancelled();
+        }
+    }
+
+    /**
+     * Ignores cancellation until released
+     */
+    static class StuckExtractor extends Processor {
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile boolean finished = false;
+
+        @Override
+        protected boolean shouldProcess(CrawlURI uri) {
+            return true;
+        }
+
+        @Override
+        protected void innerProcess(CrawlURI uri) throws InterruptedException {
+            release.await(10, TimeUnit.SECONDS);
+            finished = true;
+        }
+    }
+
+    static class FailingExtractor extends Processor {
+        @Override
+        protected boolean shouldProcess(CrawlURI uri) {
+            return true;
+        }
+
+        @Override
+        protected void innerProcess(CrawlURI uri) {
+            throw new IllegalStateException("broken");
+        }
+    }
+
+    private OffloadingExtractor offloader;
+
+    @Override
+    protected void setUp() {
+        offloader = new OffloadingExtractor();
+        offloader.setBeanName("offloader");
+        offloader.setMinOffloadLength(1000);
+        offloader.setParallelism(2);
+    }
+
+    @Override
+    protected void tearDown() {
+        offloader.stop();
+    }
+
+    public void testInlineAndOffloaded() throws Exception {
+        RecordingExtractor extractor = new RecordingExtractor();
+        offloader.setExtractors(Arrays.<Processor>asList(extractor));
+        offloader.start();
+
+        assertSame(ProcessResult.PROCEED, offloader.process(new TestURI(999)));
+        assertSame(Thread.currentThread(), extractor.thread);
+
+        assertSame(ProcessResult.PROCEED, offloader.process(new TestURI(1000)));
+        assertNotSame(Thread.currentThread(), extractor.thread);
+        assertTrue(extractor.thread.getName().startsWith("OffloadingExtractor-offloader-"));
+
+        String report = offloader.report();
+        assertTrue(report.contains("Extracted on ToeThreads: 1\n"));
+        assertTrue(report.contains("Extracted on pool: 1\n"));
+    }
+
+    public void testSheetOverlays() throws Exception {
+        RecordingExtractor extractor = new RecordingExtractor();
+        extractor.getKeyedProperties().addExternalPath("recordingExtractor");
+        offloader.setExtractors(Arrays.<Processor>asList(extractor));
+        offloader.start();
+
+        for (long length : new long[] { 999, 1000 }) {
+            TestURI curi = new TestURI(length);
+            curi.setOverlayMapsSource(name -> "noExtraction".equals(name)
+                    ? Collections.<String, Object>singletonMap("recordingExtractor.enabled", false) : null);
+            curi.getOverlayNames().add("noExtraction");
+            extractor.thread = null;
+            // As the ToeThread does
+            KeyedProperties.loadOverlaysFrom(curi);
+            try {
+                assertSame(ProcessResult.PROCEED, offloader.process(curi));
+            } finally {
+                KeyedProperties.clearOverlaysFrom(curi);
+            }
+            assertNull("length " + length, extractor.thread);
+
+            offloader.process(new TestURI(length));
+            assertNotNull("length " + length, extractor.thread);
+        }
+    }
+
+    public void testTimeout() throws Exception {
+        SlowExtractor extractor = new SlowExtractor();
+        offloader.setExtractors(Arrays.<Processor>asList(extractor));
+        offloader.setTimeoutMillis(50);
+        offloader.start();
+
+        CrawlURI curi = new TestURI(1000);
+        assertSame(ProcessResult.PROCEED, offloader.process(curi));
+        assertTrue(extractor.sawCancel);
+        assertTrue(curi.getAnnotations().contains("extractionTimeout"));
+        assertFalse(OffloadingExtractor.isCancelled());
+        assertTrue(offloader.report().contains("Timed out: 1\n"));
+    }
+
+    /**
+     * The URI does not move on while an extractor that ignores cancellation is still working on it
+     */
+    public void testSlowToStop() throws Exception {
+        final StuckExtractor extractor = new StuckExtractor();
+        offloader.setExtractors(Arrays.<Processor>asList(extractor));
+        offloader.setTimeoutMillis(20);
+        offloader.setCancelWaitMillis(20);
+        offloader.start();
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                // Release early
+            }
+            extractor.release.countDown();
+        });
+        releaser.start();
+        try {
+            CrawlURI curi = new TestURI(1000);
+            assertSame(ProcessResult.PROCEED, offloader.process(curi));
+            assertTrue(extractor.finished);
+            assertTrue(curi.getAnnotations().contains("extractionTimeout"));
+            assertTrue(offloader.report().contains("Slow to stop after timing out: 1\n"));
+        } finally {
+            extractor.release.countDown();
+            releaser.join();
+        }
+    }
+
+    public void testRuntimeExceptionReachesCaller() throws Exception {
+        offloader.setExtractors(Arrays.<Processor>asList(new FailingExtractor()));
+        offloader.start();
+        for (long length : new long[] { 0, 1000 }) {
+            try {
+                offloader.process(new TestURI(length));
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("broken", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package is.landsbokasafn.crawler.extractors;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import is.landsbokasafn.crawler.extractors.RelativeLinkRejectFilter.Reason;
+import junit.framework.TestCase;
+
+public class RelativeLinkRejectFilterTest extends TestCase {
+
+    public void testReasons() {
+        RelativeLinkRejectFilter filter = new RelativeLinkRejectFilter(
+                new HashSet<>(Arrays.asList("text/javascript", "a/b")),
+                Arrays.asList(".*\\.min$", "^/api/v[0-9]+/.*"));
+        assertNull(filter.reject("/a/b.html"));
+        assertNull(filter.reject("http://example.com/x/../@y"));
+        assertEquals(Reason.DOT_SEGMENT, filter.reject("/a/../b.html"));
+        assertEquals(Reason.AT_SIGN, filter.reject("me@example.com"));
+        char[] longLink = new char[RelativeLinkRejectFilter.MAX_LENGTH + 1];
+        Arrays.fill(longLink, 'a');
+        assertEquals(Reason.TOO_LONG, filter.reject(new String(longLink)));
+        assertEquals(Reason.IGNORE_LIST, filter.reject("text/javascript"));
+        assertNull(filter.reject("text/javascripts"));
+        assertEquals(Reason.REGEX, filter.reject("/API/V2/items"));
+        assertEquals(Reason.REGEX, filter.reject("jquery.MIN"));
+        assertNull(RelativeLinkRejectFilter.EMPTY.reject("a/b"));
+    }
+
+    public void testCombinable() {
+        assertTrue(RelativeLinkRejectFilter.isCombinable(".*\\.js\\?v=[0-9]+"));
+        assertTrue(RelativeLinkRejectFilter.isCombinable("(?i)(a|b)/(?:c)"));
+        assertFalse(RelativeLinkRejectFilter.isCombinable("(a)/\\1"));
+        assertFalse(RelativeLinkRejectFilter.isCombinable("(?<x>a)/\\k<x>"));
+        assertFalse(RelativeLinkRejectFilter.isCombinable("\\Q/a.b"));
+        assertFalse(RelativeLinkRejectFilter.isCombinable("(?x) a # comment"));
+    }
+
+    public void testUncombinableStillMatched() {
+        RelativeLinkRejectFilter filter = new RelativeLinkRejectFilter(Collections.<String>emptySet(),
+                Arrays.asList("([a-z]+)/\\1", "(?<n>x)y", "(?<n>z)y", "\\Q/a.b", "(?x) /c  # the c"));
+        assertEquals(Reason.REGEX, filter.reject("ab/ab"));
+        assertNull(filter.reject("ab/ac"));
+        assertEquals(Reason.REGEX, filter.reject("xy"));
+        assertEquals(Reason.REGEX, filter.reject("zy"));
+        assertEquals(Reason.REGEX, filter.reject("/a.b"));
+        assertNull(filter.reject("/axb"));
+        assertEquals(Reason.REGEX, filter.reject("/c"));
+    }
+
+    /**
+     * Compare with matching every expression in turn, as ExtractorJS used to do.
+     */
+    public void testSameAsSequentialMatching() {
+        List<String> regexes = Arrays.asList(".*/[0-9]+$", "^[a-z]+/[a-z]+$", ".*\\.(png|gif)", "x.*",
+                ".*/a/.*", "b+/?");
+        Set<String> ignore = new HashSet<>(Arrays.asList("a/b", "ab/", "q"));
+        RelativeLinkRejectFilter filter = new RelativeLinkRejectFilter(ignore, regexes);
+        Pattern[] patterns = new Pattern[regexes.size()];
+        for (int i = 0; i < patterns.length; i++) {
+            patterns[i] = Pattern.compile(regexes.get(i), Pattern.CASE_INSENSITIVE);
+        }
+
+        Random random = new Random(7);
+        String alphabet = "ab/.@xq0159GPNnpgfi";
+        for (int n = 0; n < 20000; n++) {
+            StringBuilder link = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int i = 0; i < length; i++) {
+                link.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String s = link.toString();
+            boolean expected = s.contains("/.") || s.contains("@") || ignore.contains(s);
+            for (Pattern p : patterns) {
+                expected |= p.matcher(s).matches();
+            }
+            assertEquals(s, expected, filter.reject(s) != null);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package is.landsbokasafn.crawler.frontier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+import junit.framework.TestCase;
+
+public class AdaptiveQueueAssignmentPolicyTest extends TestCase {
+
+    private static final int THREADS = 50;
+
+    public void testSplit() {
+        AdaptiveQueueAssignmentPolicy policy = new AdaptiveQueueAssignmentPolicy();
+        policy.setSplitQueues(4);
+        policy.setSplitThreshold(10);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("example.is", policy.getClassKey("example.is", "http://example.is/page" + i));
+        }
+        assertTrue(policy.getSplitQueueKeys().isEmpty());
+
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String uri = "http://example.is/page" + i;
+            String key = policy.getClassKey("example.is", uri);
+            // Stable
+            assertSame(key, policy.getClassKey("example.is", uri));
+            keys.add(key);
+        }
+        assertEquals(4, keys.size());
+        assertTrue(keys.contains("example.is"));
+        assertTrue(keys.contains("example.is!3"));
+        assertEquals(1, policy.getSplitQueueKeys().size());
+    }
+
+    public void testFold() {
+        AdaptiveQueueAssignmentPolicy policy = new AdaptiveQueueAssignmentPolicy();
+        policy.setFoldQueues(10);
+        Set<String> keys = new HashSet<>();
+        for (int host = 0; host < 1000; host++) {
+            String first = policy.getClassKey("site" + host + ".is", "http://site" + host + ".is/");
+            for (int page = 0; page < 5; page++) {
+                assertSame(first, policy.getClassKey("site" + host + ".is", "http://site" + host + ".is/p" + page));
+            }
+            assertTrue(first.startsWith(AdaptiveQueueAssignmentPolicy.FOLDED_QUEUE_PREFIX));
+            keys.add(first);
+        }
+        assertEquals(10, keys.size());
+    }
+
+    /**
+     * The key of a URI that already has one, e.g. one that is being retried, is not split or folded again
+     */
+    public void testClassKeyOfAssignedURI() throws Exception {
+        AdaptiveQueueAssignmentPolicy policy = new AdaptiveQueueAssignmentPolicy();
+        policy.setFoldQueues(10);
+        for (int host = 0; host < 100; host++) {
+            CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://site" + host + ".is/"));
+            String key = policy.getClassKey(curi);
+            assertTrue(key.startsWith(AdaptiveQueueAssignmentPolicy.FOLDED_QUEUE_PREFIX));
+            curi.setClassKey(key);
+            assertEquals(key, policy.getClassKey(curi));
+        }
+
+        policy = new AdaptiveQueueAssignmentPolicy();
+        policy.setSplitQueues(4);
+        policy.setSplitThreshold(10);
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://example.is/page" + i));
+            String key = policy.getClassKey(curi);
+            curi.setClassKey(key);
+            assertEquals(key, policy.getClassKey(curi));
+            keys.add(key);
+        }
+        assertEquals(4, keys.size());
+        assertEquals(1, policy.getSplitQueueKeys().size());
+    }
+
+    public void testPathHash() {
+        assertEquals(AdaptiveQueueAssignmentPolicy.pathHash("http://a.is/x?y"),
+                AdaptiveQueueAssignmentPolicy.pathHash("https://b.is:8443/x?y"));
+        assertEquals(0, AdaptiveQueueAssignmentPolicy.pathHash("http://a.is"));
+    }
+
+    /**
+     * A frontier of one large site and many small ones, crawled by a fixed number of threads where a queue can
+     * only be worked on by one thread at a time and every URI takes one time unit. Splitting the large site
+     * shortens the time until the last URI is crawled.
+     * <p>
+     * The simulation ignores the politeness delay between URIs of a queue. The speed-up therefore only holds when
+     * the crawl sheet does not scale that delay up with <code>splitQueues</code> to keep the load on the site as
+     * it was.
+     */
+    public void testSplittingShortensCrawl() {
+        AdaptiveQueueAssignmentPolicy plain = new AdaptiveQueueAssignmentPolicy();
+        AdaptiveQueueAssignmentPolicy adaptive = new AdaptiveQueueAssignmentPolicy();
+        adaptive.setSplitQueues(20);
+        adaptive.setSplitThreshold(1000);
+
+        Map<String, Integer> plainQueues = new HashMap<>();
+        Map<String, Integer> adaptiveQueues = new HashMap<>();
+        for (String[] uri : frontier()) {
+            plainQueues.merge(plain.getClassKey(uri[0], uri[1]), 1, Integer::sum);
+            adaptiveQueues.merge(adaptive.getClassKey(uri[0], uri[1]), 1, Integer::sum);
+        }
+        assertEquals(201, plainQueues.size());
+        assertEquals(220, adaptiveQueues.size());
+
+        long plainTime = crawlTime(plainQueues.values());
+        long adaptiveTime = crawlTime(adaptiveQueues.values());
+        // The single queue of the large site decides the length of the crawl
+        assertEquals(20000, plainTime);
+        assertTrue("Crawl took " + adaptiveTime, adaptiveTime < plainTime / 5);
+        // Lower bound is the total work spread over all threads
+        assertTrue(adaptiveTime >= 30000 / THREADS);
+    }
+
+    private static List<String[]> frontier() {
+        List<String[]> uris = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            uris.add(new String[] { "big.is", "http://big.is/news/" + (i / 100) + "/article" + i + ".html" });
+            if (i < 10000) {
+                int host = i % 200;
+                uris.add(new String[] { "small" + host + ".is", "http://small" + host + ".is/page" + i });
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * @return Time units until every queue is empty, when each unit the threads take one URI from each of the
+     *         longest non-empty queues
+     */
+    private static long crawlTime(Iterable<Integer> queueSizes) {
+        PriorityQueue<int[]> queues = new PriorityQueue<>((a, b) -> Integer.compare(b[0], a[0]));
+        for (int size : queueSizes) {
+            queues.add(new int[] { size });
+        }
+        long time = 0;
+        List<int[]> working = new ArrayList<>(THREADS);
+        while (!queues.isEmpty()) {
+            time++;
+            for (int t = 0; t < THREADS && !queues.isEmpty(); t++) {
+                working.add(queues.poll());
+            }
+            for (int[] queue : working) {
+                if (--queue[0] > 0) {
+                    queues.add(queue);
+                }
+            }
+            working.clear();
+        }
+        return time;
+    }
+}
@@ -1,5 +1,7 @@
 package is.landsbokasafn.crawler.frontier;
 
+import java.util.Random;
+
 import junit.framework.TestCase;
 
 public class HostnameQueueAssignmentPolicyWithLimitsTest extends TestCase {
@@ -29,5 +31,56 @@ public class HostnameQueueAssignmentPolicyWithLimitsTest extends TestCase {
 		assertEquals("subdomain.example.com", policy.getLimitedHostname("www.subdomain.example.com", 3));
 		assertEquals("subdomain.example.com", policy.getLimitedHostname("another.www.subdomain.example.com", 3));
 		
+		// Trailing dots are dropped when limiting, as by String.split
+		assertEquals("example.com", policy.getLimitedHostname("www.example.com.", 2));
+		assertEquals("www.example.com.", policy.getLimitedHostname("www.example.com.", 3));
+	}
+
+	public void testSameAsSplit(){
+		HostnameQueueAssignmentPolicyWithLimits policy = new HostnameQueueAssignmentPolicyWithLimits();
+		Random random = new Random(11);
+		String alphabet = "ab..#4";
+		for (int n = 0; n < 20000; n++) {
+			StringBuilder hostname = new StringBuilder();
+			int length = random.nextInt(10);
+			for (int i = 0; i < length; i++) {
+				hostname.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			int limit = random.nextInt(6) - 1;
+			assertEquals(hostname + " " + limit, splitLimitedHostname(hostname.toString(), limit), 
+					policy.getLimitedHostname(hostname.toString(), limit));
+		}
+	}
+
+	public void testCachedKeysShared(){
+		HostnameQueueAssignmentPolicyWithLimits policy = new HostnameQueueAssignmentPolicyWithLimits();
+		QueueKeyCache cache = policy.getQueueKeyCache();
+		String key = cache.get("www.example.com", 2);
+		assertEquals("example.com", key);
+		assertSame(key, cache.get(new String("www.example.com"), 2));
+		assertSame(key, cache.get("sub.example.com", 2));
+		assertEquals("www.example.com", cache.get("www.example.com", 3));
+		assertEquals(1, cache.getHits());
+		assertEquals(3, cache.getMisses());
+	}
+
+	/**
+	 * The original implementation
+	 */
+	private static String splitLimitedHostname(String hostname, int limit){
+		if (limit <= 0) {
+			return hostname;
+		}
+		String[] domains = hostname.split("\\.");
+		if (limit>=domains.length) {
+			return hostname;
+		}
+		StringBuffer limitedHostname = new StringBuffer();
+		for (int i=domains.length-limit ; i<domains.length-1 ; i++){
+			limitedHostname.append(domains[i]);
+			limitedHostname.append(".");
+		}
+		limitedHostname.append(domains[domains.length-1]);
+		return limitedHostname.toString();
 	}
 }
@@ -0,0 +1,60 @@
+package is.landsbokasafn.crawler.frontier;
+
+import java.net.InetAddress;
+
+import org.archive.modules.net.CrawlHost;
+
+import junit.framework.TestCase;
+
+public class IpAddressQueueAssignmentPolicyTest extends TestCase {
+
+    public void testIPv4Key() {
+        assertEquals("192.0.2.17", IpAddressQueueAssignmentPolicy.getNetworkKey("192.0.2.17", 32));
+        assertEquals("192.0.2.0/24", IpAddressQueueAssignmentPolicy.getNetworkKey("192.0.2.17", 24));
+        assertEquals("192.0.2.16/28", IpAddressQueueAssignmentPolicy.getNetworkKey("192.0.2.17", 28));
+        assertEquals("128.0.0.0/1", IpAddressQueueAssignmentPolicy.getNetworkKey("255.0.2.17", 1));
+        assertEquals("0.0.0.0/0", IpAddressQueueAssignmentPolicy.getNetworkKey("192.0.2.17", 0));
+        assertEquals("192.0.2.17", IpAddressQueueAssignmentPolicy.getNetworkKey("192.0.2.17", 40));
+    }
+
+    public void testIPv6Key() {
+        assertEquals("2001:db8:0:0:0:0:0:1", IpAddressQueueAssignmentPolicy.getNetworkKey("2001:db8::1", 128));
+        assertEquals("2001:db8:0:1:0:0:0:0/64",
+                IpAddressQueueAssignmentPolicy.getNetworkKey("2001:db8:0:1:a:b:c:d", 64));
+        assertEquals("2001:db8:0:0:0:0:0:0/48",
+                IpAddressQueueAssignmentPolicy.getNetworkKey("2001:db8:0:1:a:b:c:d", 48));
+        assertEquals("2001:db8:0:1:a:b:c:0/120",
+                IpAddressQueueAssignmentPolicy.getNetworkKey("2001:db8:0:1:a:b:c:d", 120));
+        assertEquals("2001:db8:0:0:0:0:0:1",
+                IpAddressQueueAssignmentPolicy.getNetworkKey("2001:db8:0:0:0:0:0:1%eth0", 128));
+        assertEquals("not-an-address", IpAddressQueueAssignmentPolicy.getNetworkKey("not-an-address", 24));
+    }
+
+    public void testHostKey() throws Exception {
+        IpAddressQueueAssignmentPolicy policy = new IpAddressQueueAssignmentPolicy();
+        policy.setIpv4PrefixLength(24);
+
+        CrawlHost a = new CrawlHost("a.example.is");
+        CrawlHost b = new CrawlHost("b.example.is");
+        // Not resolved yet
+        assertNull(policy.getCoreKey(a));
+
+        a.setIP(InetAddress.getByName("192.0.2.10"), 3600);
+        b.setIP(InetAddress.getByName("192.0.2.20"), 3600);
+        String key = policy.getCoreKey(a);
+        assertEquals("192.0.2.0/24", key);
+        // Hosts on the same network share a queue
+        assertSame(key, policy.getCoreKey(b));
+
+        // Moved to another server
+        b.setIP(InetAddress.getByName("198.51.100.20"), 3600);
+        assertEquals("198.51.100.0/24", policy.getCoreKey(b));
+
+        policy.setIpv4PrefixLength(32);
+        assertEquals("192.0.2.10", policy.getCoreKey(a));
+
+        CrawlHost c = new CrawlHost("c.example.is");
+        c.setIP(InetAddress.getByName("2001:db8::5"), 3600);
+        assertEquals("2001:db8:0:0:0:0:0:0/64", policy.getCoreKey(c));
+    }
+}
@@ -0,0 +1,70 @@
+package is.landsbokasafn.crawler.frontier;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import junit.framework.TestCase;
+
+public class QueueIdTableTest extends TestCase {
+
+    public void testIds() {
+        QueueIdTable table = new QueueIdTable();
+        assertEquals(0, table.getId("example.is"));
+        assertEquals(1, table.getId("example.com#443"));
+        assertEquals(0, table.getId(new String("example.is")));
+        assertEquals("example.com#443", table.getName(1));
+        assertNull(table.getName(2));
+        assertEquals(2, table.size());
+    }
+
+    public void testConcurrentIds() throws Exception {
+        final QueueIdTable table = new QueueIdTable();
+        final ConcurrentMap<String, Integer> seen = new ConcurrentHashMap<>();
+        List<Thread> threads = new ArrayList<>();
+        final List<String> failures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    String name = "host" + (i % 1000) + ".is";
+                    int id = table.getId(name);
+                    Integer previous = seen.putIfAbsent(name, id);
+                    if (previous != null && previous != id) {
+                        synchronized (failures) {
+                            failures.add(name);
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(failures.isEmpty());
+        assertEquals(1000, table.size());
+        for (int id = 0; id < 1000; id++) {
+            assertEquals(id, table.getId(table.getName(id)));
+        }
+    }
+
+    public void testSaveAndLoad() throws Exception {
+        QueueIdTable table = new QueueIdTable();
+        table.getId("a.is");
+        table.getId("b.is");
+        table.getId("c.is");
+        StringWriter out = new StringWriter();
+        table.save(out);
+        assertEquals("0\ta.is\n1\tb.is\n2\tc.is\n", out.toString());
+
+        QueueIdTable recovered = new QueueIdTable();
+        recovered.load(new StringReader(out.toString() + "bad\tline\n"));
+        assertEquals(3, recovered.size());
+        assertEquals(1, recovered.getId("b.is"));
+        assertEquals(3, recovered.getId("d.is"));
+    }
+}
@@ -0,0 +1,80 @@
+package is.landsbokasafn.crawler.frontier;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class RegistrableDomainQueueAssignmentPolicyTest extends TestCase {
+
+    private static final String LIST = "// Comment\n"
+            + "is\n"
+            + "com\n"
+            + "uk\n"
+            + "co.uk\n"
+            + "\n"
+            + "// Wildcard and exception\n"
+            + "*.ck\n"
+            + "!www.ck\n"
+            + "jp\n"
+            + "*.kawasaki.jp\n"
+            + "!city.kawasaki.jp\n"
+            + "// Internationalized\n"
+            + "иком.museum\n"
+            + PublicSuffixTrie.PRIVATE_DOMAINS_BEGIN + "\n"
+            + "blogspot.com\n";
+
+    private static int suffix(PublicSuffixTrie trie, String host) {
+        return trie.publicSuffixLabels(host, 0, host.length());
+    }
+
+    public void testPublicSuffixes() throws IOException {
+        PublicSuffixTrie trie = PublicSuffixTrie.parse(new StringReader(LIST), false);
+        assertEquals(10, trie.getRuleCount());
+        assertEquals(1, suffix(trie, "example.is"));
+        assertEquals(1, suffix(trie, "www.example.IS"));
+        assertEquals(2, suffix(trie, "www.example.co.uk"));
+        assertEquals(2, suffix(trie, "co.uk"));
+        assertEquals(1, suffix(trie, "example.uk"));
+        // No rule, so under a top level domain
+        assertEquals(1, suffix(trie, "www.example.org"));
+        assertEquals(1, suffix(trie, "com"));
+        // Wildcards, where the host may be shorter than the suffix
+        assertEquals(2, suffix(trie, "www.example.ck"));
+        assertEquals(2, suffix(trie, "example.ck"));
+        assertEquals(1, suffix(trie, "www.ck"));
+        assertEquals(3, suffix(trie, "a.b.kawasaki.jp"));
+        assertEquals(2, suffix(trie, "city.kawasaki.jp"));
+        assertEquals(2, suffix(trie, "xn--h1aegh.museum"));
+        // Private domains left out
+        assertEquals(1, suffix(trie, "example.blogspot.com"));
+        assertEquals(2, suffix(PublicSuffixTrie.parse(new StringReader(LIST), true), "example.blogspot.com"));
+        // Part of a longer sequence
+        assertEquals(2, new PublicSuffixTrie(Arrays.asList("co.uk")).publicSuffixLabels("x www.a.co.uk#80", 2, 13));
+    }
+
+    public void testGetRegistrableDomain() {
+        RegistrableDomainQueueAssignmentPolicy policy = new RegistrableDomainQueueAssignmentPolicy();
+        policy.setPublicSuffixSource(() -> new StringReader(LIST));
+
+        assertEquals("example.is", policy.getRegistrableDomain("example.is", 0));
+        assertEquals("example.is", policy.getRegistrableDomain("www.example.is", 0));
+        assertEquals("example.co.uk", policy.getRegistrableDomain("a.b.example.co.uk", 0));
+        assertEquals("b.example.co.uk", policy.getRegistrableDomain("a.b.example.co.uk", 1));
+        assertEquals("co.uk", policy.getRegistrableDomain("co.uk", 0));
+        assertEquals("example.com#443", policy.getRegistrableDomain("www.example.com#443", 0));
+        assertEquals("example.com", policy.getRegistrableDomain("www.example.com.", 0));
+        assertEquals("example.kawasaki.jp", policy.getRegistrableDomain("example.kawasaki.jp", 0));
+        assertEquals("x.example.kawasaki.jp", policy.getRegistrableDomain("www.x.example.kawasaki.jp", 0));
+        assertEquals("city.kawasaki.jp", policy.getRegistrableDomain("www.city.kawasaki.jp", 0));
+        assertEquals("192.168.1.1#8080", policy.getRegistrableDomain("192.168.1.1#8080", 0));
+        assertEquals("[2001:db8::1]", policy.getRegistrableDomain("[2001:db8::1]", 0));
+    }
+
+    public void testWithoutList() {
+        RegistrableDomainQueueAssignmentPolicy policy = new RegistrableDomainQueueAssignmentPolicy();
+        assertEquals("example.is", policy.getRegistrableDomain("www.example.is", 0));
+        assertEquals("co.uk", policy.getRegistrableDomain("example.co.uk", 0));
+    }
+}
@@ -0,0 +1,62 @@
+package is.landsbokasafn.crawler.frontier;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SurtAuthorityQueueAssignmentPolicyWithLimitsTest extends TestCase {
+
+	public void testGetLimitedSurtAuthority(){
+		SurtAuthorityQueueAssignmentPolicyWithLimits policy = new SurtAuthorityQueueAssignmentPolicyWithLimits();
+
+		assertEquals("com,example,www,", policy.getLimitedSurtAuthority("com,example,www,", -1));
+		assertEquals("com,example,", policy.getLimitedSurtAuthority("com,example,", 2));
+		assertEquals("com,example,", policy.getLimitedSurtAuthority("com,example,www,", 2));
+		assertEquals("com,example,", policy.getLimitedSurtAuthority("com,example,subdomain,www,", 2));
+		assertEquals("com,example,#443", policy.getLimitedSurtAuthority("com,example,www,#443", 2));
+		assertEquals("com,example,subdomain,", policy.getLimitedSurtAuthority("com,example,subdomain,www,", 3));
+	}
+
+	public void testSameAsSplit(){
+		SurtAuthorityQueueAssignmentPolicyWithLimits policy = new SurtAuthorityQueueAssignmentPolicyWithLimits();
+		Random random = new Random(13);
+		String alphabet = "ab,,,#4";
+		for (int n = 0; n < 20000; n++) {
+			StringBuilder surt = new StringBuilder();
+			int length = random.nextInt(12);
+			for (int i = 0; i < length; i++) {
+				surt.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			int limit = random.nextInt(6) - 1;
+			assertEquals(surt + " " + limit, splitLimitedSurtAuthority(surt.toString(), limit), 
+					policy.getLimitedSurtAuthority(surt.toString(), limit));
+		}
+	}
+
+	/**
+	 * The original implementation
+	 */
+	private static String splitLimitedSurtAuthority(String surt, int limit){
+		if (limit <= 0) {
+			return surt;
+		}
+		String domainPart = surt;
+		String portPart = "";
+		int indexOfHash = surt.indexOf('#');
+		if (indexOfHash>-1) {
+			domainPart = surt.substring(0,indexOfHash);
+			portPart = surt.substring(indexOfHash);
+		}
+		String[] segments = domainPart.split(",");
+		if (limit>=segments.length) {
+			return surt;
+		}
+		StringBuffer limitedSurt = new StringBuffer();
+		for (int i=0 ; i<limit ; i++){
+			limitedSurt.append(segments[i]);
+			limitedSurt.append(",");
+		}
+		limitedSurt.append(portPart);
+		return limitedSurt.toString();
+	}
+}
@@ -0,0 +1,34 @@
+package is.landsbokasafn.crawler.processors;
+
+import junit.framework.TestCase;
+
+public class DiskPressureThrottleTest extends TestCase {
+
+    private static final long GB = 1024L * 1024 * 1024;
+
+    public void testThreads() {
+        DiskPressureThrottle throttle = new DiskPressureThrottle(10 * GB, 2 * GB, GB);
+        assertEquals(100, throttle.getThreads(20 * GB, 100));
+        assertEquals(100, throttle.getThreads(10 * GB, 100));
+        assertEquals(50, throttle.getThreads(6 * GB, 100));
+        assertEquals(25, throttle.getThreads(4 * GB, 100));
+        assertEquals(1, throttle.getThreads(2 * GB + 1, 100));
+        assertEquals(1, throttle.getThreads(GB, 100));
+        assertEquals(0, throttle.getThreads(GB, 0));
+    }
+
+    public void testNoSoftThreshold() {
+        DiskPressureThrottle throttle = new DiskPressureThrottle(0, 2 * GB, GB);
+        assertEquals(100, throttle.getThreads(3 * GB, 100));
+        assertTrue(throttle.shouldPause(GB));
+    }
+
+    public void testHysteresis() {
+        DiskPressureThrottle throttle = new DiskPressureThrottle(10 * GB, 2 * GB, GB);
+        assertTrue(throttle.shouldPause(2 * GB - 1));
+        assertFalse(throttle.shouldPause(2 * GB));
+        assertFalse(throttle.shouldResume(2 * GB));
+        assertFalse(throttle.shouldResume(3 * GB - 1));
+        assertTrue(throttle.shouldResume(3 * GB));
+    }
+}
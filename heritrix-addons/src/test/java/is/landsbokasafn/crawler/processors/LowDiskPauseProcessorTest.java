@@ -0,0 +1,222 @@
+package is.landsbokasafn.crawler.processors;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import is.landsbokasafn.crawler.writer.StripingWARCWriterChainProcessor;
+import junit.framework.TestCase;
+
+public class LowDiskPauseProcessorTest extends TestCase {
+
+    private static final long KB = 1024;
+    private static final long GB = 1024 * 1024 * KB;
+
+    /** Stands in for the file system and the crawl controller */
+    private static class FakeCrawl extends LowDiskPauseProcessor implements DiskSpaceProvider {
+        final Map<String, Long> space = new HashMap<>();
+        boolean paused = false;
+        int pauses = 0;
+        int resumes = 0;
+        int threads = 50;
+
+        FakeCrawl() {
+            setDiskSpaceProvider(this);
+            setMonitorMounts(Arrays.asList("/a", "/b"));
+            setPressureResponse(true);
+            setPauseThresholdKb(2 * GB / KB);
+            setSoftThresholdKb(12 * GB / KB);
+            setResumeMarginKb(GB / KB);
+            space.put("/a", 100 * GB);
+            space.put("/b", 100 * GB);
+        }
+
+        @Override
+        public long getUsableSpace(String mount) {
+            return space.get(mount);
+        }
+
+        @Override
+        protected boolean isCrawlPaused() {
+            return paused;
+        }
+
+        @Override
+        protected void requestCrawlPause() {
+            paused = true;
+            pauses++;
+        }
+
+        @Override
+        protected void requestCrawlResume() {
+            paused = false;
+            resumes++;
+        }
+
+        @Override
+        protected int getMaxToeThreads() {
+            return threads;
+        }
+
+        @Override
+        protected void setMaxToeThreads(int threads) {
+            this.threads = threads;
+        }
+    }
+
+    public void testThrottleAndRestore() {
+        FakeCrawl crawl = new FakeCrawl();
+        crawl.checkAvailableSpace();
+        assertEquals(50, crawl.threads);
+
+        crawl.space.put("/b", 7 * GB);
+        crawl.checkAvailableSpace();
+        assertEquals(25, crawl.threads);
+        assertFalse(crawl.paused);
+
+        crawl.space.put("/b", 4 * GB);
+        crawl.checkAvailableSpace();
+        assertEquals(10, crawl.threads);
+
+        crawl.space.put("/b", 50 * GB);
+        crawl.checkAvailableSpace();
+        assertEquals(50, crawl.threads);
+    }
+
+    public void testPauseAndResume() {
+        FakeCrawl crawl = new FakeCrawl();
+        crawl.space.put("/a", GB);
+        crawl.checkAvailableSpace();
+        assertTrue(crawl.paused);
+        crawl.checkAvailableSpace();
+        assertEquals(1, crawl.pauses);
+
+        // Within the hysteresis band, stays paused
+        crawl.space.put("/a", 2 * GB + GB / 2);
+        crawl.checkAvailableSpace();
+        assertTrue(crawl.paused);
+
+        // WARCs moved off
+        crawl.space.put("/a", 7 * GB);
+        crawl.checkAvailableSpace();
+        assertFalse(crawl.paused);
+        assertEquals(1, crawl.resumes);
+        // Resumed with reduced threads until space is above the soft threshold
+        assertEquals(25, crawl.threads);
+
+        crawl.space.put("/a", 20 * GB);
+        crawl.checkAvailableSpace();
+        assertEquals(50, crawl.threads);
+    }
+
+    /**
+     * A mount the striping writer no longer puts files on does not slow the crawl down
+     */
+    public void testDrainedMountNotThrottled() {
+        FakeCrawl crawl = new FakeCrawl();
+        StripingWARCWriterChainProcessor writer = new StripingWARCWriterChainProcessor() {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected List<File> getStoreDirs() {
+                return Arrays.asList(new File("/a/warcs"), new File("/b/warcs"));
+            }
+        };
+        writer.setDrainThresholdKb(4 * GB / KB);
+        writer.setLowDiskPauseProcessor(crawl);
+
+        // Drained, and within the soft threshold
+        crawl.space.put("/a", 3 * GB);
+        crawl.checkAvailableSpace();
+        assertEquals(50, crawl.threads);
+        assertFalse(crawl.paused);
+        assertTrue(crawl.report().contains("no new files"));
+        assertEquals(Arrays.asList(new File("/b/warcs")), writer.calcOutputDirs());
+
+        // The mount still being written to is
+        crawl.space.put("/b", 7 * GB);
+        crawl.checkAvailableSpace();
+        assertEquals(25, crawl.threads);
+
+        // Both drained, files still have to go somewhere
+        crawl.space.put("/b", 4 * GB);
+        crawl.checkAvailableSpace();
+        assertEquals(5, crawl.threads);
+
+        // A drained mount below the pause threshold still pauses
+        crawl.space.put("/b", 100 * GB);
+        crawl.space.put("/a", GB);
+        crawl.checkAvailableSpace();
+        assertTrue(crawl.paused);
+
+        // Without the writer, the drained mount slows the crawl down
+        FakeCrawl alone = new FakeCrawl();
+        alone.space.put("/a", 3 * GB);
+        alone.checkAvailableSpace();
+        assertTrue(alone.threads < 50);
+    }
+
+    /**
+     * Without pressureResponse, a drained mount is not paused for ahead of time, as the rate it was written at
+     * no longer applies
+     */
+    public void testDrainedMountNotPausedAhead() throws InterruptedException {
+        FakeCrawl crawl = new FakeCrawl();
+        crawl.setPressureResponse(false);
+        crawl.setPauseAheadSeconds(3600);
+        StripingWARCWriterChainProcessor writer = new StripingWARCWriterChainProcessor() {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected List<File> getStoreDirs() {
+                return Arrays.asList(new File("/a/warcs"), new File("/b/warcs"));
+            }
+        };
+        writer.setDrainThresholdKb(4 * GB / KB);
+        writer.setLowDiskPauseProcessor(crawl);
+        FakeCrawl alone = new FakeCrawl();
+        alone.setPressureResponse(false);
+        alone.setPauseAheadSeconds(3600);
+
+        // Last files still being closed on /a after it was drained
+        for (FakeCrawl c : Arrays.asList(crawl, alone)) {
+            c.space.put("/a", 3 * GB + 10 * KB * KB);
+            c.checkAvailableSpace();
+        }
+        Thread.sleep(100);
+        for (FakeCrawl c : Arrays.asList(crawl, alone)) {
+            c.space.put("/a", 3 * GB);
+            c.checkAvailableSpace();
+        }
+        assertTrue(crawl.getMountStatus().get("/a").getSecondsToThreshold() > 0);
+        assertFalse(crawl.paused);
+        // Without the writer, /a is predicted to reach the threshold and the crawl paused
+        assertTrue(alone.paused);
+
+        // A drained mount below the pause threshold still pauses
+        crawl.space.put("/a", GB);
+        crawl.checkAvailableSpace();
+        assertTrue(crawl.paused);
+    }
+
+    public void testOperatorPauseNotResumed() {
+        FakeCrawl crawl = new FakeCrawl();
+        crawl.paused = true;
+        crawl.space.put("/a", GB);
+        crawl.checkAvailableSpace();
+        crawl.space.put("/a", 100 * GB);
+        crawl.checkAvailableSpace();
+        assertTrue(crawl.paused);
+        assertEquals(0, crawl.resumes);
+    }
+
+    public void testOperatorResumeWhileLow() {
+        FakeCrawl crawl = new FakeCrawl();
+        crawl.space.put("/a", GB);
+        crawl.checkAvailableSpace();
+        crawl.paused = false;
+        crawl.checkAvailableSpace();
+        assertTrue(crawl.paused);
+        assertEquals(2, crawl.pauses);
+    }
+}
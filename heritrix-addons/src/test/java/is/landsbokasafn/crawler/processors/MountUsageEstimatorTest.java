@@ -0,0 +1,59 @@
+package is.landsbokasafn.crawler.processors;
+
+import is.landsbokasafn.crawler.processors.MountUsageEstimator.MountStatus;
+import junit.framework.TestCase;
+
+public class MountUsageEstimatorTest extends TestCase {
+
+    private static final long MB = 1024 * 1024;
+
+    public void testSteadyRate() {
+        MountUsageEstimator estimator = new MountUsageEstimator("/data", 60);
+        MountStatus status = estimator.sample(1000 * MB, 100 * MB, 0);
+        assertEquals(-1, status.getSecondsToThreshold());
+        assertEquals(0.0, status.getBytesPerSecond());
+
+        // 1 MB/s for 10 seconds
+        status = estimator.sample(990 * MB, 100 * MB, 10000);
+        assertEquals((double) MB, status.getBytesPerSecond(), 1);
+        assertEquals(890, status.getSecondsToThreshold());
+
+        status = estimator.sample(980 * MB, 100 * MB, 20000);
+        assertEquals(880, status.getSecondsToThreshold());
+    }
+
+    public void testSmoothing() {
+        MountUsageEstimator estimator = new MountUsageEstimator("/data", 60);
+        long usable = 1000 * MB;
+        long time = 0;
+        estimator.sample(usable, 0, time);
+        for (int i = 0; i < 100; i++) {
+            usable -= 10 * MB;
+            time += 10000;
+            estimator.sample(usable, 0, time);
+        }
+        // A ten second burst at ten times the rate only moves the estimate part of the way
+        usable -= 100 * MB;
+        time += 10000;
+        MountStatus status = estimator.sample(usable, 0, time);
+        assertTrue(status.getBytesPerSecond() > MB);
+        assertTrue(status.getBytesPerSecond() < 5 * MB);
+    }
+
+    public void testSpaceFreed() {
+        MountUsageEstimator estimator = new MountUsageEstimator("/data", 60);
+        estimator.sample(1000 * MB, 100 * MB, 0);
+        estimator.sample(990 * MB, 100 * MB, 10000);
+        // Files moved off, the rate is unchanged
+        MountStatus status = estimator.sample(2000 * MB, 100 * MB, 20000);
+        assertEquals((double) MB, status.getBytesPerSecond(), 1);
+        assertEquals(1900, status.getSecondsToThreshold());
+    }
+
+    public void testBelowThreshold() {
+        MountUsageEstimator estimator = new MountUsageEstimator("/data", 60);
+        assertEquals(0, estimator.sample(50 * MB, 100 * MB, 0).getSecondsToThreshold());
+        // Same time, no rate
+        assertEquals(0.0, estimator.sample(40 * MB, 100 * MB, 0).getBytesPerSecond());
+    }
+}
@@ -0,0 +1,108 @@
+package is.landsbokasafn.crawler.writer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import is.landsbokasafn.crawler.processors.MountUsageEstimator;
+import is.landsbokasafn.crawler.processors.MountUsageEstimator.MountStatus;
+import is.landsbokasafn.crawler.writer.MountSelector.Candidate;
+import junit.framework.TestCase;
+
+public class MountSelectorTest extends TestCase {
+
+    private static final long GB = 1024L * 1024 * 1024;
+
+    public void testSpreadsOverEqualMounts() {
+        MountSelector selector = new MountSelector(600);
+        List<Candidate> candidates = Arrays.asList(
+                new Candidate("/a", 100 * GB, 0),
+                new Candidate("/b", 100 * GB, 0),
+                new Candidate("/c", 100 * GB, 0));
+        int[] counts = new int[3];
+        for (int i = 0; i < 30; i++) {
+            counts[selector.select(candidates, 5 * GB, 1000)]++;
+        }
+        assertEquals(10, counts[0]);
+        assertEquals(10, counts[1]);
+        assertEquals(10, counts[2]);
+    }
+
+    public void testFavoursSpace() {
+        MountSelector selector = new MountSelector(600);
+        List<Candidate> candidates = Arrays.asList(
+                new Candidate("/a", 305 * GB, 0),
+                new Candidate("/b", 105 * GB, 0));
+        int[] counts = new int[2];
+        for (int i = 0; i < 40; i++) {
+            counts[selector.select(candidates, 5 * GB, 1000)]++;
+        }
+        assertEquals(30, counts[0]);
+        assertEquals(10, counts[1]);
+    }
+
+    public void testAvoidsBusyMount() {
+        MountSelector selector = new MountSelector(600);
+        List<Candidate> candidates = Arrays.asList(
+                new Candidate("/a", 100 * GB, 50 * 1024 * 1024),
+                new Candidate("/b", 100 * GB, 0));
+        int[] counts = new int[2];
+        for (int i = 0; i < 30; i++) {
+            counts[selector.select(candidates, 5 * GB, 1000)]++;
+        }
+        assertEquals(10, counts[0]);
+        assertEquals(20, counts[1]);
+    }
+
+    public void testDrains() {
+        MountSelector selector = new MountSelector(600);
+        List<Candidate> candidates = Arrays.asList(
+                new Candidate("/a", 4 * GB, 0),
+                new Candidate("/b", 100 * GB, 0));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1, selector.select(candidates, 5 * GB, 1000));
+        }
+        // All drained, most space wins
+        candidates = Arrays.asList(
+                new Candidate("/a", 4 * GB, 0),
+                new Candidate("/b", 3 * GB, 0));
+        assertEquals(0, selector.select(candidates, 5 * GB, 1000));
+    }
+
+    public void testPicksDecay() {
+        MountSelector selector = new MountSelector(600);
+        List<Candidate> candidates = new ArrayList<>();
+        candidates.add(new Candidate("/a", 100 * GB, 0));
+        selector.select(candidates, 0, 0);
+        selector.select(candidates, 0, 0);
+        assertEquals(2.0, selector.getPicks("/a", 0), 0.001);
+        assertEquals(1.0, selector.getPicks("/a", 600000), 0.001);
+        assertEquals(0.0, selector.getPicks("/b", 0), 0.001);
+    }
+
+    public void testFindMount() {
+        Map<String, MountStatus> mounts = new LinkedHashMap<>();
+        MountStatus root = status("/");
+        MountStatus data = status("/data/");
+        MountStatus disk = status("/data/disk1");
+        mounts.put("/", root);
+        mounts.put("/data/", data);
+        mounts.put("/data/disk1", disk);
+        String sep = File.separator;
+        if (!sep.equals("/")) {
+            return;
+        }
+        assertSame(disk, StripingWARCWriterChainProcessor.findMount(mounts, "/data/disk1/warcs"));
+        assertSame(disk, StripingWARCWriterChainProcessor.findMount(mounts, "/data/disk1"));
+        assertSame(data, StripingWARCWriterChainProcessor.findMount(mounts, "/data/disk10/warcs"));
+        assertSame(root, StripingWARCWriterChainProcessor.findMount(mounts, "/database"));
+        assertNull(StripingWARCWriterChainProcessor.findMount(new LinkedHashMap<String, MountStatus>(), "/data"));
+    }
+
+    private static MountStatus status(String mount) {
+        return new MountUsageEstimator(mount, 60).sample(100 * GB, 0, 0);
+    }
+}
@@ -0,0 +1,110 @@
+package is.landsbokasafn.crawler.benchmarks;
+
+import is.landsbokasafn.crawler.deciderules.DecideRuleSequence;
+import is.landsbokasafn.crawler.deciderules.IpAddressCidrSetDecideRule;
+import is.landsbokasafn.crawler.deciderules.MatchesListRegexDecideRule;
+import is.landsbokasafn.crawler.deciderules.PathSegmentsDecideRule;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.deciderules.DecideResult;
+import org.archive.modules.deciderules.DecideRule;
+import org.archive.modules.deciderules.MatchesRegexDecideRule;
+import org.archive.modules.deciderules.PrerequisiteAcceptDecideRule;
+import org.archive.modules.deciderules.RejectDecideRule;
+import org.archive.modules.deciderules.TooManyHopsDecideRule;
+import org.archive.modules.deciderules.TransclusionDecideRule;
+import org.archive.modules.fetcher.DefaultServerCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A scope sequence shaped like the one used for domain crawls: reject all, accept the domain, then a series of 
+ * reject rules, ending with rules that accept prerequisites.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecideRuleSequenceBenchmark {
+
+    @Param({ "false", "true" })
+    boolean reverseEvaluation;
+
+    @Param({ "100" })
+    int regexCount;
+
+    DecideRuleSequence sequence;
+    CrawlURI[] uris;
+
+    @Setup
+    public void setup() throws Exception {
+        UriCorpus corpus = new UriCorpus();
+        List<DecideRule> rules = new ArrayList<>();
+
+        rules.add(new RejectDecideRule());
+
+        MatchesRegexDecideRule domain = new MatchesRegexDecideRule();
+        domain.setRegex(Pattern.compile("^https?://([^/]+\\.)?[^/]+\\.is/.*"));
+        domain.setDecision(DecideResult.ACCEPT);
+        rules.add(domain);
+
+        TooManyHopsDecideRule hops = new TooManyHopsDecideRule();
+        hops.setMaxHops(4);
+        rules.add(hops);
+
+        rules.add(new TransclusionDecideRule());
+
+        MatchesListRegexDecideRule regexList = new MatchesListRegexDecideRule();
+        regexList.setDecision(DecideResult.REJECT);
+        regexList.setCompiledMatching(true);
+        regexList.addAll(corpus.rejectRegexes(regexCount));
+        rules.add(regexList);
+
+        MatchesRegexDecideRule assets = new MatchesRegexDecideRule();
+        assets.setRegex(Pattern.compile(".*\\.(exe|iso|zip|tar\\.gz)$"));
+        assets.setDecision(DecideResult.REJECT);
+        rules.add(assets);
+
+        rules.add(new PathSegmentsDecideRule());
+
+        IpAddressCidrSetDecideRule ips = new IpAddressCidrSetDecideRule();
+        ips.setIpAddressCidrs(new LinkedHashSet<>(UriCorpus.cidrs(50, UriCorpus.DEFAULT_SEED)));
+        ips.setServerCache(new DefaultServerCache());
+        ips.setDecision(DecideResult.REJECT);
+        rules.add(ips);
+
+        rules.add(new PrerequisiteAcceptDecideRule());
+
+        sequence = new DecideRuleSequence();
+        sequence.setRules(rules);
+        sequence.setReverseEvaluation(reverseEvaluation);
+        sequence.setRegisterMBean(false);
+
+        uris = UriCorpus.crawlUris(corpus.uris(10000));
+        for (CrawlURI curi : uris) {
+            curi.setServerIP(UriCorpus.ipFor(curi.getUURI().getReferencedHost()));
+        }
+    }
+
+    @Benchmark
+    public DecideResult decide(UriCursor cursor) {
+        return sequence.decisionFor(cursor.next(uris));
+    }
+}
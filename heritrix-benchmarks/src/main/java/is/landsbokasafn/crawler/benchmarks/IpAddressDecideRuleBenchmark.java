@@ -0,0 +1,88 @@
+package is.landsbokasafn.crawler.benchmarks;
+
+import is.landsbokasafn.crawler.deciderules.IpAddressCidrSetDecideRule;
+import is.landsbokasafn.crawler.deciderules.IpAddressSetDecideRule;
+
+import java.net.InetAddress;
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.deciderules.DecideResult;
+import org.archive.modules.deciderules.PredicatedDecideRule;
+import org.archive.modules.fetcher.DefaultServerCache;
+import org.archive.modules.net.CrawlHost;
+import org.archive.modules.net.ServerCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Both IP address rules, either with the IP the fetcher stashes in the CrawlURI (as after a fetch) or looked up
+ * in the server cache (as when scope is rechecked before fetching).
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IpAddressDecideRuleBenchmark {
+
+    @Param({ "IpAddressSetDecideRule", "IpAddressCidrSetDecideRule" })
+    String ruleClass;
+
+    @Param({ "serverIp", "serverCache" })
+    String addressSource;
+
+    @Param({ "10", "200" })
+    int cidrCount;
+
+    PredicatedDecideRule rule;
+    CrawlURI[] uris;
+
+    @Setup
+    public void setup() throws Exception {
+        UriCorpus corpus = new UriCorpus();
+        LinkedHashSet<String> cidrs = new LinkedHashSet<>(UriCorpus.cidrs(cidrCount, UriCorpus.DEFAULT_SEED));
+        ServerCache serverCache = new DefaultServerCache();
+        if (ruleClass.equals("IpAddressSetDecideRule")) {
+            IpAddressSetDecideRule setRule = new IpAddressSetDecideRule();
+            setRule.setIpAddresses(cidrs);
+            setRule.setServerCache(serverCache);
+            rule = setRule;
+        } else {
+            IpAddressCidrSetDecideRule cidrRule = new IpAddressCidrSetDecideRule();
+            cidrRule.setIpAddressCidrs(cidrs);
+            cidrRule.setServerCache(serverCache);
+            rule = cidrRule;
+        }
+        rule.setDecision(DecideResult.REJECT);
+
+        uris = UriCorpus.crawlUris(corpus.uris(10000));
+        for (CrawlURI curi : uris) {
+            String ip = UriCorpus.ipFor(curi.getUURI().getReferencedHost());
+            if (addressSource.equals("serverIp")) {
+                curi.setServerIP(ip);
+            } else {
+                CrawlHost host = serverCache.getHostFor(curi.getUURI());
+                if (host.getIP() == null) {
+                    host.setIP(InetAddress.getByName(ip), 3600);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public DecideResult decide(UriCursor cursor) {
+        return rule.decisionFor(cursor.next(uris));
+    }
+}
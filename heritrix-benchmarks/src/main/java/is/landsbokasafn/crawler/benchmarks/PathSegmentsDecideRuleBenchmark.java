@@ -0,0 +1,41 @@
+package is.landsbokasafn.crawler.benchmarks;
+
+import is.landsbokasafn.crawler.deciderules.PathSegmentsDecideRule;
+
+import java.util.concurrent.TimeUnit;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.deciderules.DecideResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PathSegmentsDecideRuleBenchmark {
+
+    PathSegmentsDecideRule rule;
+    CrawlURI[] uris;
+
+    @Setup
+    public void setup() throws Exception {
+        rule = new PathSegmentsDecideRule();
+        uris = UriCorpus.crawlUris(new UriCorpus().uris(10000));
+    }
+
+    @Benchmark
+    public DecideResult decide(UriCursor cursor) {
+        return rule.decisionFor(cursor.next(uris));
+    }
+}
@@ -0,0 +1,58 @@
+package is.landsbokasafn.crawler.benchmarks;
+
+import is.landsbokasafn.crawler.frontier.HostnameQueueAssignmentPolicyWithLimits;
+import is.landsbokasafn.crawler.frontier.SurtAuthorityQueueAssignmentPolicyWithLimits;
+
+import java.util.concurrent.TimeUnit;
+
+import org.archive.crawler.frontier.QueueAssignmentPolicy;
+import org.archive.modules.CrawlURI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings("deprecation")
+public class QueueAssignmentPolicyBenchmark {
+
+    @Param({ "hostname", "surtAuthority" })
+    String policyType;
+
+    @Param({ "-1", "2", "3" })
+    int limit;
+
+    QueueAssignmentPolicy policy;
+    CrawlURI[] uris;
+
+    @Setup
+    public void setup() throws Exception {
+        if (policyType.equals("hostname")) {
+            HostnameQueueAssignmentPolicyWithLimits hostname = new HostnameQueueAssignmentPolicyWithLimits();
+            hostname.setLimit(limit);
+            policy = hostname;
+        } else {
+            SurtAuthorityQueueAssignmentPolicyWithLimits surt = new SurtAuthorityQueueAssignmentPolicyWithLimits();
+            surt.setLimit(limit);
+            policy = surt;
+        }
+        uris = UriCorpus.crawlUris(new UriCorpus().uris(10000));
+    }
+
+    @Benchmark
+    public String classKey(UriCursor cursor) {
+        return policy.getClassKey(cursor.next(uris));
+    }
+}
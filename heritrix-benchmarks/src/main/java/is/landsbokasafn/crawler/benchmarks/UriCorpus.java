@@ -0,0 +1,220 @@
+package is.landsbokasafn.crawler.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.extractor.LinkContext;
+import org.archive.net.UURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Deterministic generator of synthetic, but realistically shaped, crawl URIs.
+ * <p>
+ * Hosts follow a skewed popularity distribution, so a few large sites dominate as in a real crawl. The URI mix
+ * is roughly:
+ * <ul>
+ * <li>45% ordinary pages, 2-4 path segments</li>
+ * <li>15% deep paths, 6-15 segments</li>
+ * <li>15% query heavy URLs with several parameters and session ids</li>
+ * <li>15% crawler traps: calendars, repeating path segments and endlessly nested directories</li>
+ * <li>10% embedded resources (images, scripts, style sheets)</li>
+ * </ul>
+ * The same seed always yields the same corpus so results are comparable between runs.
+ */
+public class UriCorpus {
+    public static final long DEFAULT_SEED = 20240909L;
+
+    private static final String[] TLDS = { "is", "is", "is", "is", "is", "is", "com", "org", "net", "co.uk" };
+    private static final String[] WORDS = { "frettir", "news", "sport", "menning", "forsida", "about", "products",
+            "blog", "archive", "media", "docs", "help", "search", "category", "tag", "user", "files", "images",
+            "2023", "2024", "en", "is", "article", "page", "view", "list", "data", "api", "v1", "static" };
+    private static final String[] PARAMS = { "q", "page", "sort", "order", "lang", "id", "ref", "utm_source",
+            "utm_medium", "filter", "view", "PHPSESSID", "jsessionid", "sid", "offset", "limit" };
+    private static final String[] EXTENSIONS = { ".jpg", ".png", ".gif", ".css", ".js", ".svg", ".woff2" };
+
+    private final Random random;
+    private final List<String> hosts;
+
+    public UriCorpus(long seed, int hostCount) {
+        this.random = new Random(seed);
+        this.hosts = new ArrayList<>(hostCount);
+        for (int i = 0; i < hostCount; i++) {
+            StringBuilder host = new StringBuilder();
+            int subdomains = random.nextInt(10) < 6 ? 1 : random.nextInt(4);
+            for (int s = 0; s < subdomains; s++) {
+                host.append(s == 0 && random.nextBoolean() ? "www" : word()).append('.');
+            }
+            host.append("site").append(i).append('.').append(TLDS[random.nextInt(TLDS.length)]);
+            hosts.add(host.toString());
+        }
+    }
+
+    public UriCorpus() {
+        this(DEFAULT_SEED, 2000);
+    }
+
+    public List<String> getHosts() {
+        return hosts;
+    }
+
+    /**
+     * @return A host, popular hosts being much more likely
+     */
+    public String host() {
+        double r = random.nextDouble();
+        return hosts.get((int) (r * r * r * hosts.size()));
+    }
+
+    /**
+     * @return A deterministic IPv4 address for the host. Hosts are spread over a few hundred /24 networks.
+     */
+    public static String ipFor(String host) {
+        int h = host.hashCode() * 0x9E3779B9;
+        return "10." + ((h >>> 24) & 0x3) + "." + ((h >>> 16) & 0xff) + "." + ((h >>> 8) & 0xff);
+    }
+
+    public List<String> uris(int count) {
+        List<String> uris = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            uris.add(uri());
+        }
+        return uris;
+    }
+
+    public String uri() {
+        StringBuilder uri = new StringBuilder(random.nextInt(10) < 3 ? "http://" : "https://").append(host());
+        int kind = random.nextInt(100);
+        if (kind < 45) {
+            segments(uri, 2 + random.nextInt(3));
+            uri.append(random.nextBoolean() ? ".html" : "/");
+        } else if (kind < 60) {
+            segments(uri, 6 + random.nextInt(10));
+            uri.append(".html");
+        } else if (kind < 75) {
+            segments(uri, 1 + random.nextInt(3));
+            uri.append(".php");
+            int params = 2 + random.nextInt(7);
+            for (int p = 0; p < params; p++) {
+                uri.append(p == 0 ? '?' : '&').append(PARAMS[random.nextInt(PARAMS.length)]).append('=');
+                if (random.nextInt(4) == 0) {
+                    uri.append(Long.toHexString(random.nextLong())).append(Long.toHexString(random.nextLong()));
+                } else {
+                    uri.append(word());
+                }
+            }
+        } else if (kind < 90) {
+            trap(uri);
+        } else {
+            segments(uri, 1 + random.nextInt(4));
+            uri.append(EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+        }
+        return uri.toString();
+    }
+
+    private void trap(StringBuilder uri) {
+        switch (random.nextInt(3)) {
+        case 0:
+            // Calendar that links to next month forever
+            uri.append("/calendar");
+            int months = 1 + random.nextInt(8);
+            for (int m = 0; m < months; m++) {
+                uri.append("/calendar/").append(2024 + m / 12).append('/').append(1 + m % 12);
+            }
+            break;
+        case 1:
+            // Relative link resolved against itself, e.g. a/b/a/b/a/b
+            String a = word();
+            String b = word();
+            int repeats = 2 + random.nextInt(5);
+            for (int r = 0; r < repeats; r++) {
+                uri.append('/').append(a).append('/').append(b);
+            }
+            break;
+        default:
+            // Directory that nests into itself
+            String dir = word();
+            int depth = 3 + random.nextInt(8);
+            for (int d = 0; d < depth; d++) {
+                uri.append('/').append(dir);
+            }
+            uri.append("/index.html");
+        }
+    }
+
+    private void segments(StringBuilder uri, int count) {
+        for (int i = 0; i < count; i++) {
+            uri.append('/').append(word());
+            if (random.nextInt(5) == 0) {
+                uri.append('-').append(random.nextInt(100000));
+            }
+        }
+    }
+
+    private String word() {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    /**
+     * @return Regular expressions typical of a reject list: a mix of site specific rules, trap patterns and
+     *         generic rules, most of which will not match a given URI
+     */
+    public List<String> rejectRegexes(int count) {
+        List<String> regexes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String host = hosts.get(random.nextInt(hosts.size())).replace(".", "\\.");
+            switch (i % 6) {
+            case 0:
+                regexes.add("^https?://([^/]+\\.)?" + host + "/.*");
+                break;
+            case 1:
+                regexes.add("^https?://" + host + "/" + word() + "/.*\\?.*" + PARAMS[random.nextInt(PARAMS.length)]
+                        + "=.*");
+                break;
+            case 2:
+                regexes.add(".*/" + word() + i + "/.*");
+                break;
+            case 3:
+                regexes.add(".*\\?.*(" + PARAMS[random.nextInt(PARAMS.length)] + "|x" + i + ")=[0-9a-f]{32}.*");
+                break;
+            case 4:
+                regexes.add("^https?://[^/]*" + word() + i + "[^/]*/.*");
+                break;
+            default:
+                regexes.add(".*/calendar/(.*/)?" + (2000 + i) + "/.*");
+            }
+        }
+        return regexes;
+    }
+
+    /**
+     * @return Random CIDR ranges, /20 to /32, in the network used by {@link #ipFor(String)}
+     */
+    public static List<String> cidrs(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> cidrs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int prefix = 20 + random.nextInt(13);
+            cidrs.add("10." + random.nextInt(4) + "." + random.nextInt(256) + "." + random.nextInt(256) + "/" + prefix);
+        }
+        return cidrs;
+    }
+
+    /**
+     * Wrap URIs in CrawlURIs as discovered by following links: a hop path of one to five links and a via of the
+     * site's front page.
+     */
+    public static CrawlURI[] crawlUris(List<String> uris) throws URIException {
+        Random random = new Random(DEFAULT_SEED);
+        CrawlURI[] curis = new CrawlURI[uris.size()];
+        for (int i = 0; i < curis.length; i++) {
+            UURI uuri = UURIFactory.getInstance(uris.get(i));
+            UURI via = UURIFactory.getInstance(uuri.getScheme() + "://" + uuri.getAuthorityMinusUserinfo() + "/");
+            String hops = "LLLLL".substring(0, 1 + random.nextInt(5));
+            curis[i] = new CrawlURI(uuri, hops, via, LinkContext.NAVLINK_MISC);
+        }
+        return curis;
+    }
+}
@@ -0,0 +1,18 @@
+package is.landsbokasafn.crawler.benchmarks;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per thread position in a benchmark's corpus, so that each invocation evaluates the next URI.
+ */
+@State(Scope.Thread)
+public class UriCursor {
+    private int next = 0;
+
+    public <T> T next(T[] items) {
+        int i = next;
+        next = i + 1 == items.length ? 0 : i + 1;
+        return items[i];
+    }
+}